@@ -16,17 +16,24 @@ import auxiliar.PortNumber;
 
 /**
  * Version 11: Compute expected number of ports needed (port occupation +
- * security margin). Compute the optimum allocation using a brute force algorithm.
+ * security margin). Compute the optimum allocation using a branch and bound
+ * algorithm.
  * 
  * @author pfondo
  *
  */
 public class Algorithm11 extends BaseAlgorithm {
 
+	private static final long serialVersionUID = 1L;
+
 	private int lastNeededPorts = 0;
 
 	private static final double EXPECTED_LOAD_MARGIN = 0.2;
 
+	// Nodes of the search of the optimum per second of the polling interval, so
+	// that the search takes the same steps on any machine
+	private static final double SEARCH_NODES_PER_SECOND = 1e7;
+
 	private double computeExpectedLoad(Map<FlowEntry, Long> flowMap) {
 		double expectedLoad = 0;
 		for (long flowBytes : flowMap.values()) {
@@ -100,8 +107,9 @@ public class Algorithm11 extends BaseAlgorithm {
 	}
 
 	/**
-	 * Check all possibilities and get the one which minimizes energy consumption
-	 * (maximizes quality of assignation) and flow modifications.
+	 * Get the allocation which minimizes energy consumption (maximizes quality of
+	 * assignation). Among the best ones, the same allocation as checking all
+	 * possibilities is returned (see FairAllocationSolver).
 	 *
 	 * @param currentAllocation
 	 *            Contains the original allocation on the current ports
@@ -111,12 +119,8 @@ public class Algorithm11 extends BaseAlgorithm {
 			Map<PortNumber, List<Entry<FlowEntry, Long>>> currentAllocation, Set<PortNumber> linkPorts,
 			double expectedLoad, int neededPorts, double bytesInterval) {
 
-		int numFlows = 0;
-
 		List<Entry<FlowEntry, Long>> flowList = new ArrayList<Entry<FlowEntry, Long>>();
 
-		Map<PortNumber, PortStatistics> portOccupation = new HashMap<PortNumber, PortStatistics>();
-
 		List<PortNumber> usedPorts = new ArrayList<PortNumber>();
 		int count = 0;
 		for (PortNumber pn : linkPorts) {
@@ -124,77 +128,45 @@ public class Algorithm11 extends BaseAlgorithm {
 				break;
 			}
 			usedPorts.add(pn);
-			portOccupation.put(pn, new PortStatistics(null, pn, delay, portBandwidth, 0));
 			count += 1;
 		}
 
-		// Initially allocate all flows to the first port
-		PortNumber port0 = usedPorts.get(0);
-		PortStatistics ps = new PortStatistics(null, port0, delay, portBandwidth, 0);
-
 		for (PortNumber pn : currentAllocation.keySet()) {
 			for (Entry<FlowEntry, Long> entry : currentAllocation.get(pn)) {
-				ps.addBytes(entry.getValue());
-				ps.addFlow();
 				flowList.add(entry);
-				numFlows += 1;
 			}
 		}
-		portOccupation.put(port0, ps);
-
-		int[] currentState = new int[numFlows]; // Initialized to 0s
-
-		// To store the best results
-		int[] bestAllocation = currentState;
-		double bestQuality = computeAllocationQuality(portOccupation);
-		int bestNumFlowMods = numFlows; // This is not used initially
-		long iteration = 0;
-
-		boolean done = false;
-
-		// Brute force test all possibilities
 
-		while (!done) {
-			iteration += 1;
-
-			done = true;
-			for (int i = 0; i < numFlows; i++) {
-				if (currentState[i] == (neededPorts - 1)) {
-					continue;
-				}
-				// currentState[i] must be incremented, and the previous ones set to 0
-				currentState[i] += 1;
-				moveFlow(portOccupation, usedPorts.get(currentState[i] - 1), usedPorts.get(currentState[i]),
-						flowList.get(i));
-				for (int j = 0; j < i; j++) {
-					moveFlow(portOccupation, usedPorts.get(neededPorts - 1), usedPorts.get(0), flowList.get(j));
-					currentState[j] = 0;
-				}
-
-				// TODO: This is a new state. Do the processing
-				// System.err.println(Arrays.toString(currentState));
-				if (iteration % 1000000000 == 0) {
-					System.err.println("\titeration: " + iteration);
-				}
+		long[] flowBytes = new long[flowList.size()];
+		for (int i = 0; i < flowBytes.length; i++) {
+			flowBytes[i] = flowList.get(i).getValue();
+		}
 
-				double currentQuality = computeAllocationQuality(portOccupation);
-				if (currentQuality > bestQuality) {
-					bestQuality = currentQuality;
-					bestAllocation = currentState.clone();
-					if (DEBUG) {
-						System.err.println("Best allocation: " + Arrays.toString(bestAllocation));
-						printPortOccupation(portOccupation);
-						System.err.println("Best quality: " + bestQuality);
-					}
-				}
+		// The search must finish within the polling interval
+		long maxNodes = (long) (delay / 1e9 * SEARCH_NODES_PER_SECOND);
+		FairAllocationSolver solver = new FairAllocationSolver(flowBytes, usedPorts.size(), maxNodes);
+		int[] bestAllocation = solver.solve();
+		if (!solver.isOptimal()) {
+			System.err.println("Algorithm11: the allocation at " + networkSimulator.getCurrentTime() / 1e9
+					+ " s is not guaranteed to be the optimum (" + flowBytes.length + " flows, at most " + maxNodes
+					+ " nodes searched)");
+		}
 
-				done = false;
-				break;
+		if (DEBUG) {
+			System.err.println("Best allocation: " + Arrays.toString(bestAllocation));
+			System.err.println("Best squares sum: " + solver.getBestValue() + " (optimal: " + solver.isOptimal() + ")");
+			long[] portBytes = new long[usedPorts.size()];
+			for (int i = 0; i < bestAllocation.length; i++) {
+				portBytes[bestAllocation[i]] += flowBytes[i];
 			}
+			AllocationQuality quality = new AllocationQuality();
+			quality.reset(bytesInterval * expectedLoad / neededPorts);
+			for (long bytes : portBytes) {
+				quality.addPort(bytes);
+			}
+			System.err.println("Best Jain's index: " + quality.getJainIndex());
 		}
 
-		// System.out.println("Number of iterations: " + iteration);
-
 		return convertCurrentStateToAllocation(bestAllocation, usedPorts, flowList);
 	}
 
@@ -219,58 +191,4 @@ public class Algorithm11 extends BaseAlgorithm {
 		return proposedAllocation;
 	}
 
-	public Map<PortNumber, PortStatistics> moveFlowTentative(Map<PortNumber, PortStatistics> portOccupation,
-			PortNumber fromPort, PortNumber toPort, Entry<FlowEntry, Long> entryFlowEntry) {
-		Map<PortNumber, PortStatistics> portOccupationTentative = new HashMap<PortNumber, PortStatistics>(
-				portOccupation);
-		portOccupationTentative.get(toPort)
-				.setBytes(portOccupationTentative.get(toPort).getBytes() + entryFlowEntry.getValue());
-		portOccupationTentative.get(toPort).addFlow();
-
-		portOccupationTentative.get(fromPort)
-				.setBytes(portOccupationTentative.get(fromPort).getBytes() - entryFlowEntry.getValue());
-		portOccupationTentative.get(fromPort).removeFlow();
-		return portOccupationTentative;
-	}
-
-	public void moveFlow(Map<PortNumber, PortStatistics> portOccupation, PortNumber fromPort, PortNumber toPort,
-			Entry<FlowEntry, Long> entryFlowEntry) {
-		portOccupation.get(toPort).setBytes(portOccupation.get(toPort).getBytes() + entryFlowEntry.getValue());
-		portOccupation.get(toPort).addFlow();
-
-		portOccupation.get(fromPort).setBytes(portOccupation.get(fromPort).getBytes() - entryFlowEntry.getValue());
-		portOccupation.get(fromPort).removeFlow();
-	}
-
-	/**
-	 * Compute quality of the allocation using Jain's fairness index.
-	 * 
-	 * @param portOccupation
-	 * @param averageBytesPort
-	 * @return The higher, the better. n is the best, 1/n is the worst.
-	 */
-	public double computeAllocationQuality(Map<PortNumber, PortStatistics> portOccupation) {
-		double sum = 0;
-		double squaresSum = 0;
-		for (PortStatistics ps : portOccupation.values()) {
-			sum += (double) (ps.getBytes());
-			squaresSum += Math.pow((ps.getBytes()), 2);
-		}
-		double quality = Math.pow(sum, 2) / (portOccupation.size() * squaresSum);
-		return quality;
-	}
-
-	/**
-	 * @param portOccupation
-	 * @param averageBytesPort
-	 * @return The lower, the better. 0 is the best possible
-	 */
-	public double computeAllocationQualityOld(Map<PortNumber, PortStatistics> portOccupation, double averageBytesPort) {
-		double quality = 0;
-		for (PortStatistics ps : portOccupation.values()) {
-			quality += Math.pow(Math.max(ps.getBytes() - averageBytesPort, 0), 2);
-		}
-		return quality;
-	}
-
 }
@@ -21,6 +21,10 @@ import auxiliar.PortNumber;
  */
 public class Algorithm2 extends BaseAlgorithm {
 
+	private static final long serialVersionUID = 1L;
+
+	private final PortLoadHeap portOccupation = new PortLoadHeap(true);
+
 	@Override
 	protected double getPortBytesAvailable(long numFlows) {
 		final double C = 0.3;
@@ -46,22 +50,10 @@ public class Algorithm2 extends BaseAlgorithm {
 			}
 		});
 
-		Map<PortNumber, PortStatistics> portOccupation = new HashMap<PortNumber, PortStatistics>();
-		for (PortNumber pn : linkPorts) {
-			portOccupation.put(pn, new PortStatistics(null, pn, delay, portBandwidth, 0));
-		}
-
-		List<Entry<PortNumber, PortStatistics>> sortedPortOccupation;
+		portOccupation.reset(linkPorts, linkPorts.size());
 
 		// int count = 0;
 		for (Entry<FlowEntry, Long> entryFlowEntry : flowList) {
-			sortedPortOccupation = new ArrayList<Entry<PortNumber, PortStatistics>>(portOccupation.entrySet());
-			Collections.sort(sortedPortOccupation, new Comparator<Entry<PortNumber, PortStatistics>>() {
-				@Override
-				public int compare(Entry<PortNumber, PortStatistics> o1, Entry<PortNumber, PortStatistics> o2) {
-					return (int) Math.signum(o2.getValue().getBytes() - o1.getValue().getBytes());
-				}
-			});
 			// To get the time flow has been active during the last interval
 
 			long currentFlowBytes = entryFlowEntry.getValue();
@@ -77,30 +69,19 @@ public class Algorithm2 extends BaseAlgorithm {
 			// Math.min(entryFlowEntry.getKey().life(NetworkSimulator.getCurrentTime()),
 			// delay));
 
-			for (Entry<PortNumber, PortStatistics> entry : sortedPortOccupation) {
-				PortNumber pn = entry.getKey();
-				double portBytesAvailable = getPortBytesAvailable(entry.getValue().getNumFlowsInterval());
-				long total = portOccupation.get(pn).getBytes() + currentFlowBytes;
-				// log.info("Port " + pn + ": " + total + "bytes");
-				if (total <= portBytesAvailable || portOccupation.get(pn).getBytes() == 0) {
-					// It can be allocated in this port
-					// log.info("FE: " + flowEntry.getKey().id() + " -> " + pn);
-					// System.out.println("+Port" + pn + ": " +
-					// entryFlowEntry.getKey() + " -> "
-					// + entryFlowEntry.getValue() + " bytes");
-					portOccupation.get(pn).setBytes(total);
-					portOccupation.get(pn).addFlow();
-					// This flow only needs to be modified
-					// if the port allocation is different
-					// from the current
-					flowAllocation.put(entryFlowEntry.getKey(), pn);
-					break;
-				}
+			// Fill the most loaded port first
+			int p = portOccupation.firstFit(currentFlowBytes, this);
+			if (p != -1) {
+				// It can be allocated in this port
+				portOccupation.addFlow(p, currentFlowBytes);
+				// This flow only needs to be modified if the port
+				// allocation is different from the current
+				flowAllocation.put(entryFlowEntry.getKey(), portOccupation.getPort(p));
 			}
 		}
 		if (DEBUG) {
-			for (PortNumber pn : portOccupation.keySet()) {
-				System.out.println("_Port " + pn + ": " + portOccupation.get(pn) + " bytes");
+			for (int p = 0; p < portOccupation.size(); p++) {
+				System.out.println("_Port " + portOccupation.getPort(p) + ": " + portOccupation.getLoad(p) + " bytes");
 			}
 		}
 		// System.out.println(flowAllocation);
@@ -23,6 +23,10 @@ import auxiliar.PortNumber;
  */
 public class Algorithm3 extends BaseAlgorithm {
 
+	private static final long serialVersionUID = 1L;
+
+	private final PortLoadHeap portOccupation = new PortLoadHeap(false);
+
 	private static final double EXPECTED_LOAD_MARGIN = 0.2;
 
 	private int lastNeededPorts = 0;
@@ -53,30 +57,12 @@ public class Algorithm3 extends BaseAlgorithm {
 			}
 		});
 
-		Map<PortNumber, PortStatistics> portOccupation = new HashMap<PortNumber, PortStatistics>();
-		int count = 0;
-		for (PortNumber pn : linkPorts) {
-			if (count >= lastNeededPorts) {
-				break;
-			}
-			portOccupation.put(pn, new PortStatistics(null, pn, delay, portBandwidth, 0));
-			count++;
-		}
-
-		List<Entry<PortNumber, PortStatistics>> sortedPortOccupation;
+		portOccupation.reset(linkPorts, lastNeededPorts);
 
 		// Compute the expected load of the interface
 
 		for (Entry<FlowEntry, Long> entryFlowEntry : flowList) {
 
-			sortedPortOccupation = new ArrayList<Entry<PortNumber, PortStatistics>>(portOccupation.entrySet());
-			Collections.sort(sortedPortOccupation, new Comparator<Entry<PortNumber, PortStatistics>>() {
-				@Override
-				public int compare(Entry<PortNumber, PortStatistics> o1, Entry<PortNumber, PortStatistics> o2) {
-					// Minimize port occupation
-					return (int) Math.signum(o1.getValue().getBytes() - o2.getValue().getBytes());
-				}
-			});
 			// To get the time flow has been active during the last interval
 
 			long currentFlowBytes = entryFlowEntry.getValue();
@@ -84,24 +70,14 @@ public class Algorithm3 extends BaseAlgorithm {
 			currentFlowBytes *= delay
 					/ Math.min(entryFlowEntry.getKey().life(networkSimulator.getCurrentTime()), delay);
 
-			for (Entry<PortNumber, PortStatistics> entry : sortedPortOccupation) {
-				PortNumber pn = entry.getKey();
-				double portBytesAvailable = getPortBytesAvailable(entry.getValue().getNumFlowsInterval());
-				long total = portOccupation.get(pn).getBytes() + currentFlowBytes;
-				// log.info("Port " + pn + ": " + total + "bytes");
-				if (total <= portBytesAvailable || portOccupation.get(pn).getBytes() == 0) {
-					// It can be allocated in this port
-					// log.info("FE: " + flowEntry.getKey().id() + " -> " + pn);
-					// System.out.println("+Port" + pn + ": " +
-					// entryFlowEntry.getKey() + " -> "
-					// + entryFlowEntry.getValue() + " bytes");
-					portOccupation.get(pn).setBytes(total);
-					portOccupation.get(pn).addFlow();
-					// This flow only needs to be modified if the port
-					// allocation is different from the current
-					flowAllocation.put(entryFlowEntry.getKey(), pn);
-					break;
-				}
+			// Minimize port occupation
+			int p = portOccupation.firstFit(currentFlowBytes, this);
+			if (p != -1) {
+				// It can be allocated in this port
+				portOccupation.addFlow(p, currentFlowBytes);
+				// This flow only needs to be modified if the port
+				// allocation is different from the current
+				flowAllocation.put(entryFlowEntry.getKey(), portOccupation.getPort(p));
 			}
 			// DEBUG
 			// networkSimulator.getPrintStream()
@@ -112,14 +88,10 @@ public class Algorithm3 extends BaseAlgorithm {
 		}
 
 		if (DEBUG) {
-			// Add remaining ports to port occupation
+			// The remaining ports are empty
 			for (PortNumber pn : linkPorts) {
-				if (!portOccupation.containsKey(pn)) {
-					portOccupation.put(pn, new PortStatistics(null, pn, delay, portBandwidth, 0));
-				}
-			}
-			for (PortNumber pn : portOccupation.keySet()) {
-				System.out.println("_Port " + pn + ": " + portOccupation.get(pn) + " bytes");
+				int p = portOccupation.getPortIndex(pn);
+				System.out.println("_Port " + pn + ": " + (p == -1 ? 0 : portOccupation.getLoad(p)) + " bytes");
 			}
 		}
 		// System.out.println(flowAllocation);
@@ -25,6 +25,8 @@ import auxiliar.PortNumber;
  */
 public class Algorithm4 extends BaseAlgorithm {
 
+	private static final long serialVersionUID = 1L;
+
 	private static final double EXPECTED_LOAD_MARGIN = 0.2;
 
 	private int lastNeededPorts = 0;
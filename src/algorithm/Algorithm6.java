@@ -24,6 +24,8 @@ import auxiliar.PortNumber;
  */
 public class Algorithm6 extends BaseAlgorithm {
 
+	private static final long serialVersionUID = 1L;
+
 	private static final double EXPECTED_LOAD_MARGIN = 0.2;
 
 	private static final Comparator<Entry<FlowEntry, Long>> flowComparatorDecreasing = new Comparator<Entry<FlowEntry, Long>>() {
@@ -25,6 +25,8 @@ import auxiliar.PortNumber;
  */
 public class Algorithm8 extends BaseAlgorithm {
 
+	private static final long serialVersionUID = 1L;
+
 	private int lastNeededPorts = 0;
 
 	private static final double EXPECTED_LOAD_MARGIN = 0.2;
@@ -40,13 +42,11 @@ public class Algorithm8 extends BaseAlgorithm {
 		}
 	};
 
-	private static final Comparator<Entry<PortNumber, PortStatistics>> portComparatorIncreasing = new Comparator<Entry<PortNumber, PortStatistics>>() {
-		@Override
-		public int compare(Entry<PortNumber, PortStatistics> o1, Entry<PortNumber, PortStatistics> o2) {
-			// Minimize port occupation
-			return (int) Math.signum(o1.getValue().getBytes() - o2.getValue().getBytes());
-		}
-	};
+	// Reused by reallocateFlows()
+	private final PortLoadHeap leastLoadedPorts = new PortLoadHeap(false);
+	private final PortLoadHeap mostLoadedPorts = new PortLoadHeap(true);
+	private final PortFlowIndex portFlows = new PortFlowIndex();
+	private final AllocationQuality quality = new AllocationQuality();
 
 	private double computeExpectedLoad(Map<FlowEntry, Long> flowMap) {
 		double expectedLoad = 0;
@@ -139,26 +139,27 @@ public class Algorithm8 extends BaseAlgorithm {
 			double expectedLoad, int neededPorts, double bytesInterval) {
 		double averageBytesPort = bytesInterval * expectedLoad / neededPorts;
 
-		Map<PortNumber, PortStatistics> portOccupation = new HashMap<PortNumber, PortStatistics>();
-		int count = 0;
-		for (PortNumber pn : currentAllocation.keySet()) {
-			if (count >= neededPorts) {
-				break;
-			}
-			PortStatistics ps = new PortStatistics(null, pn, delay, portBandwidth, 0);
-			for (Entry<FlowEntry, Long> entry : currentAllocation.get(pn)) {
-				ps.addBytes(entry.getValue());
-				ps.addFlow();
+		// The first neededPorts ports (in order of port number) are used. The flows
+		// are identified by their index in flowList.
+		leastLoadedPorts.reset(linkPorts, neededPorts);
+		mostLoadedPorts.reset(linkPorts, neededPorts);
+		int numPorts = leastLoadedPorts.size();
+		portFlows.reset(numPorts);
+		List<Entry<FlowEntry, Long>> flowList = new ArrayList<Entry<FlowEntry, Long>>();
+		for (int p = 0; p < numPorts; p++) {
+			long portBytes = 0;
+			for (Entry<FlowEntry, Long> entry : currentAllocation.get(leastLoadedPorts.getPort(p))) {
+				portFlows.add(p, flowList.size(), entry.getValue());
+				flowList.add(entry);
+				portBytes += entry.getValue();
 			}
-			portOccupation.put(pn, ps);
-
-			count += 1;
+			setPortBytes(p, portBytes);
 		}
 
 		List<Entry<FlowEntry, Long>> flowsNeedReschedule = new ArrayList<Entry<FlowEntry, Long>>();
 
 		for (PortNumber pn : linkPorts) {
-			if (!portOccupation.containsKey(pn)) {
+			if (leastLoadedPorts.getPortIndex(pn) == -1) {
 				flowsNeedReschedule.addAll(currentAllocation.get(pn));
 				// Remove the port from the currentAllocation
 				currentAllocation.remove(pn);
@@ -172,17 +173,20 @@ public class Algorithm8 extends BaseAlgorithm {
 		// occupation.
 
 		for (Entry<FlowEntry, Long> entryFlowEntry : flowsNeedReschedule) {
-			Entry<PortNumber, PortStatistics> entry = Collections.min(portOccupation.entrySet(),
-					portComparatorIncreasing);
-			PortNumber pn = entry.getKey();
-			portOccupation.get(pn).addBytes(entryFlowEntry.getValue());
-			portOccupation.get(pn).addFlow();
-			currentAllocation.get(pn).add(entryFlowEntry);
+			int pn = leastLoadedPorts.peek();
+			setPortBytes(pn, leastLoadedPorts.getLoad(pn) + entryFlowEntry.getValue());
+			portFlows.add(pn, flowList.size(), entryFlowEntry.getValue());
+			flowList.add(entryFlowEntry);
+		}
+
+		quality.reset(averageBytesPort);
+		for (int p = 0; p < numPorts; p++) {
+			quality.addPort(leastLoadedPorts.getLoad(p));
 		}
 
 		int iteration = 0;
 		double improvement = 1;
-		double lastQuality = computeAllocationQuality(portOccupation, averageBytesPort);
+		double lastQuality = quality.getExcess();
 
 		// TODO: [future] Consider allowing getting worse (temporarily)
 		// TODO: [future] Consider moving first flowsThatNeedReschedule before ports
@@ -193,63 +197,36 @@ public class Algorithm8 extends BaseAlgorithm {
 				System.err.println("Iteration " + iteration + " improvement: " + improvement);
 			}
 			// Get most idle port
-			Entry<PortNumber, PortStatistics> entry = Collections.min(portOccupation.entrySet(),
-					portComparatorIncreasing);
-			PortNumber pn = entry.getKey();
+			int pn = leastLoadedPorts.peek();
 
 			// Get capacity (c_pn) of most idle port (pn). c_pn = occupation[pn] -
 			// averageBytesPort. Note: Necessarily, c_pn >= 0
 
-			double pnCapacity = portOccupation.get(pn).getBytes() - averageBytesPort;
+			double pnCapacity = leastLoadedPorts.getLoad(pn) - averageBytesPort;
 
 			// Get most occupied port with more than 1 flow (p1)
-			PortNumber p1 = null;
-			for (PortNumber portNumber : portOccupation.keySet()) {
-				if (currentAllocation.get(portNumber).size() > 1 && (p1 == null
-						|| portOccupation.get(portNumber).getBytes() > portOccupation.get(p1).getBytes())) {
-					p1 = portNumber;
-				}
-			}
+			int p1 = getMostLoadedPort(2);
 
-			if (p1 == null || p1.equals(pn)) {
+			if (p1 == -1 || p1 == pn) {
 				// Not possible improvement. End while.
 				break;
 			}
 
 			// Get flow (f1) in p1 with the highest rate that is lower than or equal to c_pn
 			// if possible.
-
-			Entry<FlowEntry, Long> f1entry = null;
-			int f1pos = 0;
-
-			Entry<FlowEntry, Long> f1entryLowestRate = null;
-			int f1posLowestRate = 0;
-
-			// loop through the flows allocated to p1 (Note: its complexity is O(n) whereas
-			// sorting the flows requires O(nlog(n)))
-			for (int i = 0; i < currentAllocation.get(p1).size(); i++) {
-				Entry<FlowEntry, Long> entryFlowEntry = currentAllocation.get(p1).get(i);
-				if (entryFlowEntry.getValue() <= pnCapacity) {
-					if (f1entry == null || entryFlowEntry.getValue() > f1entry.getValue()) {
-						f1entry = entryFlowEntry;
-						f1pos = i;
-					}
-				} else if (f1entryLowestRate == null || entryFlowEntry.getValue() < f1entryLowestRate.getValue()) {
-					f1entryLowestRate = entryFlowEntry;
-					f1posLowestRate = i;
-				}
-			}
+			int f1pos = portFlows.floor(p1, pnCapacity);
 
 			// If it was not possible, get the lowest-rate flow in p1 (f1). Note that,
 			// f1 > c_pn.
-			if (f1entry == null) {
-				f1entry = f1entryLowestRate;
-				f1pos = f1posLowestRate;
+			if (f1pos == -1) {
+				f1pos = portFlows.higher(p1, pnCapacity);
 			}
+			long f1bytes = portFlows.getBytes(p1, f1pos);
 
-			// Compute improvement of the tentative assignation
-			double currentQuality = computeAllocationQuality(moveFlowTentative(portOccupation, p1, pn, f1entry),
-					averageBytesPort);
+			// Compute improvement of the tentative assignation. Note that the bytes of
+			// the tentative assignation are moved anyway (they are not moved back).
+			double currentQuality = quality.getExcessAfterMove(p1, pn, f1bytes);
+			moveBytes(p1, pn, f1bytes);
 			improvement = lastQuality - currentQuality;
 			lastQuality = currentQuality;
 
@@ -257,67 +234,58 @@ public class Algorithm8 extends BaseAlgorithm {
 			// of improvement
 			if (improvement > 0) {
 				// Now, f1 can be allocated in pn. Move f1 from p1 to pn.
-				moveFlow(currentAllocation, portOccupation, p1, pn, f1entry, f1pos);
+				moveBytes(p1, pn, f1bytes);
+				int f1 = portFlows.getFlow(p1, f1pos);
+				portFlows.remove(p1, f1pos);
+				portFlows.add(pn, f1, f1bytes);
 			}
 
 			iteration += 1;
 		}
+
+		// Dump the flows of each port to currentAllocation, in their original order
+		for (int p = 0; p < numPorts; p++) {
+			List<Entry<FlowEntry, Long>> portFlowList = currentAllocation.get(leastLoadedPorts.getPort(p));
+			portFlowList.clear();
+			for (int flow : portFlows.getFlowsInOrder(p)) {
+				portFlowList.add(flowList.get(flow));
+			}
+		}
 		return currentAllocation;
 	}
 
-	/**
-	 * Moves a flow allocation from one port to another, updating the
-	 * currentAllocation and portOccupation accordingly.
-	 * 
-	 * @param currentAllocation
-	 * @param portOccupation
-	 * @param fromPort
-	 * @param toPort
-	 * @param entryFlowEntry
-	 *            The flow to be moved
-	 * @param flowPos
-	 *            Index of entryFlowEntry element in currentAllocation.get(fromPort)
-	 *            list
-	 */
-	public void moveFlow(Map<PortNumber, List<Entry<FlowEntry, Long>>> currentAllocation,
-			Map<PortNumber, PortStatistics> portOccupation, PortNumber fromPort, PortNumber toPort,
-			Entry<FlowEntry, Long> entryFlowEntry, int flowPos) {
-		// Add entryFlowEntry to toPort
-		portOccupation.get(toPort).setBytes(portOccupation.get(toPort).getBytes() + entryFlowEntry.getValue());
-		portOccupation.get(toPort).addFlow();
-		currentAllocation.get(toPort).add(entryFlowEntry);
-
-		// Remove entryFlowEntry from fromPort
-		portOccupation.get(fromPort).setBytes(portOccupation.get(fromPort).getBytes() - entryFlowEntry.getValue());
-		portOccupation.get(fromPort).removeFlow();
-		currentAllocation.get(fromPort).remove(flowPos);
+	private void setPortBytes(int port, long bytes) {
+		leastLoadedPorts.setLoad(port, bytes);
+		mostLoadedPorts.setLoad(port, bytes);
 	}
 
-	public Map<PortNumber, PortStatistics> moveFlowTentative(Map<PortNumber, PortStatistics> portOccupation,
-			PortNumber fromPort, PortNumber toPort, Entry<FlowEntry, Long> entryFlowEntry) {
-		Map<PortNumber, PortStatistics> portOccupationTentative = new HashMap<PortNumber, PortStatistics>(
-				portOccupation);
-		portOccupationTentative.get(toPort)
-				.setBytes(portOccupationTentative.get(toPort).getBytes() + entryFlowEntry.getValue());
-		portOccupationTentative.get(toPort).addFlow();
-
-		portOccupationTentative.get(fromPort)
-				.setBytes(portOccupationTentative.get(fromPort).getBytes() - entryFlowEntry.getValue());
-		portOccupationTentative.get(fromPort).removeFlow();
-		return portOccupationTentative;
+	/**
+	 * Moves the bytes of a flow from one port to another (the flow itself is not
+	 * moved in portFlows).
+	 */
+	private void moveBytes(int fromPort, int toPort, long flowBytes) {
+		quality.moveFlow(fromPort, toPort, flowBytes);
+		setPortBytes(toPort, leastLoadedPorts.getLoad(toPort) + flowBytes);
+		setPortBytes(fromPort, leastLoadedPorts.getLoad(fromPort) - flowBytes);
 	}
 
 	/**
-	 * @param portOccupation
-	 * @param averageBytesPort
-	 * @return The lowest, the better. 0 is the best possible
+	 * Returns the most loaded port with at least minFlows flows (the one with the
+	 * lowest port number if several have the same bytes), or -1 if there is none.
 	 */
-	public double computeAllocationQuality(Map<PortNumber, PortStatistics> portOccupation, double averageBytesPort) {
-		double quality = 0;
-		for (PortStatistics ps : portOccupation.values()) {
-			quality += Math.pow(Math.max(ps.getBytes() - averageBytesPort, 0), 2);
+	private int getMostLoadedPort(int minFlows) {
+		int first = mostLoadedPorts.peek();
+		if (portFlows.size(first) >= minFlows) {
+			return first;
+		}
+		int selected = -1;
+		for (int p = 0; p < mostLoadedPorts.size(); p++) {
+			if (portFlows.size(p) >= minFlows
+					&& (selected == -1 || mostLoadedPorts.getLoad(p) > mostLoadedPorts.getLoad(selected))) {
+				selected = p;
+			}
 		}
-		return quality;
+		return selected;
 	}
 
 	public Map<FlowEntry, PortNumber> computeAllocationAlg3(Map<FlowEntry, Long> flowMap, Set<PortNumber> linkPorts) {
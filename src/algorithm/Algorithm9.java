@@ -25,6 +25,8 @@ import auxiliar.PortNumber;
  */
 public class Algorithm9 extends BaseAlgorithm {
 
+	private static final long serialVersionUID = 1L;
+
 	private int lastNeededPorts = 0;
 
 	private static final double EXPECTED_LOAD_MARGIN = 0.2;
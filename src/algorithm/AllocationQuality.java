@@ -0,0 +1,147 @@
+package algorithm;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Quality of the allocation of the flows of a bundle to its ports, computed
+ * from the bytes allocated to each port both as Jain's fairness index and as
+ * the sum of the squared excess of bytes over the average of the ports. The
+ * term of each port is kept, so moving a flow from one port to another only
+ * recomputes the terms of those two ports, and a tentative movement is
+ * evaluated without modifying them.
+ *
+ * The sums are always added up over all the ports in port order, as if they
+ * were computed from scratch. Since the local searches stop when the quality
+ * does not improve, a sum updated with the difference of the two terms would
+ * round differently and could stop them at another allocation.
+ *
+ * @author pfondo
+ *
+ */
+public class AllocationQuality implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	// The bytes are expressed in MB in Jain's index, to keep it small
+	private static final double BYTES_SCALE = 1e6;
+
+	private double averageBytesPort = 0;
+	private int numPorts = 0;
+	private long[] portBytes = new long[INITIAL_CAPACITY];
+	// Terms of each port: bytes in MB, their square and the squared excess
+	private double[] scaledBytes = new double[INITIAL_CAPACITY];
+	private double[] squares = new double[INITIAL_CAPACITY];
+	private double[] excesses = new double[INITIAL_CAPACITY];
+
+	/**
+	 * Removes all the ports.
+	 *
+	 * @param averageBytesPort
+	 *            The excess of bytes of each port is computed over it.
+	 */
+	public void reset(double averageBytesPort) {
+		this.averageBytesPort = averageBytesPort;
+		numPorts = 0;
+	}
+
+	/**
+	 * Adds a port. The ports are numbered from 0 in the order they are added.
+	 */
+	public void addPort(long bytes) {
+		if (numPorts == portBytes.length) {
+			int capacity = 2 * numPorts;
+			portBytes = Arrays.copyOf(portBytes, capacity);
+			scaledBytes = Arrays.copyOf(scaledBytes, capacity);
+			squares = Arrays.copyOf(squares, capacity);
+			excesses = Arrays.copyOf(excesses, capacity);
+		}
+		setPortBytes(numPorts++, bytes);
+	}
+
+	public int getNumPorts() {
+		return numPorts;
+	}
+
+	/**
+	 * Returns Jain's fairness index of the bytes of the ports.
+	 *
+	 * @return The higher, the better: 1 is the best, 1/n is the worst.
+	 */
+	public double getJainIndex() {
+		return getJainIndexAfterMove(-1, -1, 0);
+	}
+
+	/**
+	 * Returns the sum of the squared excess of bytes of the ports over the
+	 * average.
+	 *
+	 * @return The lower, the better: 0 is the best possible.
+	 */
+	public double getExcess() {
+		return getExcessAfterMove(-1, -1, 0);
+	}
+
+	/**
+	 * Returns Jain's fairness index if the flow was moved between the given
+	 * ports.
+	 */
+	public double getJainIndexAfterMove(int fromPort, int toPort, long flowBytes) {
+		double sum = 0;
+		double squaresSum = 0;
+		for (int p = 0; p < numPorts; p++) {
+			if (p == fromPort || p == toPort) {
+				double bytes = scale(p == fromPort ? portBytes[p] - flowBytes : portBytes[p] + flowBytes);
+				sum += bytes;
+				squaresSum += Math.pow(bytes, 2);
+			} else {
+				sum += scaledBytes[p];
+				squaresSum += squares[p];
+			}
+		}
+		return Math.pow(sum, 2) / (numPorts * squaresSum);
+	}
+
+	/**
+	 * Returns the sum of the squared excess of bytes if the flow was moved between
+	 * the given ports.
+	 */
+	public double getExcessAfterMove(int fromPort, int toPort, long flowBytes) {
+		double excessSum = 0;
+		for (int p = 0; p < numPorts; p++) {
+			if (p == fromPort) {
+				excessSum += excess(portBytes[p] - flowBytes);
+			} else if (p == toPort) {
+				excessSum += excess(portBytes[p] + flowBytes);
+			} else {
+				excessSum += excesses[p];
+			}
+		}
+		return excessSum;
+	}
+
+	/**
+	 * Updates the terms of the ports when the flow is moved between them.
+	 */
+	public void moveFlow(int fromPort, int toPort, long flowBytes) {
+		setPortBytes(fromPort, portBytes[fromPort] - flowBytes);
+		setPortBytes(toPort, portBytes[toPort] + flowBytes);
+	}
+
+	private void setPortBytes(int port, long bytes) {
+		portBytes[port] = bytes;
+		scaledBytes[port] = scale(bytes);
+		squares[port] = Math.pow(scaledBytes[port], 2);
+		excesses[port] = excess(bytes);
+	}
+
+	private static double scale(long bytes) {
+		return bytes / BYTES_SCALE;
+	}
+
+	private double excess(long bytes) {
+		return Math.pow(Math.max(bytes - averageBytesPort, 0), 2);
+	}
+}
@@ -1,11 +1,18 @@
 package algorithm;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
 
@@ -17,7 +24,9 @@ import auxiliar.Logger;
 import auxiliar.PortNumber;
 import tfm.NetworkSimulator;
 
-public abstract class BaseAlgorithm {
+public abstract class BaseAlgorithm implements Serializable {
+
+	private static final long serialVersionUID = 1L;
 
 	public final static long RANDOM_SEED = 0; // TODO: Convert to argument
 
@@ -27,12 +36,16 @@ public abstract class BaseAlgorithm {
 
 	protected LowLatencyBaseAlgorithm lowLatencyAlgorithm;
 
-	protected final static Random random = new Random(RANDOM_SEED);
+	// Per simulation, so that several simulations can run in parallel (see MainClass.sweepExecution())
+	protected final Random random = new Random(RANDOM_SEED);
 
 	protected double portBandwidth = 1.25E9; // 1.25E9 = 1.25 GB/s = 10 Gb/s
 	protected double portBytesInterface;
 
-	protected Set<FlowEntry> previousFlowEntries;
+	// Key set of the last allocation, which is not serializable (see writeObject())
+	protected transient Set<FlowEntry> previousFlowEntries;
+
+	private FlowBytesHistory flowBytesHistory = null;
 
 	protected long delay;
 	protected long flowRuleTimeout;
@@ -43,6 +56,9 @@ public abstract class BaseAlgorithm {
 
 	private Map<DeviceId, Map<DeviceId, List<PortNumber>>> topology = new HashMap<DeviceId, Map<DeviceId, List<PortNumber>>>();
 
+	// Reused in each interval if the algorithm implements computeAllocation(FlowBatch)
+	private final FlowBatch flowBatch = new FlowBatch();
+
 	/**
 	 * Reallocates the current set of flows in the ports of the bundle.
 	 * 
@@ -56,6 +72,55 @@ public abstract class BaseAlgorithm {
 	protected abstract Map<FlowEntry, PortNumber> computeAllocation(Map<FlowEntry, Long> flowMap,
 			Set<PortNumber> linkPorts);
 
+	/**
+	 * Reallocates the current set of flows in the ports of the bundle, stored in
+	 * arrays of primitives. It is called by startTask() instead of
+	 * computeAllocation(Map, Set) if implementsFlowBatch() returns true. The
+	 * default implementation is an adapter to computeAllocation(Map, Set).
+	 *
+	 * @param batch
+	 *            The current set of flows with their respective expected number of
+	 *            bytes transmitted in the following interval.
+	 * @return The index of the port (see FlowBatch.getPort()) assigned to each
+	 *         flow, or -1 if the flow is not reallocated. Its length may be larger
+	 *         than the number of flows.
+	 */
+	protected int[] computeAllocation(FlowBatch batch) {
+		Map<FlowEntry, Long> flowMap = new LinkedHashMap<FlowEntry, Long>();
+		for (int i = 0; i < batch.size(); i++) {
+			flowMap.put(batch.getFlow(i), batch.getBytes(i));
+		}
+		Map<FlowEntry, PortNumber> flowAllocation = computeAllocation(flowMap, batch.getLinkPorts());
+		int[] assignment = batch.newAssignment();
+		for (int i = 0; i < batch.size(); i++) {
+			assignment[i] = batch.getPortIndex(flowAllocation.get(batch.getFlow(i)));
+		}
+		return assignment;
+	}
+
+	/**
+	 * Whether the algorithm implements computeAllocation(FlowBatch), so that it is
+	 * called instead of computeAllocation(Map, Set).
+	 */
+	protected boolean implementsFlowBatch() {
+		return false;
+	}
+
+	/**
+	 * Adapter to computeAllocation(FlowBatch), to implement
+	 * computeAllocation(Map, Set) in the algorithms that implement the former.
+	 */
+	protected Map<FlowEntry, PortNumber> computeAllocationWithFlowBatch(Map<FlowEntry, Long> flowMap,
+			Set<PortNumber> linkPorts) {
+		FlowBatch batch = new FlowBatch();
+		batch.reset(linkPorts);
+		int ordinal = 0;
+		for (Entry<FlowEntry, Long> entry : flowMap.entrySet()) {
+			batch.add(entry.getKey(), entry.getValue(), ordinal++);
+		}
+		return batch.toAllocation(computeAllocation(batch));
+	}
+
 	/**
 	 * Computes the number of bytes available on each port of the aggregation to be
 	 * transmitted on the polling interval
@@ -75,9 +140,10 @@ public abstract class BaseAlgorithm {
 	}
 
 	private void setTopology(int numPorts) {
-		// This method sets the topology that we are working on!
-		DeviceId device1 = new DeviceId(1);
-		DeviceId device2 = new DeviceId(2);
+		// This method sets the topology that we are working on! (the bundle of the
+		// simulation, see Topology)
+		DeviceId device1 = networkSimulator.getSrcDevice();
+		DeviceId device2 = networkSimulator.getDstDevice();
 		Map<DeviceId, List<PortNumber>> device1to2Map = new HashMap<DeviceId, List<PortNumber>>();
 		List<PortNumber> device1to2PortList = new ArrayList<PortNumber>();
 
@@ -168,8 +234,13 @@ public abstract class BaseAlgorithm {
 
 	// In legacy: Task extends Thread.
 	public void startTask() {
-		FlowBytesHistory flowBytesHistory = new FlowBytesHistory(alphaEwma);
+		if (flowBytesHistory == null) {
+			// Otherwise, the simulation is resumed from a checkpoint
+			flowBytesHistory = new FlowBytesHistory(alphaEwma);
+		}
 		while (!networkSimulator.isFinished()) {
+			// Between two intervals, the state of the simulation can be saved
+			networkSimulator.checkpointIfNeeded();
 			for (DeviceId deviceId : getTopology().keySet()) {
 				flowBytesHistory.initIteration(deviceId);
 				// portsBytes.putIfAbsent(deviceId, new HashMap<>());
@@ -193,6 +264,11 @@ public abstract class BaseAlgorithm {
 							break;
 						}
 
+						// The ordinals of the expired flows may have been reused
+						for (FlowEntry fe : networkSimulator.getReleasedFlows()) {
+							flowBytesHistory.evictFlow(deviceId, fe);
+						}
+
 						for (FlowEntry fe : flowEntries) {
 							PortNumber pn = fe.getOutputPort();
 							if (!linkPorts.contains(pn)) {
@@ -226,9 +302,23 @@ public abstract class BaseAlgorithm {
 							}
 						}
 
-						long startTime = System.nanoTime();
-						Map<FlowEntry, PortNumber> flowAllocation = computeAllocation(filteredFlowMap, linkPorts);
-						long stopTime = System.nanoTime();
+						Map<FlowEntry, PortNumber> flowAllocation;
+						long startTime;
+						long stopTime;
+						if (implementsFlowBatch()) {
+							flowBatch.reset(linkPorts);
+							for (Entry<FlowEntry, Long> entry : filteredFlowMap.entrySet()) {
+								flowBatch.add(entry.getKey(), entry.getValue(), entry.getKey().getOrdinal());
+							}
+							startTime = System.nanoTime();
+							int[] assignment = computeAllocation(flowBatch);
+							stopTime = System.nanoTime();
+							flowAllocation = flowBatch.toAllocation(assignment);
+						} else {
+							startTime = System.nanoTime();
+							flowAllocation = computeAllocation(filteredFlowMap, linkPorts);
+							stopTime = System.nanoTime();
+						}
 						long algorithmExecutionTime = stopTime - startTime;
 
 						long numFlowMods = 0;
@@ -347,4 +437,17 @@ public abstract class BaseAlgorithm {
 		startTask();
 	}
 
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		// A copy of the flows of the last allocation, in the same order
+		out.writeObject(previousFlowEntries == null ? null : new ArrayList<FlowEntry>(previousFlowEntries));
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		List<FlowEntry> flows = (List<FlowEntry>) in.readObject();
+		previousFlowEntries = flows == null ? null : new LinkedHashSet<FlowEntry>(flows);
+	}
+
 }
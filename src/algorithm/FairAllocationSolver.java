@@ -0,0 +1,437 @@
+package algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exact solver of the allocation of Algorithm11: assigns each flow to one of the
+ * ports so that Jain's fairness index of the bytes of the ports is maximum. As
+ * the total number of bytes is fixed, this is the same as minimizing the sum of
+ * the squares of the bytes of the ports, which is computed with integers. If
+ * the total bytes are too many for the squares to fit in a long, the bytes of
+ * the flows are rounded to a coarser unit (a power of two) and the allocation is
+ * not guaranteed to be the optimum.
+ *
+ * The search is done in two steps:
+ *
+ * <ol>
+ * <li>A branch and bound finds the optimum value. The flows are assigned from
+ * the largest to the smallest, ports with the same number of bytes are only
+ * tried once (they are interchangeable) and a subtree is pruned when the bytes
+ * left, spread as evenly as possible (water-filling), cannot improve the
+ * incumbent. The incumbent starts with a greedy allocation (each flow to the
+ * least loaded port) and is shared by the tasks that search the first levels of
+ * the tree in a ForkJoinPool.</li>
+ * <li>Among the allocations with that value, the first one in the order of the
+ * brute force search (the state of the last flow is the most significant) is
+ * searched, so that ties are resolved the same way. Port symmetry is broken by
+ * numbering the ports in order of first use.</li>
+ * </ol>
+ *
+ * The search visits at most a given number of nodes, so that it takes the same
+ * steps on any machine. If they run out, the best allocation found is returned
+ * and it is not guaranteed to be the optimum (see isOptimal()). In that case,
+ * when the search is split in tasks, the allocation also depends on the order
+ * in which the tasks ran.
+ *
+ * @author pfondo
+ *
+ */
+public class FairAllocationSolver {
+
+	// Depth of the tree up to which each subtree is searched by a different task
+	private static final int SPLIT_DEPTH = 3;
+	// The search is not split if there are fewer flows
+	private static final int MIN_FLOWS_SPLIT = 16;
+	// Number of nodes visited between two checks of the limit of nodes
+	private static final int NODES_CHECK_LIMIT = 1 << 12;
+	// Maximum total bytes whose square fits in a long
+	private static final long MAX_EXACT_BYTES = 3037000499L;
+
+	private final long[] flowBytes;
+	private final int numFlows;
+	private final int numPorts;
+	private final long maxNodes;
+	// The bytes of the flows are rounded to units of 2^unitShift bytes
+	private final int unitShift;
+
+	// Flows sorted by bytes (descending) for the first step
+	private final int[] order;
+	private final long[] sortedBytes;
+	// sortedRemainingBytes[k] = sum of sortedBytes[k..]
+	private final long[] sortedRemainingBytes;
+	// remainingBytes[i] = sum of flowBytes[0..i]
+	private final long[] remainingBytes;
+
+	private final AtomicLong bestValue = new AtomicLong(Long.MAX_VALUE);
+	// Ports of the sorted flows of the best allocation (guarded by this)
+	private int[] bestSortedState;
+	private double rootBound;
+	private volatile boolean stop = false;
+	private volatile boolean exhausted = false;
+	private final AtomicLong visitedNodes = new AtomicLong(0);
+	private long secondStepNodes = 0;
+
+	/**
+	 * @param flowBytes
+	 *            Bytes of each flow.
+	 * @param numPorts
+	 *            Number of ports to be used.
+	 * @param maxNodes
+	 *            Maximum number of nodes visited by the search.
+	 */
+	public FairAllocationSolver(long[] flowBytes, int numPorts, long maxNodes) {
+		this.numFlows = flowBytes.length;
+		this.numPorts = numPorts;
+		this.maxNodes = maxNodes;
+
+		int shift = 0;
+		long[] units = flowBytes;
+		while (sum(units) > MAX_EXACT_BYTES) {
+			shift++;
+			units = new long[numFlows];
+			for (int i = 0; i < numFlows; i++) {
+				// Rounded to the nearest unit
+				units[i] = (flowBytes[i] + (1L << (shift - 1))) >>> shift;
+			}
+		}
+		this.unitShift = shift;
+		this.flowBytes = units;
+
+		final long[] bytes = units;
+		Integer[] sortedFlows = new Integer[numFlows];
+		for (int i = 0; i < numFlows; i++) {
+			sortedFlows[i] = i;
+		}
+		Arrays.sort(sortedFlows, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return Long.compare(bytes[o2], bytes[o1]);
+			}
+		});
+		this.order = new int[numFlows];
+		this.sortedBytes = new long[numFlows];
+		for (int k = 0; k < numFlows; k++) {
+			order[k] = sortedFlows[k];
+			sortedBytes[k] = this.flowBytes[order[k]];
+		}
+		this.sortedRemainingBytes = new long[numFlows + 1];
+		for (int k = numFlows - 1; k >= 0; k--) {
+			sortedRemainingBytes[k] = sortedRemainingBytes[k + 1] + sortedBytes[k];
+		}
+		this.remainingBytes = new long[numFlows];
+		long accumulated = 0;
+		for (int i = 0; i < numFlows; i++) {
+			accumulated += this.flowBytes[i];
+			remainingBytes[i] = accumulated;
+		}
+	}
+
+	private static long sum(long[] values) {
+		long sum = 0;
+		for (long value : values) {
+			if (value > MAX_EXACT_BYTES - sum) {
+				// Further additions are not needed (and could overflow)
+				return Long.MAX_VALUE;
+			}
+			sum += value;
+		}
+		return sum;
+	}
+
+	/**
+	 * @return The port (between 0 and numPorts - 1) assigned to each flow.
+	 */
+	public int[] solve() {
+		if (numFlows == 0 || numPorts <= 1) {
+			return new int[numFlows];
+		}
+		searchOptimum();
+		if (!exhausted) {
+			int[] state = new int[numFlows];
+			if (searchFirstOptimum(numFlows - 1, new long[numPorts], 0, state, bestValue.get(),
+					new long[numPorts])) {
+				return state;
+			}
+		}
+		return getBestState();
+	}
+
+	/**
+	 * Whether the allocation returned by solve() is guaranteed to be the optimum
+	 * (i.e., the bytes were not rounded and the limit of nodes was not reached).
+	 */
+	public boolean isOptimal() {
+		return unitShift == 0 && !exhausted;
+	}
+
+	/**
+	 * Returns the sum of the squares of the bytes of the ports of the best
+	 * allocation found (approximate if the bytes were rounded).
+	 */
+	public double getBestValue() {
+		return Math.scalb((double) bestValue.get(), 2 * unitShift);
+	}
+
+	/**
+	 * Lower bound of the sum of the squares of the bytes of the ports when the
+	 * remaining bytes are added to them: the remaining bytes fill the least loaded
+	 * ports up to the same level (as even as possible with whole bytes).
+	 */
+	private static double lowerBound(long[] loads, long remaining, long[] sortedLoads) {
+		System.arraycopy(loads, 0, sortedLoads, 0, loads.length);
+		Arrays.sort(sortedLoads);
+		long filled = remaining;
+		int k = 0;
+		while (k < sortedLoads.length) {
+			filled += sortedLoads[k];
+			k++;
+			if (k == sortedLoads.length || filled <= sortedLoads[k] * k) {
+				break;
+			}
+		}
+		double level = filled / k;
+		long extra = filled % k; // Ports one byte above the level
+		double bound = extra * (level + 1) * (level + 1) + (k - extra) * level * level;
+		for (int i = k; i < sortedLoads.length; i++) {
+			bound += (double) sortedLoads[i] * sortedLoads[i];
+		}
+		return bound;
+	}
+
+	/**
+	 * Whether an allocation with the given lower bound may improve (or tie with,
+	 * if ties is true) the target value. The margin covers the rounding errors of
+	 * the bound.
+	 */
+	private static boolean canImprove(double bound, long target, boolean ties) {
+		double margin = 1e-12 * target;
+		if (ties) {
+			return bound <= target + margin;
+		}
+		return bound <= target - 1 + margin;
+	}
+
+	private static long squaresSum(long[] loads) {
+		long squaresSum = 0;
+		for (long load : loads) {
+			squaresSum += load * load;
+		}
+		return squaresSum;
+	}
+
+	private synchronized void update(long value, int[] sortedState) {
+		if (value < bestValue.get()) {
+			bestSortedState = sortedState.clone();
+			bestValue.set(value);
+			if (!canImprove(rootBound, value, false)) {
+				// The bound is reached, so this is the optimum
+				stop = true;
+			}
+		}
+	}
+
+	/**
+	 * Returns the best allocation of the first step, with the ports numbered in
+	 * order of first use (from the last flow).
+	 */
+	private synchronized int[] getBestState() {
+		int[] state = new int[numFlows];
+		int[] portLabels = new int[numPorts];
+		Arrays.fill(portLabels, -1);
+		int usedPorts = 0;
+		int[] ports = new int[numFlows];
+		for (int k = 0; k < numFlows; k++) {
+			ports[order[k]] = bestSortedState[k];
+		}
+		for (int i = numFlows - 1; i >= 0; i--) {
+			if (portLabels[ports[i]] == -1) {
+				portLabels[ports[i]] = usedPorts++;
+			}
+			state[i] = portLabels[ports[i]];
+		}
+		return state;
+	}
+
+	/**
+	 * Adds the given nodes to the nodes visited and checks the limit.
+	 */
+	private boolean checkLimit(long nodes) {
+		if (visitedNodes.addAndGet(nodes) > maxNodes) {
+			exhausted = true;
+		}
+		return exhausted;
+	}
+
+	/**
+	 * First step: branch and bound on the value of the optimum.
+	 */
+	private void searchOptimum() {
+		// Greedy allocation as initial incumbent
+		long[] loads = new long[numPorts];
+		int[] sortedState = new int[numFlows];
+		for (int k = 0; k < numFlows; k++) {
+			int port = 0;
+			for (int p = 1; p < numPorts; p++) {
+				if (loads[p] < loads[port]) {
+					port = p;
+				}
+			}
+			loads[port] += sortedBytes[k];
+			sortedState[k] = port;
+		}
+		rootBound = lowerBound(new long[numPorts], sortedRemainingBytes[0], new long[numPorts]);
+		update(squaresSum(loads), sortedState);
+		if (stop) {
+			return;
+		}
+
+		SearchTask root = new SearchTask(0, new long[numPorts], new int[numFlows]);
+		if (numFlows < MIN_FLOWS_SPLIT) {
+			root.compute();
+		} else {
+			ForkJoinPool.commonPool().invoke(root);
+		}
+	}
+
+	/**
+	 * Searches the subtree of the given partial allocation of the sorted flows.
+	 * The first levels are split in subtasks.
+	 */
+	private class SearchTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int depth;
+		private final long[] loads;
+		private final int[] sortedState;
+		private long[] sortedLoads;
+		private int[][] candidates;
+		private long nodes = 0;
+
+		public SearchTask(int depth, long[] loads, int[] sortedState) {
+			this.depth = depth;
+			this.loads = loads;
+			this.sortedState = sortedState;
+		}
+
+		@Override
+		protected void compute() {
+			sortedLoads = new long[numPorts];
+			candidates = new int[numFlows][numPorts];
+			if (depth < SPLIT_DEPTH && numFlows - depth >= MIN_FLOWS_SPLIT) {
+				if (!canImprove(lowerBound(loads, sortedRemainingBytes[depth], sortedLoads), bestValue.get(),
+						false)) {
+					return;
+				}
+				List<SearchTask> subtasks = new ArrayList<SearchTask>();
+				int numCandidates = sortCandidates(loads, candidates[depth]);
+				for (int c = 0; c < numCandidates; c++) {
+					int port = candidates[depth][c];
+					long[] subtaskLoads = loads.clone();
+					int[] subtaskState = sortedState.clone();
+					subtaskLoads[port] += sortedBytes[depth];
+					subtaskState[depth] = port;
+					subtasks.add(new SearchTask(depth + 1, subtaskLoads, subtaskState));
+				}
+				invokeAll(subtasks);
+			} else {
+				search(depth);
+			}
+		}
+
+		private void search(int k) {
+			if (stop || exhausted) {
+				return;
+			}
+			if (++nodes % NODES_CHECK_LIMIT == 0 && checkLimit(NODES_CHECK_LIMIT)) {
+				return;
+			}
+			if (k == numFlows) {
+				long value = squaresSum(loads);
+				if (value < bestValue.get()) {
+					update(value, sortedState);
+				}
+				return;
+			}
+			if (!canImprove(lowerBound(loads, sortedRemainingBytes[k], sortedLoads), bestValue.get(), false)) {
+				return;
+			}
+			int numCandidates = sortCandidates(loads, candidates[k]);
+			for (int c = 0; c < numCandidates; c++) {
+				int port = candidates[k][c];
+				loads[port] += sortedBytes[k];
+				sortedState[k] = port;
+				search(k + 1);
+				loads[port] -= sortedBytes[k];
+			}
+		}
+	}
+
+	/**
+	 * Writes the ports to be tried, from the least loaded one, skipping those with
+	 * the same bytes as another one (the lowest port is kept).
+	 *
+	 * @return The number of candidates.
+	 */
+	private static int sortCandidates(long[] loads, int[] candidates) {
+		int numCandidates = 0;
+		for (int p = 0; p < loads.length; p++) {
+			int position = numCandidates;
+			boolean repeated = false;
+			for (int c = 0; c < numCandidates; c++) {
+				if (loads[candidates[c]] == loads[p]) {
+					repeated = true;
+					break;
+				}
+			}
+			if (repeated) {
+				continue;
+			}
+			while (position > 0 && loads[candidates[position - 1]] > loads[p]) {
+				candidates[position] = candidates[position - 1];
+				position--;
+			}
+			candidates[position] = p;
+			numCandidates++;
+		}
+		return numCandidates;
+	}
+
+	/**
+	 * Second step: depth-first search in the order of the brute force (from the
+	 * last flow, ports in increasing order) of the first allocation whose value is
+	 * not above the target.
+	 *
+	 * @return false if there is no such allocation or the limit of nodes was
+	 *         reached.
+	 */
+	private boolean searchFirstOptimum(int i, long[] loads, int usedPorts, int[] state, long target,
+			long[] sortedLoads) {
+		if (i < 0) {
+			return squaresSum(loads) <= target;
+		}
+		if (++secondStepNodes % NODES_CHECK_LIMIT == 0 && checkLimit(NODES_CHECK_LIMIT)) {
+			return false;
+		}
+		if (exhausted || !canImprove(lowerBound(loads, remainingBytes[i], sortedLoads), target, true)) {
+			return false;
+		}
+		// Ports not used yet are interchangeable, so only the first one is tried
+		int maxPort = Math.min(usedPorts, numPorts - 1);
+		for (int p = 0; p <= maxPort; p++) {
+			loads[p] += flowBytes[i];
+			state[i] = p;
+			if (searchFirstOptimum(i - 1, loads, Math.max(usedPorts, p + 1), state, target, sortedLoads)) {
+				return true;
+			}
+			loads[p] -= flowBytes[i];
+		}
+		state[i] = 0;
+		return false;
+	}
+}
@@ -0,0 +1,239 @@
+package algorithm;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import auxiliar.FlowEntry;
+import auxiliar.PortNumber;
+
+/**
+ * Flows of a bundle to be reallocated, stored in arrays of primitives (one per
+ * attribute) that are reused from one interval to the next. The ports of the
+ * bundle are identified by their index in the bundle (in increasing order of
+ * port number).
+ *
+ * @see BaseAlgorithm#computeAllocation(FlowBatch)
+ *
+ * @author pfondo
+ *
+ */
+public class FlowBatch implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	// Not serializable (the ports are taken again in the following reset())
+	private transient Set<PortNumber> linkPorts;
+	private PortNumber[] ports = new PortNumber[0];
+	private long[] portNumbers = new long[0];
+
+	private int size = 0;
+	private FlowEntry[] flows;
+	private long[] bytes;
+	// Index of the port to which each flow is currently allocated (-1 if none)
+	private int[] currentPorts;
+	// Bit i is set if flow i is low-latency
+	private long[] lowLatency;
+	private int[] ordinals;
+	// Order in which the flows are inserted in the map of the allocation
+	private int[] allocationOrder = null;
+
+	// Reused by the algorithms
+	private int[] assignment;
+	private int[] sortedFlows;
+	private int[] sortScratch;
+
+	public FlowBatch() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	private void allocate(int capacity) {
+		flows = new FlowEntry[capacity];
+		bytes = new long[capacity];
+		currentPorts = new int[capacity];
+		lowLatency = new long[(capacity + 63) >>> 6];
+		ordinals = new int[capacity];
+		assignment = new int[capacity];
+		sortedFlows = new int[capacity];
+		sortScratch = new int[capacity];
+	}
+
+	private void grow() {
+		int capacity = 2 * flows.length;
+		flows = Arrays.copyOf(flows, capacity);
+		bytes = Arrays.copyOf(bytes, capacity);
+		currentPorts = Arrays.copyOf(currentPorts, capacity);
+		lowLatency = Arrays.copyOf(lowLatency, (capacity + 63) >>> 6);
+		ordinals = Arrays.copyOf(ordinals, capacity);
+		assignment = new int[capacity];
+		sortedFlows = new int[capacity];
+		sortScratch = new int[capacity];
+	}
+
+	/**
+	 * Removes all the flows and sets the ports of the bundle.
+	 *
+	 * @param linkPorts
+	 *            Must be sorted by port number.
+	 */
+	public void reset(Set<PortNumber> linkPorts) {
+		Arrays.fill(flows, 0, size, null);
+		Arrays.fill(lowLatency, 0, (size + 63) >>> 6, 0);
+		size = 0;
+		allocationOrder = null;
+		if (this.linkPorts != linkPorts) {
+			this.linkPorts = linkPorts;
+			ports = linkPorts.toArray(new PortNumber[linkPorts.size()]);
+			portNumbers = new long[ports.length];
+			for (int p = 0; p < ports.length; p++) {
+				portNumbers[p] = ports[p].toLong();
+			}
+		}
+	}
+
+	/**
+	 * @param ordinal
+	 *            Identifier of the flow for the algorithm, to index its own
+	 *            arrays (e.g., FlowEntry.getOrdinal(), which is stable while the
+	 *            flow is installed).
+	 */
+	public void add(FlowEntry flowEntry, long flowBytes, int ordinal) {
+		if (size == flows.length) {
+			grow();
+		}
+		flows[size] = flowEntry;
+		bytes[size] = flowBytes;
+		currentPorts[size] = getPortIndex(flowEntry.getOutputPort());
+		if (flowEntry.isLowLatency()) {
+			lowLatency[size >>> 6] |= 1L << size;
+		}
+		ordinals[size] = ordinal;
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Set<PortNumber> getLinkPorts() {
+		return linkPorts;
+	}
+
+	public int getNumPorts() {
+		return ports.length;
+	}
+
+	public PortNumber getPort(int portIndex) {
+		return ports[portIndex];
+	}
+
+	/**
+	 * Returns the index of the given port in the bundle, or -1 if it is not in
+	 * the bundle.
+	 */
+	public int getPortIndex(PortNumber portNumber) {
+		if (portNumber == null) {
+			return -1;
+		}
+		int index = Arrays.binarySearch(portNumbers, portNumber.toLong());
+		return index >= 0 ? index : -1;
+	}
+
+	public FlowEntry getFlow(int i) {
+		return flows[i];
+	}
+
+	public long getBytes(int i) {
+		return bytes[i];
+	}
+
+	public int getCurrentPort(int i) {
+		return currentPorts[i];
+	}
+
+	public boolean isLowLatency(int i) {
+		return (lowLatency[i >>> 6] & (1L << i)) != 0;
+	}
+
+	public int getOrdinal(int i) {
+		return ordinals[i];
+	}
+
+	/**
+	 * Returns the array where an algorithm writes the index of the port assigned
+	 * to each flow, initialized to -1 (the flow is not reallocated). It is reused,
+	 * so its length may be larger than the number of flows.
+	 */
+	public int[] newAssignment() {
+		Arrays.fill(assignment, 0, size, -1);
+		return assignment;
+	}
+
+	/**
+	 * Returns the indices of the flows sorted by bytes (descending). The sort is
+	 * stable, as Collections.sort() on the entries of the map of flows. The array
+	 * is reused, so its length may be larger than the number of flows.
+	 */
+	public int[] sortByBytesDescending() {
+		for (int i = 0; i < size; i++) {
+			sortedFlows[i] = i;
+		}
+		int[] source = sortedFlows;
+		int[] destination = sortScratch;
+		// Bottom-up merge sort
+		for (int width = 1; width < size; width *= 2) {
+			for (int low = 0; low < size; low += 2 * width) {
+				int middle = Math.min(low + width, size);
+				int high = Math.min(low + 2 * width, size);
+				int left = low;
+				int right = middle;
+				for (int k = low; k < high; k++) {
+					if (left < middle && (right >= high || bytes[source[left]] >= bytes[source[right]])) {
+						destination[k] = source[left++];
+					} else {
+						destination[k] = source[right++];
+					}
+				}
+			}
+			int[] swap = source;
+			source = destination;
+			destination = swap;
+		}
+		if (source != sortedFlows) {
+			System.arraycopy(source, 0, sortedFlows, 0, size);
+		}
+		return sortedFlows;
+	}
+
+	/**
+	 * Sets the order in which the flows are inserted in the map returned by
+	 * toAllocation(), which is the order of the flows in the following interval.
+	 * The algorithms that sort the flows set it to keep the order of their
+	 * computeAllocation(Map, Set). By default, it is the order of the batch.
+	 *
+	 * @param order
+	 *            Indices of the flows (it is not copied).
+	 */
+	public void setAllocationOrder(int[] order) {
+		this.allocationOrder = order;
+	}
+
+	/**
+	 * Converts an assignment to the map returned by
+	 * BaseAlgorithm.computeAllocation(Map, Set).
+	 */
+	public Map<FlowEntry, PortNumber> toAllocation(int[] assignment) {
+		Map<FlowEntry, PortNumber> flowAllocation = new HashMap<FlowEntry, PortNumber>();
+		for (int k = 0; k < size; k++) {
+			int i = allocationOrder == null ? k : allocationOrder[k];
+			if (assignment[i] >= 0) {
+				flowAllocation.put(flows[i], ports[assignment[i]]);
+			}
+		}
+		return flowAllocation;
+	}
+}
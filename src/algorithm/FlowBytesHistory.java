@@ -1,41 +1,84 @@
 package algorithm;
 
+import java.io.Serializable;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 import auxiliar.DeviceId;
 import auxiliar.FlowEntry;
 
-public class FlowBytesHistory {
+/**
+ * History of the bytes of the flows of each device, used to estimate the bytes
+ * of each flow in the following interval. It is stored in arrays of primitives
+ * indexed by the ordinal of the flow (see FlowEntry.getOrdinal()). Since the
+ * ordinal of a flow is reused once it expires, the history of the expired flows
+ * must be evicted (see evictFlow()).
+ */
+public class FlowBytesHistory implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int INITIAL_CAPACITY = 1024;
 
 	public final double ALPHA_EWMA; // = 0.2;
 
-	Map<DeviceId, Map<FlowEntry, Long>> flowBytesPrev;
-	Map<FlowEntry, Long> flowBytesCurrent;
+	private final Map<DeviceId, DeviceHistory> deviceHistories;
+
+	private static class DeviceHistory implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		// Current interval. Intervals start at 2, so that 0 means none (not even the
+		// previous one)
+		int interval = 2;
 
-	// Experimental: Adding exponentially weighted moving average (EWMA)
-	Map<DeviceId, Map<FlowEntry, Double>> flowBytesEWMA;
+		// Bytes of the flows in the previous and in the current interval (indexed by
+		// the parity of the interval), and interval in which they were stored. The
+		// buffers are swapped when the interval changes.
+		long[][] flowBytes = new long[2][INITIAL_CAPACITY];
+		int[][] flowBytesIntervals = new int[2][INITIAL_CAPACITY];
 
-	private Map<DeviceId, Map<FlowEntry, Double>> flowBytesPredictedPrev;
+		// Experimental: Adding exponentially weighted moving average (EWMA). It is
+		// also the bytes predicted for the current interval in the previous one.
+		double[] flowBytesEWMA = new double[INITIAL_CAPACITY];
+		boolean[] hasFlowBytesEWMA = new boolean[INITIAL_CAPACITY];
+
+		void ensureCapacity(int ordinal) {
+			if (ordinal >= flowBytesEWMA.length) {
+				int capacity = Math.max(2 * flowBytesEWMA.length, ordinal + 1);
+				for (int i = 0; i < 2; i++) {
+					flowBytes[i] = Arrays.copyOf(flowBytes[i], capacity);
+					flowBytesIntervals[i] = Arrays.copyOf(flowBytesIntervals[i], capacity);
+				}
+				flowBytesEWMA = Arrays.copyOf(flowBytesEWMA, capacity);
+				hasFlowBytesEWMA = Arrays.copyOf(hasFlowBytesEWMA, capacity);
+			}
+		}
+	}
 
 	public FlowBytesHistory(double alphaEwma) {
 		this.ALPHA_EWMA = alphaEwma;
-		flowBytesPrev = new HashMap<DeviceId, Map<FlowEntry, Long>>();
-		flowBytesEWMA = new HashMap<DeviceId, Map<FlowEntry, Double>>();
-		flowBytesPredictedPrev = new HashMap<DeviceId, Map<FlowEntry, Double>>();
+		deviceHistories = new HashMap<DeviceId, DeviceHistory>();
+	}
+
+	private DeviceHistory getDeviceHistory(DeviceId deviceId, FlowEntry fe) {
+		DeviceHistory history = deviceHistories.get(deviceId);
+		history.ensureCapacity(fe.getOrdinal());
+		return history;
 	}
 
 	public double computeBytesEstimationError(DeviceId deviceId, FlowEntry fe, double bytesRealCurrent) {
 		double error = 0;
-		Double bytesPredictedPrev = flowBytesPredictedPrev.get(deviceId).get(fe);
-		if (bytesPredictedPrev != null) {
-			error = Math.abs(bytesPredictedPrev.doubleValue() - bytesRealCurrent);
+		DeviceHistory history = getDeviceHistory(deviceId, fe);
+		if (history.hasFlowBytesEWMA[fe.getOrdinal()]) {
+			double bytesPredictedPrev = history.flowBytesEWMA[fe.getOrdinal()];
+			error = Math.abs(bytesPredictedPrev - bytesRealCurrent);
 		}
 		return error;
 	}
 
 	/**
-	 * 
+	 *
 	 * @param flowBytesRealCurrent
 	 * @param samplingPeriod in nanoseconds
 	 * @return Average per flow error in the estimation of the rate in the current
@@ -52,35 +95,55 @@ public class FlowBytesHistory {
 	}
 
 	public void initIteration(DeviceId deviceId) {
-		flowBytesPrev.putIfAbsent(deviceId, new HashMap<>());
-		flowBytesEWMA.putIfAbsent(deviceId, new HashMap<>());
-		flowBytesPredictedPrev.putIfAbsent(deviceId, new HashMap<>());
-		flowBytesCurrent = new HashMap<FlowEntry, Long>();
+		if (!deviceHistories.containsKey(deviceId)) {
+			deviceHistories.put(deviceId, new DeviceHistory());
+		}
 	}
 
 	public long getFlowBytesEstimation(DeviceId deviceId, FlowEntry fe) {
 		long currentBytesEstimation = getFlowBytesRealCurrent(deviceId, fe);
+		DeviceHistory history = getDeviceHistory(deviceId, fe);
+		int ordinal = fe.getOrdinal();
 		double currentBytesEWMA = 0;
-		if (flowBytesEWMA.get(deviceId).containsKey(fe)) {
-			double previousEWMA = flowBytesEWMA.get(deviceId).get(fe);
+		if (history.hasFlowBytesEWMA[ordinal]) {
+			double previousEWMA = history.flowBytesEWMA[ordinal];
 			currentBytesEWMA = ALPHA_EWMA * currentBytesEstimation + (1 - ALPHA_EWMA) * previousEWMA;
 		} else {
 			currentBytesEWMA = currentBytesEstimation;
 		}
-		flowBytesEWMA.get(deviceId).put(fe, currentBytesEWMA);
-		flowBytesPredictedPrev.get(deviceId).put(fe, currentBytesEWMA);
+		history.flowBytesEWMA[ordinal] = currentBytesEWMA;
+		history.hasFlowBytesEWMA[ordinal] = true;
 		return (long) currentBytesEWMA;
 	}
 
 	public long getFlowBytesRealCurrent(DeviceId deviceId, FlowEntry fe) {
-		long bytesPrev = flowBytesPrev.get(deviceId).containsKey(fe) ? flowBytesPrev.get(deviceId).get(fe) : 0;
-		flowBytesCurrent.put(fe, fe.bytes());
+		DeviceHistory history = getDeviceHistory(deviceId, fe);
+		int ordinal = fe.getOrdinal();
+		int previous = (history.interval - 1) & 1;
+		long bytesPrev = history.flowBytesIntervals[previous][ordinal] == history.interval - 1
+				? history.flowBytes[previous][ordinal]
+				: 0;
+		int current = history.interval & 1;
+		history.flowBytes[current][ordinal] = fe.bytes();
+		history.flowBytesIntervals[current][ordinal] = history.interval;
 		return (fe.bytes() - bytesPrev) > 0 ? (fe.bytes() - bytesPrev) : fe.bytes();
 	}
 
 	public void updateFlowBytesPrev(DeviceId deviceId) {
-		flowBytesPrev.put(deviceId, new HashMap<>());
-		flowBytesPrev.get(deviceId).putAll(flowBytesCurrent);
+		// The bytes of the current interval become those of the previous one
+		deviceHistories.get(deviceId).interval += 1;
+	}
+
+	/**
+	 * Removes the history of a flow that has expired, so that its ordinal can be
+	 * reused by a new flow.
+	 */
+	public void evictFlow(DeviceId deviceId, FlowEntry fe) {
+		DeviceHistory history = getDeviceHistory(deviceId, fe);
+		int ordinal = fe.getOrdinal();
+		history.flowBytesIntervals[0][ordinal] = 0;
+		history.flowBytesIntervals[1][ordinal] = 0;
+		history.hasFlowBytesEWMA[ordinal] = false;
 	}
 
 }
@@ -15,6 +15,8 @@ import auxiliar.Queue.QueueType;
 
 public class LowLatencyAlgorithm0 extends LowLatencyBaseAlgorithm {
 
+	private static final long serialVersionUID = 1L;
+
 	private static final boolean reallocateWithAlgorithm = true;
 
 	private static final QueueType queueType = QueueType.NORMAL;
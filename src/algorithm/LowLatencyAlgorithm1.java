@@ -23,10 +23,14 @@ import auxiliar.Queue.QueueType;
 
 public class LowLatencyAlgorithm1 extends LowLatencyBaseAlgorithm {
 
+	private static final long serialVersionUID = 1L;
+
 	private static final boolean reallocateWithAlgorithm = false;
 
 	private static final QueueType queueType = QueueType.NORMAL;
 
+	private final PortLoadHeap portOccupation = new PortLoadHeap(false);
+
 	/**
 	 * Selects the output port to allocate a new low-latency flow among the ports of
 	 * the bundle.
@@ -63,7 +67,6 @@ public class LowLatencyAlgorithm1 extends LowLatencyBaseAlgorithm {
 	public Map<FlowEntry, PortNumber> computeAllocationLowLatency(BaseAlgorithm algorithm,
 			Map<FlowEntry, Long> flowMapNormal, Map<FlowEntry, Long> flowMapLowLatency, Set<PortNumber> linkPorts) {
 		long delay = algorithm.delay;
-		double portBandwidth = algorithm.portBandwidth;
 		Map<FlowEntry, PortNumber> flowAllocation = new HashMap<FlowEntry, PortNumber>();
 
 		int neededPorts = linkPorts.size();
@@ -76,37 +79,18 @@ public class LowLatencyAlgorithm1 extends LowLatencyBaseAlgorithm {
 			}
 		});
 
-		Map<PortNumber, PortStatistics> portOccupation = new HashMap<PortNumber, PortStatistics>();
-		int count = 0;
-		for (PortNumber pn : linkPorts) {
-			if (count >= neededPorts) {
-				break;
-			}
-			portOccupation.put(pn, new PortStatistics(null, pn, delay, portBandwidth, 0));
-			count++;
-		}
+		portOccupation.reset(linkPorts, neededPorts);
 
 		// Initialize portOccupation based on nonLowLatencyFlows
 
 		for (Entry<FlowEntry, Long> entryFlowEntry : flowMapNormal.entrySet()) {
-			PortNumber pn = entryFlowEntry.getKey().getOutputPort();
-			portOccupation.get(pn).addBytes(entryFlowEntry.getValue());
-			portOccupation.get(pn).addFlow();
+			int p = portOccupation.getPortIndex(entryFlowEntry.getKey().getOutputPort());
+			portOccupation.addFlow(p, entryFlowEntry.getValue());
 		}
 
-		List<Entry<PortNumber, PortStatistics>> sortedPortOccupation;
-
 		// Compute the expected load of the interface
 
 		for (Entry<FlowEntry, Long> entryFlowEntry : flowList) {
-			sortedPortOccupation = new ArrayList<Entry<PortNumber, PortStatistics>>(portOccupation.entrySet());
-			Collections.sort(sortedPortOccupation, new Comparator<Entry<PortNumber, PortStatistics>>() {
-				@Override
-				public int compare(Entry<PortNumber, PortStatistics> o1, Entry<PortNumber, PortStatistics> o2) {
-					// Minimize port occupation
-					return (int) Math.signum(o1.getValue().getBytes() - o2.getValue().getBytes());
-				}
-			});
 			// To get the time flow has been active during the last interval
 
 			long currentFlowBytes = entryFlowEntry.getValue();
@@ -114,24 +98,14 @@ public class LowLatencyAlgorithm1 extends LowLatencyBaseAlgorithm {
 			currentFlowBytes *= delay
 					/ Math.min(entryFlowEntry.getKey().life(algorithm.networkSimulator.getCurrentTime()), delay);
 
-			for (Entry<PortNumber, PortStatistics> entry : sortedPortOccupation) {
-				PortNumber pn = entry.getKey();
-				double portBytesAvailable = algorithm.getPortBytesAvailable(entry.getValue().getNumFlowsInterval());
-				long total = portOccupation.get(pn).getBytes() + currentFlowBytes;
-				// log.info("Port " + pn + ": " + total + "bytes");
-				if (total <= portBytesAvailable || portOccupation.get(pn).getBytes() == 0) {
-					// It can be allocated in this port
-					// log.info("FE: " + flowEntry.getKey().id() + " -> " + pn);
-					// System.out.println("+Port" + pn + ": " +
-					// entryFlowEntry.getKey() + " -> "
-					// + entryFlowEntry.getValue() + " bytes");
-					portOccupation.get(pn).setBytes(total);
-					portOccupation.get(pn).addFlow();
-					// This flow only needs to be modified if the port
-					// allocation is different from the current
-					flowAllocation.put(entryFlowEntry.getKey(), pn);
-					break;
-				}
+			// Minimize port occupation
+			int p = portOccupation.firstFit(currentFlowBytes, algorithm);
+			if (p != -1) {
+				// It can be allocated in this port
+				portOccupation.addFlow(p, currentFlowBytes);
+				// This flow only needs to be modified if the port
+				// allocation is different from the current
+				flowAllocation.put(entryFlowEntry.getKey(), portOccupation.getPort(p));
 			}
 		}
 
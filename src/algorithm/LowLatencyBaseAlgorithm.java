@@ -1,5 +1,6 @@
 package algorithm;
 
+import java.io.Serializable;
 import java.util.Map;
 import java.util.Set;
 
@@ -7,7 +8,9 @@ import auxiliar.FlowEntry;
 import auxiliar.PortNumber;
 import auxiliar.Queue.QueueType;
 
-public abstract class LowLatencyBaseAlgorithm {
+public abstract class LowLatencyBaseAlgorithm implements Serializable {
+
+	private static final long serialVersionUID = 1L;
 
 	public static LowLatencyBaseAlgorithm newInstance(Class<? extends LowLatencyBaseAlgorithm> algorithmType) {
 		LowLatencyBaseAlgorithm instance = null;
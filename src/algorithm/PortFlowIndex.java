@@ -0,0 +1,194 @@
+package algorithm;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Flows allocated to each port of a bundle, as used by the local search of
+ * Algorithm7 (also Algorithm8 and Algorithm10). The flows of each port are kept
+ * in arrays of primitives sorted by bytes, so that the largest flow below a
+ * given number of bytes (or the smallest one above it) is found in O(log n).
+ * Each flow also keeps its position in the list of flows of the port (a
+ * sequence number that grows as flows are added), which breaks ties between
+ * flows with the same bytes and gives back the list in its original order.
+ *
+ * @author pfondo
+ *
+ */
+public class PortFlowIndex implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private int numPorts = 0;
+	// Sorted by bytes, then by sequence number
+	private long[][] bytes = new long[0][];
+	private int[][] sequenceNumbers = new int[0][];
+	private int[][] flows = new int[0][];
+	private int[] sizes = new int[0];
+	private int[] nextSequenceNumbers = new int[0];
+
+	/**
+	 * Removes all the flows.
+	 */
+	public void reset(int numPorts) {
+		if (bytes.length < numPorts) {
+			bytes = Arrays.copyOf(bytes, numPorts);
+			sequenceNumbers = Arrays.copyOf(sequenceNumbers, numPorts);
+			flows = Arrays.copyOf(flows, numPorts);
+			sizes = new int[numPorts];
+			nextSequenceNumbers = new int[numPorts];
+			for (int p = 0; p < numPorts; p++) {
+				if (bytes[p] == null) {
+					bytes[p] = new long[INITIAL_CAPACITY];
+					sequenceNumbers[p] = new int[INITIAL_CAPACITY];
+					flows[p] = new int[INITIAL_CAPACITY];
+				}
+			}
+		}
+		this.numPorts = numPorts;
+		Arrays.fill(sizes, 0, numPorts, 0);
+		Arrays.fill(nextSequenceNumbers, 0, numPorts, 0);
+	}
+
+	public int getNumPorts() {
+		return numPorts;
+	}
+
+	/**
+	 * Returns the number of flows of the port.
+	 */
+	public int size(int port) {
+		return sizes[port];
+	}
+
+	/**
+	 * Adds the flow at the end of the list of flows of the port.
+	 *
+	 * @param flow
+	 *            Identifier of the flow (e.g., its index in a list).
+	 */
+	public void add(int port, int flow, long flowBytes) {
+		int size = sizes[port];
+		if (size == bytes[port].length) {
+			int capacity = 2 * size;
+			bytes[port] = Arrays.copyOf(bytes[port], capacity);
+			sequenceNumbers[port] = Arrays.copyOf(sequenceNumbers[port], capacity);
+			flows[port] = Arrays.copyOf(flows[port], capacity);
+		}
+		// After the flows with the same bytes, since it has the highest sequence number
+		long[] portBytes = bytes[port];
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (portBytes[middle] > flowBytes) {
+				high = middle;
+			} else {
+				low = middle + 1;
+			}
+		}
+		int position = low;
+		System.arraycopy(portBytes, position, portBytes, position + 1, size - position);
+		System.arraycopy(sequenceNumbers[port], position, sequenceNumbers[port], position + 1, size - position);
+		System.arraycopy(flows[port], position, flows[port], position + 1, size - position);
+		portBytes[position] = flowBytes;
+		sequenceNumbers[port][position] = nextSequenceNumbers[port]++;
+		flows[port][position] = flow;
+		sizes[port] = size + 1;
+	}
+
+	/**
+	 * Removes the flow at the given position (in order of bytes) of the port.
+	 */
+	public void remove(int port, int position) {
+		int size = sizes[port];
+		System.arraycopy(bytes[port], position + 1, bytes[port], position, size - position - 1);
+		System.arraycopy(sequenceNumbers[port], position + 1, sequenceNumbers[port], position, size - position - 1);
+		System.arraycopy(flows[port], position + 1, flows[port], position, size - position - 1);
+		sizes[port] = size - 1;
+	}
+
+	public long getBytes(int port, int position) {
+		return bytes[port][position];
+	}
+
+	public int getFlow(int port, int position) {
+		return flows[port][position];
+	}
+
+	/**
+	 * Returns the position of the flow of the port with the most bytes that are
+	 * lower than or equal to maxBytes (the first one in the list if several have
+	 * the same bytes), or -1 if there is none.
+	 */
+	public int floor(int port, double maxBytes) {
+		// Number of flows with bytes <= maxBytes
+		int count = countNotAbove(port, maxBytes);
+		if (count == 0) {
+			return -1;
+		}
+		// First flow with the same bytes
+		long[] portBytes = bytes[port];
+		long flowBytes = portBytes[count - 1];
+		int low = 0;
+		int high = count - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (portBytes[middle] < flowBytes) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the position of the flow of the port with the least bytes that are
+	 * higher than minBytes (the first one in the list if several have the same
+	 * bytes), or -1 if there is none.
+	 */
+	public int higher(int port, double minBytes) {
+		int position = countNotAbove(port, minBytes);
+		return position < sizes[port] ? position : -1;
+	}
+
+	private int countNotAbove(int port, double maxBytes) {
+		long[] portBytes = bytes[port];
+		int low = 0;
+		int high = sizes[port];
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (portBytes[middle] <= maxBytes) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the flows of the port in the order in which they were added.
+	 */
+	public int[] getFlowsInOrder(int port) {
+		int size = sizes[port];
+		// The sequence numbers are below nextSequenceNumbers[port], so a counting
+		// pass is enough
+		int[] positionsBySequence = new int[nextSequenceNumbers[port]];
+		Arrays.fill(positionsBySequence, -1);
+		for (int position = 0; position < size; position++) {
+			positionsBySequence[sequenceNumbers[port][position]] = position;
+		}
+		int[] orderedFlows = new int[size];
+		int i = 0;
+		for (int position : positionsBySequence) {
+			if (position != -1) {
+				orderedFlows[i++] = flows[port][position];
+			}
+		}
+		return orderedFlows;
+	}
+}
@@ -0,0 +1,397 @@
+package algorithm;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Set;
+
+import auxiliar.PortNumber;
+
+/**
+ * Ports of a bundle ordered by their expected load (bytes), as used by the
+ * greedy allocation algorithms, which try the ports in order for each flow.
+ * The ports are kept in an indexed binary heap (the position of each port in
+ * the heap is stored), so the first port is obtained in O(1) and the load of a
+ * port is updated in O(log P). Ports with the same load are ordered by port
+ * number, as the stable sort of the entries of the map of port occupation did.
+ * The heap is reused from one call of the algorithm to the next.
+ *
+ * For firstFit(), the ports are also kept in a treap (a balanced binary search
+ * tree) in the same order, where each node stores the maximum slack of its
+ * subtree: the bytes that can still be added to a port, which depend on its
+ * load and, for some algorithms, on its number of flows. The first port where a
+ * flow fits is found by descending the tree in O(log P), whatever the order of
+ * the ports is. When the bytes available do not depend on the number of flows,
+ * this is a floor query on the loads. The treap is built by the first call of
+ * firstFit() after reset(), so it does not cost anything to the algorithms that
+ * do not use it.
+ *
+ * @author pfondo
+ *
+ */
+public class PortLoadHeap implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final boolean mostLoadedFirst;
+
+	private PortNumber[] ports = new PortNumber[0];
+	private long[] portNumbers = new long[0];
+	private int numPorts = 0;
+	private long[] loads = new long[0];
+	private long[] numFlows = new long[0];
+	private int[] heap = new int[0];
+	// Position of each port in the heap
+	private int[] positions = new int[0];
+
+	// Treap of the ports for firstFit(), built for the algorithm whose bytes
+	// available are used (null if it is not built)
+	private transient BaseAlgorithm fitAlgorithm = null;
+	private int root = -1;
+	private int[] left = new int[0];
+	private int[] right = new int[0];
+	private int[] priorities = new int[0];
+	// Bytes that can be added to each port, and maximum of each subtree
+	private long[] slacks = new long[0];
+	private long[] maxSlacks = new long[0];
+	// Result of split()
+	private int splitLeft;
+	private int splitRight;
+
+	/**
+	 * @param mostLoadedFirst
+	 *            If true, the ports are ordered from the most loaded one;
+	 *            otherwise, from the least loaded one.
+	 */
+	public PortLoadHeap(boolean mostLoadedFirst) {
+		this.mostLoadedFirst = mostLoadedFirst;
+	}
+
+	/**
+	 * Sets the ports (the first numPorts of linkPorts, which must be sorted by
+	 * port number), all of them without load.
+	 */
+	public void reset(Set<PortNumber> linkPorts, int numPorts) {
+		numPorts = Math.min(numPorts, linkPorts.size());
+		if (ports.length < numPorts) {
+			ports = new PortNumber[numPorts];
+			portNumbers = new long[numPorts];
+			loads = new long[numPorts];
+			this.numFlows = new long[numPorts];
+			heap = new int[numPorts];
+			positions = new int[numPorts];
+			left = new int[numPorts];
+			right = new int[numPorts];
+			priorities = new int[numPorts];
+			slacks = new long[numPorts];
+			maxSlacks = new long[numPorts];
+		}
+		this.numPorts = numPorts;
+		int p = 0;
+		for (PortNumber pn : linkPorts) {
+			if (p >= numPorts) {
+				break;
+			}
+			ports[p] = pn;
+			portNumbers[p] = pn.toLong();
+			p++;
+		}
+		Arrays.fill(loads, 0, numPorts, 0);
+		Arrays.fill(this.numFlows, 0, numPorts, 0);
+		for (p = 0; p < numPorts; p++) {
+			heap[p] = p;
+			positions[p] = p;
+		}
+		fitAlgorithm = null;
+	}
+
+	public int size() {
+		return numPorts;
+	}
+
+	public PortNumber getPort(int port) {
+		return ports[port];
+	}
+
+	/**
+	 * Returns the index of the given port, or -1 if it is not in the heap.
+	 */
+	public int getPortIndex(PortNumber portNumber) {
+		int index = Arrays.binarySearch(portNumbers, 0, numPorts, portNumber.toLong());
+		return index >= 0 ? index : -1;
+	}
+
+	public long getLoad(int port) {
+		return loads[port];
+	}
+
+	public long getNumFlows(int port) {
+		return numFlows[port];
+	}
+
+	/**
+	 * Returns the first port in order of load.
+	 */
+	public int peek() {
+		return heap[0];
+	}
+
+	/**
+	 * Adds a flow with the given bytes to the port.
+	 */
+	public void addFlow(int port, long bytes) {
+		numFlows[port] += 1;
+		setLoad(port, loads[port] + bytes);
+	}
+
+	/**
+	 * Sets the load of the port, which may increase or decrease.
+	 */
+	public void setLoad(int port, long load) {
+		if (fitAlgorithm != null) {
+			// Removed with its old position in the order
+			root = remove(root, port);
+		}
+		long oldLoad = loads[port];
+		loads[port] = load;
+		if ((load < oldLoad) != mostLoadedFirst) {
+			siftUp(positions[port]);
+		} else {
+			siftDown(positions[port]);
+		}
+		if (fitAlgorithm != null) {
+			slacks[port] = slack(port, fitAlgorithm);
+			root = insert(root, port);
+		}
+	}
+
+	/**
+	 * Returns the first port, in order of load, to which the flow can be
+	 * allocated: the bytes of the port plus those of the flow do not exceed the
+	 * bytes available (which depend on the number of flows of the port), or the
+	 * port is empty. Returns -1 if there is no such port.
+	 *
+	 * The bytes available of a port must only depend on its number of flows until
+	 * the next reset().
+	 */
+	public int firstFit(long flowBytes, BaseAlgorithm algorithm) {
+		if (numPorts == 0) {
+			return -1;
+		}
+		if (fits(heap[0], flowBytes, algorithm)) {
+			return heap[0];
+		}
+		if (fitAlgorithm != algorithm && !buildTree(algorithm)) {
+			return firstFitScan(flowBytes, algorithm);
+		}
+		if (maxSlacks[root] < flowBytes) {
+			return -1;
+		}
+		// The first node in order whose slack is enough
+		int node = root;
+		while (true) {
+			if (left[node] != -1 && maxSlacks[left[node]] >= flowBytes) {
+				node = left[node];
+			} else if (slacks[node] >= flowBytes) {
+				return node;
+			} else {
+				node = right[node];
+			}
+		}
+	}
+
+	/**
+	 * Fallback of firstFit() when the bytes available cannot be expressed as a
+	 * slack in bytes (they are not finite): checks all the ports in O(P).
+	 */
+	private int firstFitScan(long flowBytes, BaseAlgorithm algorithm) {
+		int selected = -1;
+		for (int p = 0; p < numPorts; p++) {
+			if ((selected == -1 || before(p, selected)) && fits(p, flowBytes, algorithm)) {
+				selected = p;
+			}
+		}
+		return selected;
+	}
+
+	private boolean fits(int port, long flowBytes, BaseAlgorithm algorithm) {
+		long total = loads[port] + flowBytes;
+		return total <= algorithm.getPortBytesAvailable(numFlows[port]) || loads[port] == 0;
+	}
+
+	/**
+	 * Returns the bytes that can be added to the port: since the bytes are
+	 * integers, load + flowBytes <= available if and only if flowBytes <=
+	 * floor(available) - load. An empty port accepts any flow.
+	 */
+	private long slack(int port, BaseAlgorithm algorithm) {
+		if (loads[port] == 0) {
+			return Long.MAX_VALUE;
+		}
+		return (long) Math.floor(algorithm.getPortBytesAvailable(numFlows[port])) - loads[port];
+	}
+
+	/**
+	 * Builds the treap of the ports for the given algorithm.
+	 *
+	 * @return false if the bytes available of a port are not finite.
+	 */
+	private boolean buildTree(BaseAlgorithm algorithm) {
+		fitAlgorithm = null;
+		root = -1;
+		for (int p = 0; p < numPorts; p++) {
+			double available = algorithm.getPortBytesAvailable(numFlows[p]);
+			if (Double.isNaN(available) || Double.isInfinite(available)) {
+				return false;
+			}
+			// Deterministic pseudo-random priorities
+			int hash = (p + 1) * 0x9E3779B9;
+			priorities[p] = hash ^ (hash >>> 16);
+			slacks[p] = slack(p, algorithm);
+			root = insert(root, p);
+		}
+		fitAlgorithm = algorithm;
+		return true;
+	}
+
+	private void updateMaxSlack(int node) {
+		long maxSlack = slacks[node];
+		if (left[node] != -1) {
+			maxSlack = Math.max(maxSlack, maxSlacks[left[node]]);
+		}
+		if (right[node] != -1) {
+			maxSlack = Math.max(maxSlack, maxSlacks[right[node]]);
+		}
+		maxSlacks[node] = maxSlack;
+	}
+
+	/**
+	 * Inserts the port in the subtree and returns its new root.
+	 */
+	private int insert(int node, int port) {
+		if (node == -1) {
+			left[port] = -1;
+			right[port] = -1;
+			maxSlacks[port] = slacks[port];
+			return port;
+		}
+		if (priorities[port] > priorities[node]) {
+			// The port becomes the root of the subtree
+			split(node, port);
+			left[port] = splitLeft;
+			right[port] = splitRight;
+			updateMaxSlack(port);
+			return port;
+		}
+		if (before(port, node)) {
+			left[node] = insert(left[node], port);
+		} else {
+			right[node] = insert(right[node], port);
+		}
+		updateMaxSlack(node);
+		return node;
+	}
+
+	/**
+	 * Splits the subtree in the ports before the given one (splitLeft) and those
+	 * after it (splitRight).
+	 */
+	private void split(int node, int port) {
+		if (node == -1) {
+			splitLeft = -1;
+			splitRight = -1;
+		} else if (before(node, port)) {
+			split(right[node], port);
+			right[node] = splitLeft;
+			updateMaxSlack(node);
+			splitLeft = node;
+		} else {
+			split(left[node], port);
+			left[node] = splitRight;
+			updateMaxSlack(node);
+			splitRight = node;
+		}
+	}
+
+	/**
+	 * Removes the port from the subtree and returns its new root.
+	 */
+	private int remove(int node, int port) {
+		if (node == port) {
+			return merge(left[node], right[node]);
+		}
+		if (before(port, node)) {
+			left[node] = remove(left[node], port);
+		} else {
+			right[node] = remove(right[node], port);
+		}
+		updateMaxSlack(node);
+		return node;
+	}
+
+	/**
+	 * Merges two subtrees, all the ports of a before those of b.
+	 */
+	private int merge(int a, int b) {
+		if (a == -1) {
+			return b;
+		}
+		if (b == -1) {
+			return a;
+		}
+		if (priorities[a] > priorities[b]) {
+			right[a] = merge(right[a], b);
+			updateMaxSlack(a);
+			return a;
+		}
+		left[b] = merge(a, left[b]);
+		updateMaxSlack(b);
+		return b;
+	}
+
+	/**
+	 * Whether port a goes before port b.
+	 */
+	private boolean before(int a, int b) {
+		if (loads[a] != loads[b]) {
+			return (loads[a] < loads[b]) != mostLoadedFirst;
+		}
+		return a < b;
+	}
+
+	private void siftUp(int position) {
+		int port = heap[position];
+		while (position > 0) {
+			int parent = (position - 1) >>> 1;
+			if (!before(port, heap[parent])) {
+				break;
+			}
+			move(heap[parent], position);
+			position = parent;
+		}
+		move(port, position);
+	}
+
+	private void siftDown(int position) {
+		int port = heap[position];
+		while (true) {
+			int child = 2 * position + 1;
+			if (child >= numPorts) {
+				break;
+			}
+			if (child + 1 < numPorts && before(heap[child + 1], heap[child])) {
+				child++;
+			}
+			if (!before(heap[child], port)) {
+				break;
+			}
+			move(heap[child], position);
+			position = child;
+		}
+		move(port, position);
+	}
+
+	private void move(int port, int position) {
+		heap[position] = port;
+		positions[port] = position;
+	}
+}
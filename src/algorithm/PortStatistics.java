@@ -1,14 +1,21 @@
 package algorithm;
 
+import java.io.Serializable;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.List;
 
+import auxiliar.ClassScheduler;
+import auxiliar.DelayHistogram;
 import auxiliar.PortNumber;
 import auxiliar.Queue;
 import tfm.EnergyConsumptionUtils;
+import utils.DecimalFormatUtils;
+
+public class PortStatistics implements Serializable {
+
+	private static final long serialVersionUID = 1L;
 
-public class PortStatistics {
 	private long time;
 	private double portBandwidth;
 
@@ -47,7 +54,7 @@ public class PortStatistics {
 		this.numPackets = 0;
 		this.energyConsumptions = new ArrayList<Double>();
 		if (queueSize != 0) {
-			this.queue = new Queue(executionFile, "port" + portNumber.toLong(), queueSize);
+			this.queue = new Queue(executionFile, "port" + portNumber.toLong(), queueSize, portBandwidth);
 		} else {
 			this.queue = null;
 		}
@@ -195,6 +202,7 @@ public class PortStatistics {
 		numPacketsInterval = 0;
 		bytesInterval = 0;
 		numFlowsInterval = 0;
+		queue.cleanIntervalDelay();
 		if (discardPreviousIntervals) {
 			discardPreviousIntervals(timestamp);
 		}
@@ -248,6 +256,56 @@ public class PortStatistics {
 		this.idleTime = idleTime;
 	}
 
+	/**
+	 * Returns the percentiles of the delay of the normal and low-latency packets,
+	 * or an empty string if the delay histograms are not enabled.
+	 */
+	private String toStringDelayPercentiles(boolean isInterval) {
+		if (queue.getDelayHistogram() == null) {
+			return "";
+		}
+		DecimalFormat df = DecimalFormatUtils.getDecimalFormat2();
+		DelayHistogram histogram = isInterval ? queue.getIntervalDelayHistogram() : queue.getDelayHistogram();
+		DelayHistogram histogramLowLatency = isInterval ? queue.getIntervalDelayHistogramLowLatency()
+				: queue.getDelayHistogramLowLatency();
+		String toReturn = "; " + DelayHistogram.formatNames("", "", "/") + " delay (us): "
+				+ histogram.format(df, "/");
+		if (histogramLowLatency.getCount() > 0) {
+			toReturn += "; " + DelayHistogram.formatNames("", "", "/") + " low-latency delay (us): "
+					+ histogramLowLatency.format(df, "/");
+		}
+		return toReturn;
+	}
+
+	/**
+	 * Returns the packets transmitted, average delay (and its percentiles, if the
+	 * delay histograms are enabled), lost packets and maximum number of queued
+	 * packets of each traffic class, or an empty string if the traffic classes
+	 * are not enabled.
+	 */
+	private String toStringClasses(boolean isInterval) {
+		ClassScheduler scheduler = queue.getScheduler();
+		if (scheduler == null) {
+			return "";
+		}
+		DecimalFormat df = DecimalFormatUtils.getDecimalFormat2();
+		String toReturn = "";
+		for (int c = 0; c < scheduler.getNumClasses(); c++) {
+			long classPackets = scheduler.getNumPackets(c);
+			double averageDelay = classPackets > 0 ? scheduler.getAccumulatedDelay(c) / (double) classPackets : 0;
+			toReturn += "; class " + c + ": " + classPackets + " packets, " + df.format(averageDelay / 1e3)
+					+ " us avg delay, ";
+			DelayHistogram histogram = isInterval ? scheduler.getIntervalDelayHistogram(c)
+					: scheduler.getDelayHistogram(c);
+			if (histogram != null) {
+				toReturn += DelayHistogram.formatNames("", "", "/") + " delay (us): " + histogram.format(df, "/")
+						+ ", ";
+			}
+			toReturn += scheduler.getNumExceeded(c) + " lost, " + scheduler.getMaxPackets(c) + " max queued";
+		}
+		return toReturn;
+	}
+
 	public String toStringInterval() {
 		// System.out.println(
 		// "Accumulated total delay: " + (queue.getAccumulatedDelay() +
@@ -264,6 +322,8 @@ public class PortStatistics {
 		toReturn += "E_cReal: " + df.format(getRealEnergyConsumption(isInterval) * 100.0) + "%; ";
 		toReturn += "lostPackets: " + queue.getNumExceeded() + "; ";
 		toReturn += "lossPacketsPercent: " + df.format(getLossPacketPercent(isInterval)) + "%";
+		toReturn += toStringDelayPercentiles(isInterval);
+		toReturn += toStringClasses(isInterval);
 		return toReturn;
 	}
 
@@ -280,6 +340,8 @@ public class PortStatistics {
 		toReturn += "E_cReal: " + df.format(getRealEnergyConsumption(isInterval) * 100.0) + "%; ";
 		toReturn += "lostPackets: " + queue.getNumExceeded() + "; ";
 		toReturn += "lossPacketsPercent: " + df.format(getLossPacketPercent(isInterval)) + "%";
+		toReturn += toStringDelayPercentiles(isInterval);
+		toReturn += toStringClasses(isInterval);
 		return toReturn;
 	}
 }
@@ -0,0 +1,370 @@
+package auxiliar;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Queues of a port with several traffic classes. Each class has its own FIFO
+ * and buffer (of the same size as the queue of the port), and the class of the
+ * next packet to be transmitted is chosen with one of the following policies:
+ *
+ * <ul>
+ * <li>SP: strict priority. The higher the class, the higher the priority.</li>
+ * <li>DRR: deficit round robin, with a quantum proportional to the weight of
+ * each class.</li>
+ * <li>WFQ: weighted fair queuing, approximated with self-clocked fair queuing
+ * (the virtual time is the finish tag of the last packet transmitted).</li>
+ * </ul>
+ *
+ * Only the packets that have arrived when the port is ready to transmit are
+ * considered. Since the number of classes is small (at most 8), every operation
+ * is O(1) per packet.
+ *
+ * @author pfondo
+ *
+ */
+public class ClassScheduler implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public enum Policy {
+		SP, DRR, WFQ
+	}
+
+	public static final int MAX_CLASSES = 8;
+
+	// Quantum of DRR for a weight of 1 (bytes): an Ethernet frame
+	private static final int BASE_QUANTUM = 1518;
+
+	private final Policy policy;
+	private final int numClasses;
+	private final PacketQueue[] queues;
+	private final double[] weights;
+	// Transmission time of the packets queued in each class (nanoseconds)
+	private final long[] backlog;
+	// Bit i is set if class i has packets
+	private int nonEmptyClasses = 0;
+	private int size = 0;
+
+	// DRR
+	private final long[] quantums;
+	private final long[] deficits;
+	private int currentClass = 0;
+	private boolean currentClassVisited = false;
+
+	// WFQ
+	private double virtualTime = 0;
+	private final double[] lastFinishTags;
+
+	// Statistics of each class
+	private final long[] numPackets;
+	private final long[] accumulatedDelay;
+	private final long[] numExceeded;
+	private final long[] bytesExceeded;
+	private final int[] maxPackets;
+	// Delay histograms of each class (null if not enabled), for the whole
+	// simulation and for the current interval
+	private DelayHistogram[] delayHistograms;
+	private DelayHistogram[] intervalDelayHistograms;
+
+	/**
+	 * @param numClasses
+	 *            Between 1 and MAX_CLASSES.
+	 * @param policy
+	 * @param weights
+	 *            Weight of each class (only used by DRR and WFQ). If null or
+	 *            shorter than numClasses, the missing weights are 1.
+	 */
+	public ClassScheduler(int numClasses, Policy policy, double[] weights) {
+		if (numClasses < 1 || numClasses > MAX_CLASSES) {
+			throw new IllegalArgumentException("The number of classes must be between 1 and " + MAX_CLASSES);
+		}
+		this.policy = policy;
+		this.numClasses = numClasses;
+		this.queues = new PacketQueue[numClasses];
+		this.weights = new double[numClasses];
+		this.backlog = new long[numClasses];
+		this.quantums = new long[numClasses];
+		this.deficits = new long[numClasses];
+		this.lastFinishTags = new double[numClasses];
+		this.numPackets = new long[numClasses];
+		this.accumulatedDelay = new long[numClasses];
+		this.numExceeded = new long[numClasses];
+		this.bytesExceeded = new long[numClasses];
+		this.maxPackets = new int[numClasses];
+		for (int c = 0; c < numClasses; c++) {
+			queues[c] = new PacketQueue(policy == Policy.WFQ);
+			this.weights[c] = weights != null && c < weights.length ? weights[c] : 1;
+			if (this.weights[c] <= 0) {
+				throw new IllegalArgumentException("The weights of the classes must be positive");
+			}
+			quantums[c] = Math.max(1, Math.round(BASE_QUANTUM * this.weights[c]));
+		}
+	}
+
+	/**
+	 * Returns the class of the port used for the given traffic class of a packet.
+	 * Traffic classes above the number of classes share the highest one.
+	 */
+	public int getClassIndex(int trafficClass) {
+		return Math.max(0, Math.min(trafficClass, numClasses - 1));
+	}
+
+	/**
+	 * Adds a packet to the given class.
+	 *
+	 * @param queueSize
+	 *            Maximum delay of each class (nanoseconds).
+	 * @return false if the packet has been discarded because the buffer of its
+	 *         class is full.
+	 */
+	public boolean add(int c, long arrivalTimestamp, long transmissionTime, long bytes, boolean lowLatency,
+			long queueSize) {
+		if (backlog[c] >= queueSize) {
+			numExceeded[c] += 1;
+			bytesExceeded[c] += bytes;
+			return false;
+		}
+		if (policy == Policy.WFQ) {
+			if (size == 0) {
+				// New busy period
+				virtualTime = 0;
+				Arrays.fill(lastFinishTags, 0);
+			}
+			double finishTag = Math.max(virtualTime, lastFinishTags[c]) + transmissionTime / weights[c];
+			lastFinishTags[c] = finishTag;
+			queues[c].add(arrivalTimestamp, transmissionTime, bytes, lowLatency, finishTag);
+		} else {
+			queues[c].add(arrivalTimestamp, transmissionTime, bytes, lowLatency);
+		}
+		backlog[c] += transmissionTime;
+		nonEmptyClasses |= 1 << c;
+		size++;
+		maxPackets[c] = Math.max(maxPackets[c], queues[c].size());
+		return true;
+	}
+
+	public boolean isEmpty() {
+		return nonEmptyClasses == 0;
+	}
+
+	/**
+	 * Returns the number of packets queued in all the classes.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the arrival timestamp of the first packet that arrived among those
+	 * queued. The scheduler must not be empty.
+	 */
+	public long getFirstArrivalTimestamp() {
+		long first = Long.MAX_VALUE;
+		for (int c = 0; c < numClasses; c++) {
+			if ((nonEmptyClasses & (1 << c)) != 0) {
+				first = Math.min(first, queues[c].getFirstArrivalTimestamp());
+			}
+		}
+		return first;
+	}
+
+	private boolean isEligible(int c, long timestamp) {
+		return (nonEmptyClasses & (1 << c)) != 0 && queues[c].getFirstArrivalTimestamp() <= timestamp;
+	}
+
+	/**
+	 * Chooses the class of the next packet to be transmitted when the port starts
+	 * transmitting at the given timestamp. At least one packet must have arrived
+	 * by then.
+	 */
+	public int select(long timestamp) {
+		switch (policy) {
+		case DRR:
+			return selectDeficitRoundRobin(timestamp);
+		case WFQ:
+			return selectWeightedFairQueuing(timestamp);
+		default:
+			return selectStrictPriority(timestamp);
+		}
+	}
+
+	private int selectStrictPriority(long timestamp) {
+		for (int c = numClasses - 1; c >= 0; c--) {
+			if (isEligible(c, timestamp)) {
+				return c;
+			}
+		}
+		throw new IllegalStateException("No packet has arrived");
+	}
+
+	private int selectWeightedFairQueuing(long timestamp) {
+		int selected = -1;
+		for (int c = numClasses - 1; c >= 0; c--) {
+			if (isEligible(c, timestamp)
+					&& (selected == -1 || queues[c].getFirstTag() < queues[selected].getFirstTag())) {
+				selected = c;
+			}
+		}
+		if (selected == -1) {
+			throw new IllegalStateException("No packet has arrived");
+		}
+		return selected;
+	}
+
+	private int selectDeficitRoundRobin(long timestamp) {
+		int visited = 0;
+		while (true) {
+			int c = currentClass;
+			if (isEligible(c, timestamp)) {
+				if (!currentClassVisited) {
+					deficits[c] += quantums[c];
+					currentClassVisited = true;
+				}
+				if (queues[c].getFirstBytes() <= deficits[c]) {
+					return c;
+				}
+			} else {
+				// Only backlogged classes keep their deficit
+				deficits[c] = 0;
+				if (++visited > numClasses && !hasEligible(timestamp)) {
+					throw new IllegalStateException("No packet has arrived");
+				}
+			}
+			currentClass = (c + 1) % numClasses;
+			currentClassVisited = false;
+		}
+	}
+
+	private boolean hasEligible(long timestamp) {
+		for (int c = 0; c < numClasses; c++) {
+			if (isEligible(c, timestamp)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the queue of the given class, to read its first packet.
+	 */
+	public PacketQueue getQueue(int c) {
+		return queues[c];
+	}
+
+	/**
+	 * Removes the first packet of the given class, once it has been transmitted.
+	 */
+	public void remove(int c, long packetDelay) {
+		PacketQueue queue = queues[c];
+		backlog[c] -= queue.getFirstTransmissionTime();
+		if (policy == Policy.DRR) {
+			deficits[c] -= queue.getFirstBytes();
+		} else if (policy == Policy.WFQ) {
+			virtualTime = queue.getFirstTag();
+		}
+		queue.removeFirst();
+		size--;
+		if (queue.isEmpty()) {
+			nonEmptyClasses &= ~(1 << c);
+			deficits[c] = 0;
+		}
+		numPackets[c] += 1;
+		accumulatedDelay[c] += packetDelay;
+		if (delayHistograms != null) {
+			delayHistograms[c].record(packetDelay);
+			intervalDelayHistograms[c].record(packetDelay);
+		}
+	}
+
+	/**
+	 * Records the delay of every transmitted packet in a histogram per class, so
+	 * that the percentiles of the delay of each class can be computed.
+	 */
+	public void enableDelayHistograms() {
+		delayHistograms = new DelayHistogram[numClasses];
+		intervalDelayHistograms = new DelayHistogram[numClasses];
+		for (int c = 0; c < numClasses; c++) {
+			delayHistograms[c] = new DelayHistogram();
+			intervalDelayHistograms[c] = new DelayHistogram();
+		}
+	}
+
+	public void clear() {
+		for (int c = 0; c < numClasses; c++) {
+			queues[c].clear();
+		}
+		Arrays.fill(backlog, 0);
+		Arrays.fill(deficits, 0);
+		Arrays.fill(lastFinishTags, 0);
+		nonEmptyClasses = 0;
+		size = 0;
+		currentClass = 0;
+		currentClassVisited = false;
+		virtualTime = 0;
+	}
+
+	public void cleanExceeded() {
+		Arrays.fill(numExceeded, 0);
+		Arrays.fill(bytesExceeded, 0);
+	}
+
+	public void cleanDelay() {
+		Arrays.fill(numPackets, 0);
+		Arrays.fill(accumulatedDelay, 0);
+		if (delayHistograms != null) {
+			for (int c = 0; c < numClasses; c++) {
+				delayHistograms[c].clear();
+			}
+			cleanIntervalDelay();
+		}
+	}
+
+	public void cleanIntervalDelay() {
+		if (intervalDelayHistograms != null) {
+			for (int c = 0; c < numClasses; c++) {
+				intervalDelayHistograms[c].clear();
+			}
+		}
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	public int getNumClasses() {
+		return numClasses;
+	}
+
+	public long getNumPackets(int c) {
+		return numPackets[c];
+	}
+
+	public long getAccumulatedDelay(int c) {
+		return accumulatedDelay[c];
+	}
+
+	public long getNumExceeded(int c) {
+		return numExceeded[c];
+	}
+
+	public long getBytesExceeded(int c) {
+		return bytesExceeded[c];
+	}
+
+	public int getMaxPackets(int c) {
+		return maxPackets[c];
+	}
+
+	/**
+	 * Returns the delay histogram of the given class, or null if the delay
+	 * histograms are not enabled.
+	 */
+	public DelayHistogram getDelayHistogram(int c) {
+		return delayHistograms != null ? delayHistograms[c] : null;
+	}
+
+	public DelayHistogram getIntervalDelayHistogram(int c) {
+		return intervalDelayHistograms != null ? intervalDelayHistograms[c] : null;
+	}
+}
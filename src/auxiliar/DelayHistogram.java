@@ -0,0 +1,135 @@
+package auxiliar;
+
+import java.io.Serializable;
+import java.text.DecimalFormat;
+import java.util.Arrays;
+
+import utils.DecimalFormatUtils;
+
+/**
+ * Histogram of packet delays (in nanoseconds) with logarithmic buckets: each
+ * power of two is split in SUB_BUCKETS linear buckets, so the relative error of
+ * the percentiles is below 1 / SUB_BUCKETS whatever the delay is. The memory is
+ * fixed and recording a delay does not create any object.
+ *
+ * @author pfondo
+ *
+ */
+public class DelayHistogram implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// Values below SUB_BUCKETS have their own bucket, then SUB_BUCKETS buckets
+	// for each power of two up to 2^63
+	private static final int NUM_BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	public static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	private final long[] counts = new long[NUM_BUCKETS];
+	private long count = 0;
+	private long max = 0;
+
+	private static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	/**
+	 * Returns the largest value of the given bucket.
+	 */
+	private static long highestValue(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+		long subBucket = SUB_BUCKETS + (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+	public void record(long delay) {
+		if (delay < 0) {
+			delay = 0;
+		}
+		counts[bucket(delay)]++;
+		count++;
+		if (delay > max) {
+			max = delay;
+		}
+	}
+
+	/**
+	 * Adds the delays recorded in other to this histogram.
+	 */
+	public void add(DelayHistogram other) {
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			counts[i] += other.counts[i];
+		}
+		count += other.count;
+		max = Math.max(max, other.max);
+	}
+
+	/**
+	 * Returns the delay (in nanoseconds) below which the given percentage of the
+	 * packets are, or 0 if no delay has been recorded.
+	 */
+	public long getPercentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long accumulated = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			accumulated += counts[i];
+			if (accumulated >= rank) {
+				return Math.min(highestValue(i), max);
+			}
+		}
+		return max;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public void clear() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		max = 0;
+	}
+
+	/**
+	 * Returns the percentiles and the maximum delay in microseconds, separated by
+	 * the given string.
+	 */
+	public String format(DecimalFormat df, String separator) {
+		String toReturn = "";
+		for (double percentile : PERCENTILES) {
+			toReturn += df.format(getPercentile(percentile) / 1e3) + separator;
+		}
+		toReturn += df.format(getMax() / 1e3);
+		return toReturn;
+	}
+
+	/**
+	 * Returns the names of the percentiles and the maximum, separated by the given
+	 * string (e.g., p50, p90, p99, p99.9, max).
+	 */
+	public static String formatNames(String prefix, String suffix, String separator) {
+		String toReturn = "";
+		for (double percentile : PERCENTILES) {
+			toReturn += prefix + "p" + DecimalFormatUtils.getDecimalFormat2().format(percentile) + suffix + separator;
+		}
+		toReturn += prefix + "max" + suffix;
+		return toReturn;
+	}
+}
@@ -1,6 +1,11 @@
 package auxiliar;
 
-public class DeviceId {
+import java.io.Serializable;
+
+public class DeviceId implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
 	private int deviceId;
 
 	public DeviceId() {
@@ -1,12 +1,28 @@
 package auxiliar;
 
-public class FlowEntry {
+import java.io.Serializable;
+
+/**
+ * Flow installed in the switch. Flows are identified by an integer key whose
+ * binary representation (with a fixed number of bits) is the legacy string
+ * identifier of the flow. The string is only built when it is requested, while
+ * hashCode(), equals() and compareTo() work directly on the key and are
+ * consistent with those of the string.
+ */
+public class FlowEntry implements Comparable<FlowEntry>, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
 	private PortNumber outputPort;
 	private long bytes;
-	private String id;
+	private long key;
+	private int idLength; // Number of bits of the key
+	private int hash;
+	private String id; // Built lazily from the key
 	private double lastUse;
 	private double since;
 	private boolean isLowLatency;
+	private int ordinal = -1; // Assigned by the simulator
 
 	public FlowEntry() {
 		outputPort = null;
@@ -14,14 +30,40 @@ public class FlowEntry {
 	}
 
 	public FlowEntry(String id, PortNumber outputPort, long bytes, double lastUse, double since, boolean isLowLatency) {
+		this(parseKey(id), id.length(), outputPort, bytes, lastUse, since, isLowLatency);
+	}
+
+	public FlowEntry(long key, int idLength, PortNumber outputPort, long bytes, double lastUse, double since,
+			boolean isLowLatency) {
 		this.outputPort = outputPort;
 		this.bytes = bytes;
-		this.id = id;
+		this.key = key;
+		this.idLength = idLength;
+		this.hash = computeHash(key, idLength);
 		this.lastUse = lastUse;
 		this.since = since;
 		this.setLowLatency(isLowLatency);
 	}
 
+	private static long parseKey(String id) {
+		if (id.length() > 63) {
+			throw new IllegalArgumentException("Flow identifier too long: " + id);
+		}
+		return id.isEmpty() ? 0 : Long.parseLong(id, 2);
+	}
+
+	/**
+	 * Computes the hash code of the binary string of the key (the same value as
+	 * String.hashCode()) without building it.
+	 */
+	private static int computeHash(long key, int idLength) {
+		int hash = 0;
+		for (int bit = idLength - 1; bit >= 0; bit--) {
+			hash = 31 * hash + (((key >>> bit) & 1) == 1 ? '1' : '0');
+		}
+		return hash;
+	}
+
 	public PortNumber getOutputPort() {
 		return outputPort;
 	}
@@ -44,13 +86,27 @@ public class FlowEntry {
 	}
 
 	public String getId() {
+		if (id == null) {
+			StringBuilder builder = new StringBuilder(idLength);
+			for (int bit = idLength - 1; bit >= 0; bit--) {
+				builder.append(((key >>> bit) & 1) == 1 ? '1' : '0');
+			}
+			id = builder.toString();
+		}
 		return id;
 	}
 
 	public void setId(String id) {
+		this.key = parseKey(id);
+		this.idLength = id.length();
+		this.hash = computeHash(key, idLength);
 		this.id = id;
 	}
 
+	public long getKey() {
+		return key;
+	}
+
 	public double getSince() {
 		return since;
 	}
@@ -66,17 +122,29 @@ public class FlowEntry {
 	@Override
 	public boolean equals(Object obj) {
 		if (obj instanceof FlowEntry) {
-			return ((FlowEntry) obj).id.equals(this.id);
+			FlowEntry other = (FlowEntry) obj;
+			return other.key == this.key && other.idLength == this.idLength;
 		}
 		if (obj instanceof String) {
-			return ((String) obj).equals(this.id);
+			return ((String) obj).equals(getId());
 		}
 		return false;
 	}
 
 	@Override
 	public int hashCode() {
-		return id.hashCode();
+		return hash;
+	}
+
+	/**
+	 * Same order as the one of the string identifiers.
+	 */
+	@Override
+	public int compareTo(FlowEntry other) {
+		if (idLength != other.idLength) {
+			return getId().compareTo(other.getId());
+		}
+		return Long.compare(key, other.key);
 	}
 
 	public double getLastUse() {
@@ -89,7 +157,7 @@ public class FlowEntry {
 
 	@Override
 	public String toString() {
-		return id;
+		return getId();
 	}
 
 	public boolean isLowLatency() {
@@ -100,4 +168,17 @@ public class FlowEntry {
 		this.isLowLatency = isLowLatency;
 	}
 
+	/**
+	 * Returns a small integer that identifies the flow among those installed in
+	 * the switch, to index arrays. It is reused by another flow once this one
+	 * expires. -1 if the flow has never been installed.
+	 */
+	public int getOrdinal() {
+		return ordinal;
+	}
+
+	public void setOrdinal(int ordinal) {
+		this.ordinal = ordinal;
+	}
+
 }
@@ -0,0 +1,146 @@
+package auxiliar;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash table (linear probing) that maps the integer keys of the
+ * flows to their FlowEntry, so that the flow of each packet is found without
+ * creating any object.
+ *
+ * @author pfondo
+ *
+ */
+public class FlowTable implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private long[] keys;
+	private FlowEntry[] values;
+	private int mask;
+	private int size;
+
+	public FlowTable() {
+		this(INITIAL_CAPACITY);
+	}
+
+	public FlowTable(int expectedSize) {
+		int capacity = INITIAL_CAPACITY;
+		while (capacity < 2 * expectedSize) {
+			capacity <<= 1;
+		}
+		keys = new long[capacity];
+		values = new FlowEntry[capacity];
+		mask = capacity - 1;
+	}
+
+	private static int slot(long key, int mask) {
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+	/**
+	 * Returns the flow with the given key, or null if there is none.
+	 */
+	public FlowEntry get(long key) {
+		int slot = slot(key, mask);
+		FlowEntry value;
+		while ((value = values[slot]) != null) {
+			if (keys[slot] == key) {
+				return value;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Inserts (or replaces) the flow with the given key.
+	 */
+	public void put(long key, FlowEntry value) {
+		if (2 * (size + 1) > values.length) {
+			resize(2 * values.length);
+		}
+		int slot = slot(key, mask);
+		while (values[slot] != null) {
+			if (keys[slot] == key) {
+				values[slot] = value;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		size++;
+	}
+
+	/**
+	 * Removes the flow with the given key. Returns the removed flow, or null if
+	 * there was none.
+	 */
+	public FlowEntry remove(long key) {
+		int slot = slot(key, mask);
+		FlowEntry value;
+		while ((value = values[slot]) != null) {
+			if (keys[slot] == key) {
+				deleteSlot(slot);
+				size--;
+				return value;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Backward shift deletion: moves back the following entries of the probe
+	 * sequence, so that no tombstones are needed.
+	 */
+	private void deleteSlot(int slot) {
+		int next = (slot + 1) & mask;
+		while (values[next] != null) {
+			int ideal = slot(keys[next], mask);
+			// Move the entry if its ideal slot is not in (slot, next]
+			if (((next - ideal) & mask) >= ((next - slot) & mask)) {
+				keys[slot] = keys[next];
+				values[slot] = values[next];
+				slot = next;
+			}
+			next = (next + 1) & mask;
+		}
+		values[slot] = null;
+	}
+
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		FlowEntry[] oldValues = values;
+		keys = new long[capacity];
+		values = new FlowEntry[capacity];
+		mask = capacity - 1;
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != null) {
+				int slot = slot(oldKeys[i], mask);
+				while (values[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+}
@@ -1,6 +1,11 @@
 package auxiliar;
 
-public class Logger {
+import java.io.Serializable;
+
+public class Logger implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
 	public void log(String args) {
 		System.out.println(args);
 	}
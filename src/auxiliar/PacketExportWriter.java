@@ -0,0 +1,157 @@
+package auxiliar;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes the packets that arrive to a port in a binary file, to be later
+ * converted to the input format of the HystEEE simulator
+ * (https://github.com/migrax/HystEEE) with tfm.PacketExportConverter. The file
+ * starts with the 8-byte {@link #MAGIC} header, followed by one fixed-size
+ * record per packet:
+ *
+ * <pre>
+ * timestamp (8 bytes, ns) | length (4 bytes) | class (4 bytes)
+ * </pre>
+ *
+ * The records are written in direct buffers, which are written to the file by
+ * a background thread, so that the simulation does not wait for the disk.
+ * Integers are stored in big-endian order.
+ *
+ * @author pfondo
+ *
+ */
+public class PacketExportWriter {
+
+	public static final byte[] MAGIC = "SDNPKTS1".getBytes(StandardCharsets.US_ASCII);
+
+	public static final String FILE_SUFIX = ".bin";
+
+	public static final int RECORD_SIZE = 8 + 4 + 4;
+
+	public static final int CLASS_NORMAL = 0;
+	public static final int CLASS_LOW_LATENCY = 1;
+
+	private static final int BUFFER_SIZE = 1 << 20; // 1 MB
+	private static final int NUM_BUFFERS = 4;
+	// Tells the background thread that there are no more buffers
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+	private final FileChannel channel;
+	private final BlockingQueue<ByteBuffer> freeBuffers = new ArrayBlockingQueue<ByteBuffer>(NUM_BUFFERS);
+	private final BlockingQueue<ByteBuffer> fullBuffers = new ArrayBlockingQueue<ByteBuffer>(NUM_BUFFERS + 1);
+	private final Thread writerThread;
+	private volatile IOException error = null;
+	private ByteBuffer buffer;
+	private long numRecords = 0;
+
+	public PacketExportWriter(String outputFile) throws IOException {
+		this.channel = FileChannel.open(Paths.get(outputFile), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		for (int i = 1; i < NUM_BUFFERS; i++) {
+			freeBuffers.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+		}
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		buffer.put(MAGIC);
+		this.writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeBuffers();
+			}
+		}, "packet-writer");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	private void writeBuffers() {
+		try {
+			while (true) {
+				ByteBuffer fullBuffer = fullBuffers.take();
+				if (fullBuffer == END) {
+					return;
+				}
+				try {
+					while (fullBuffer.hasRemaining()) {
+						channel.write(fullBuffer);
+					}
+				} catch (IOException e) {
+					// Keep on consuming the buffers, so that the simulation does not block
+					if (error == null) {
+						error = e;
+					}
+				}
+				fullBuffer.clear();
+				freeBuffers.put(fullBuffer);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @param timestamp
+	 *            In nanoseconds.
+	 * @param bytes
+	 * @param packetClass
+	 *            CLASS_NORMAL or CLASS_LOW_LATENCY.
+	 */
+	public void write(long timestamp, long bytes, int packetClass) throws IOException {
+		if (buffer.remaining() < RECORD_SIZE) {
+			submit();
+			buffer = takeFreeBuffer();
+		}
+		buffer.putLong(timestamp);
+		buffer.putInt((int) bytes);
+		buffer.putInt(packetClass);
+		numRecords += 1;
+	}
+
+	private void submit() throws IOException {
+		if (error != null) {
+			throw error;
+		}
+		buffer.flip();
+		try {
+			fullBuffers.put(buffer);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	private ByteBuffer takeFreeBuffer() throws IOException {
+		try {
+			return freeBuffers.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	public long getNumRecords() {
+		return numRecords;
+	}
+
+	public void close() throws IOException {
+		try {
+			submit();
+			fullBuffers.put(END);
+			writerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} finally {
+			channel.close();
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+}
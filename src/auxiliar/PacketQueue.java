@@ -0,0 +1,162 @@
+package auxiliar;
+
+import java.io.Serializable;
+
+/**
+ * FIFO of packets backed by growable circular arrays of primitives (one array
+ * per attribute), so that enqueuing and dequeuing a packet is O(1) and creates
+ * no object.
+ *
+ * @author pfondo
+ *
+ */
+public class PacketQueue implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private long[] arrivalTimestamps;
+	private long[] transmissionTimes;
+	private long[] bytes;
+	private boolean[] lowLatency;
+	// Scheduling tag of each packet (only allocated if needed)
+	private double[] tags;
+	private final boolean withTags;
+	private int mask;
+	private int head = 0; // Position of the first packet
+	private int size = 0;
+
+	public PacketQueue() {
+		this(false);
+	}
+
+	/**
+	 * @param withTags
+	 *            Whether a scheduling tag is stored with each packet.
+	 */
+	public PacketQueue(boolean withTags) {
+		this.withTags = withTags;
+		allocate(INITIAL_CAPACITY);
+	}
+
+	private void allocate(int capacity) {
+		arrivalTimestamps = new long[capacity];
+		transmissionTimes = new long[capacity];
+		bytes = new long[capacity];
+		lowLatency = new boolean[capacity];
+		if (withTags) {
+			tags = new double[capacity];
+		}
+		mask = capacity - 1;
+	}
+
+	public void add(long arrivalTimestamp, long transmissionTime, long packetBytes, boolean isLowLatency) {
+		if (size > mask) {
+			grow();
+		}
+		int position = (head + size) & mask;
+		arrivalTimestamps[position] = arrivalTimestamp;
+		transmissionTimes[position] = transmissionTime;
+		bytes[position] = packetBytes;
+		lowLatency[position] = isLowLatency;
+		size++;
+	}
+
+	public void add(long arrivalTimestamp, long transmissionTime, long packetBytes, boolean isLowLatency,
+			double tag) {
+		add(arrivalTimestamp, transmissionTime, packetBytes, isLowLatency);
+		tags[(head + size - 1) & mask] = tag;
+	}
+
+	private void grow() {
+		long[] oldArrivalTimestamps = arrivalTimestamps;
+		long[] oldTransmissionTimes = transmissionTimes;
+		long[] oldBytes = bytes;
+		boolean[] oldLowLatency = lowLatency;
+		double[] oldTags = tags;
+		int oldCapacity = mask + 1;
+		allocate(2 * oldCapacity);
+		// Copy the packets in order, so that the first one is at position 0
+		int firstPart = oldCapacity - head;
+		System.arraycopy(oldArrivalTimestamps, head, arrivalTimestamps, 0, firstPart);
+		System.arraycopy(oldArrivalTimestamps, 0, arrivalTimestamps, firstPart, head);
+		System.arraycopy(oldTransmissionTimes, head, transmissionTimes, 0, firstPart);
+		System.arraycopy(oldTransmissionTimes, 0, transmissionTimes, firstPart, head);
+		System.arraycopy(oldBytes, head, bytes, 0, firstPart);
+		System.arraycopy(oldBytes, 0, bytes, firstPart, head);
+		System.arraycopy(oldLowLatency, head, lowLatency, 0, firstPart);
+		System.arraycopy(oldLowLatency, 0, lowLatency, firstPart, head);
+		if (withTags) {
+			System.arraycopy(oldTags, head, tags, 0, firstPart);
+			System.arraycopy(oldTags, 0, tags, firstPart, head);
+		}
+		head = 0;
+	}
+
+	/**
+	 * Removes the first packet. The queue must not be empty.
+	 */
+	public void removeFirst() {
+		head = (head + 1) & mask;
+		size--;
+	}
+
+	/**
+	 * Removes the first count packets. The queue must have at least count
+	 * packets.
+	 */
+	public void removeFirst(int count) {
+		head = (head + count) & mask;
+		size -= count;
+	}
+
+	/**
+	 * Arrival timestamp of the packet at the given position (0 is the first
+	 * one).
+	 */
+	public long getArrivalTimestamp(int index) {
+		return arrivalTimestamps[(head + index) & mask];
+	}
+
+	public long getTransmissionTime(int index) {
+		return transmissionTimes[(head + index) & mask];
+	}
+
+	public boolean isLowLatency(int index) {
+		return lowLatency[(head + index) & mask];
+	}
+
+	public long getFirstArrivalTimestamp() {
+		return arrivalTimestamps[head];
+	}
+
+	public long getFirstTransmissionTime() {
+		return transmissionTimes[head];
+	}
+
+	public long getFirstBytes() {
+		return bytes[head];
+	}
+
+	public boolean isFirstLowLatency() {
+		return lowLatency[head];
+	}
+
+	public double getFirstTag() {
+		return tags[head];
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		head = 0;
+		size = 0;
+	}
+}
@@ -0,0 +1,147 @@
+package auxiliar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import auxiliar.Queue.QueueType;
+
+/**
+ * Simulates the queues of the ports in parallel. Within an interval, the port
+ * of each packet is known when it arrives and the queues of the ports are
+ * independent of each other, so the packets of each port are buffered (in
+ * arrays of primitives) and, at the end of the interval (see flush()), the
+ * queue of each port processes its packets in a pool of worker threads, in the
+ * same order and with the same calls to Queue.update() and Queue.addPacket()
+ * as if they were processed as they arrive.
+ *
+ * @author pfondo
+ *
+ */
+public class ParallelQueueUpdater {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final ExecutorService executor;
+	private final Map<Queue, PortPackets> portPackets = new IdentityHashMap<Queue, PortPackets>();
+	// Ports with packets in the current interval
+	private final List<PortPackets> pendingPorts = new ArrayList<PortPackets>();
+
+	/**
+	 * Packets of a port in the current interval.
+	 */
+	private static class PortPackets {
+		private final Queue queue;
+		private int size = 0;
+		private long[] timestamps = new long[INITIAL_CAPACITY];
+		private int[] bytes = new int[INITIAL_CAPACITY];
+		private boolean[] lowLatency = new boolean[INITIAL_CAPACITY];
+		private byte[] trafficClasses = new byte[INITIAL_CAPACITY];
+
+		PortPackets(Queue queue) {
+			this.queue = queue;
+		}
+
+		void add(long timestamp, int packetBytes, boolean isLowLatency, int trafficClass) {
+			if (size == timestamps.length) {
+				int capacity = 2 * size;
+				timestamps = Arrays.copyOf(timestamps, capacity);
+				bytes = Arrays.copyOf(bytes, capacity);
+				lowLatency = Arrays.copyOf(lowLatency, capacity);
+				trafficClasses = Arrays.copyOf(trafficClasses, capacity);
+			}
+			timestamps[size] = timestamp;
+			bytes[size] = packetBytes;
+			lowLatency[size] = isLowLatency;
+			trafficClasses[size] = (byte) trafficClass;
+			size++;
+		}
+
+		void process(QueueType queueType) {
+			for (int i = 0; i < size; i++) {
+				queue.update(timestamps[i]);
+				queue.addPacket(timestamps[i], bytes[i], lowLatency[i], trafficClasses[i], queueType);
+			}
+			size = 0;
+		}
+	}
+
+	/**
+	 * @param numThreads
+	 *            Number of worker threads.
+	 */
+	public ParallelQueueUpdater(int numThreads) {
+		executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+			private int numThread = 0;
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "queue-worker-" + numThread++);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Buffers a packet that arrives to the queue, until the end of the interval.
+	 */
+	public void addPacket(Queue queue, long timestamp, int bytes, boolean isLowLatency, int trafficClass) {
+		PortPackets packets = portPackets.get(queue);
+		if (packets == null) {
+			packets = new PortPackets(queue);
+			portPackets.put(queue, packets);
+		}
+		if (packets.size == 0) {
+			pendingPorts.add(packets);
+		}
+		packets.add(timestamp, bytes, isLowLatency, trafficClass);
+	}
+
+	/**
+	 * Processes the packets buffered in the interval, each queue in a worker
+	 * thread, and waits until all of them are processed. Must be called before the
+	 * statistics of the queues are read.
+	 */
+	public void flush(final QueueType queueType) {
+		if (pendingPorts.isEmpty()) {
+			return;
+		}
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (final PortPackets packets : pendingPorts) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					packets.process(queueType);
+					return null;
+				}
+			});
+		}
+		pendingPorts.clear();
+		try {
+			for (Future<Void> future : executor.invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Stops the worker threads.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+}
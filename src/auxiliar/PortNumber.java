@@ -1,6 +1,11 @@
 package auxiliar;
 
-public class PortNumber {
+import java.io.Serializable;
+
+public class PortNumber implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
 	long portNumber;
 
 	public PortNumber() {
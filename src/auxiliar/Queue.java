@@ -1,14 +1,10 @@
 package auxiliar;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.Serializable;
 
 import tfm.EnergyConsumptionUtils;
-import utils.DecimalFormatUtils;
 import utils.FileNameUtils;
 
 /**
@@ -18,18 +14,21 @@ import utils.FileNameUtils;
  * @author pfondo
  *
  */
-public class Queue {
+public class Queue implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
 	public enum QueueType {
 		NORMAL, HIGHPRIORITY
 	}
 
 	public static final boolean DEBUG = false;
-	private static final boolean PRINT_PACKETS = false;
 
 	private long queueSize; // delay in nanoseconds
+	private final TransmissionTimeTable transmissionTimeTable;
 
-	private List<Packet> priorityList;
-	private List<Packet> list;
+	private PacketQueue priorityList;
+	private PacketQueue list;
 	private long lastTransmittedTimestamp;
 	private int numExceeded;
 	private int bytesExceeded;
@@ -43,11 +42,11 @@ public class Queue {
 
 	private long referenceTimestamp = 0;
 
-	private BufferedWriter writer;
-	private BufferedWriter lowLatencyIndexWriter;
+	// Export of the packets (null unless enabled). Not saved in the checkpoints
+	private transient PacketExportWriter writer;
 
+	private String subFolder;
 	private String fileName;
-	private String lowLatencyIndexFileName;
 
 	// Accumulated delay of the packets in the queue
 	long totalDelay = 0;
@@ -61,9 +60,25 @@ public class Queue {
 
 	private String portName;
 
-	public Queue(String subFolder, String portName, long queueSize) {
-		this.list = new ArrayList<Packet>();
-		this.priorityList = new ArrayList<Packet>();
+	// Delay histograms (null unless enabled): since the last discarded interval
+	// and in the current interval
+	private DelayHistogram delayHistogram;
+	private DelayHistogram delayHistogramLowLatency;
+	private DelayHistogram intervalDelayHistogram;
+	private DelayHistogram intervalDelayHistogramLowLatency;
+
+	// Queues of the traffic classes (null unless enabled, then the normal and
+	// priority lists are not used)
+	private ClassScheduler scheduler;
+
+	/**
+	 * @param portBandwidth
+	 *            In bytes per second.
+	 */
+	public Queue(String subFolder, String portName, long queueSize, double portBandwidth) {
+		this.transmissionTimeTable = TransmissionTimeTable.getTable(portBandwidth);
+		this.list = new PacketQueue();
+		this.priorityList = new PacketQueue();
 		this.lastTransmittedTimestamp = 0;
 		this.numExceeded = 0;
 		this.bytesExceeded = 0;
@@ -78,39 +93,39 @@ public class Queue {
 		this.totalDelayPriority = 0;
 		this.setIdleTime(0);
 		this.setPortName(portName);
-
-		if (PRINT_PACKETS) {
-			// Ensure the folder exists and it is empty
-			File directory = new File(FileNameUtils.PACKETS_PATH + subFolder);
-			fileName = FileNameUtils.PACKETS_PATH + subFolder + FileNameUtils.FOLDER_SEPARATOR + portName;
-			lowLatencyIndexFileName = FileNameUtils.PACKETS_PATH + subFolder + FileNameUtils.FOLDER_SEPARATOR + portName
-					+ FileNameUtils.LOW_LATENCY_INDEX_FILE_SUFIX;
-			if (!directory.exists()) {
-				directory.mkdirs();
-			} else {
-				removeQueueFile();
-				removeLowLatencyIndexFile();
-			}
-			initWriters();
+		this.subFolder = subFolder;
+	}
+
+	/**
+	 * Writes the packets that arrive to this queue to a binary file in the
+	 * "packets" folder (see PacketExportWriter), to be later processed by the
+	 * HystEEE simulator (https://github.com/migrax/HystEEE).
+	 */
+	public void enablePacketExport() {
+		// Ensure the folder exists and it is empty
+		File directory = new File(FileNameUtils.PACKETS_PATH + subFolder);
+		fileName = FileNameUtils.PACKETS_PATH + subFolder + FileNameUtils.FOLDER_SEPARATOR + portName
+				+ PacketExportWriter.FILE_SUFIX;
+		if (!directory.exists()) {
+			directory.mkdirs();
+		} else {
+			removeQueueFile();
 		}
+		initWriters();
 	}
 
 	private void initWriters() {
 		try {
-			writer = new BufferedWriter(new FileWriter(fileName));
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			lowLatencyIndexWriter = new BufferedWriter(new FileWriter(lowLatencyIndexFileName));
+			writer = new PacketExportWriter(fileName);
 		} catch (IOException e) {
 			e.printStackTrace();
+			writer = null;
 		}
 	}
 
 	public void finishQueue(long currentTime) {
 		// Updated final idle time
-		if (isEmpty() && isEmptyPriority()) {
+		if (isEmpty() && isEmptyPriority() && (scheduler == null || scheduler.isEmpty())) {
 			long currentIdleTime;
 			if (lastTransmittedTimestamp > 0) {
 				currentIdleTime = Math
@@ -120,7 +135,7 @@ public class Queue {
 			}
 			setIdleTime(getIdleTime() + currentIdleTime);
 		}
-		if (PRINT_PACKETS) {
+		if (writer != null) {
 			closeWriters();
 		}
 	}
@@ -131,11 +146,6 @@ public class Queue {
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		try {
-			lowLatencyIndexWriter.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
 	}
 
 	private void removeQueueFile() {
@@ -145,18 +155,10 @@ public class Queue {
 		}
 	}
 
-	private void removeLowLatencyIndexFile() {
-		File file = new File(lowLatencyIndexFileName);
-		if (file.exists()) {
-			file.delete();
-		}
-	}
-
 	public void queueDiscardPrevious(long referenceTimestamp) {
-		if (PRINT_PACKETS) {
+		if (writer != null) {
 			closeWriters();
 			removeQueueFile();
-			removeLowLatencyIndexFile();
 			initWriters();
 		}
 		cleanIdleTime();
@@ -177,6 +179,9 @@ public class Queue {
 		totalDelayPriority = 0;
 		list.clear();
 		priorityList.clear();
+		if (scheduler != null) {
+			scheduler.clear();
+		}
 	}
 
 	public void cleanIdleTime() {
@@ -190,6 +195,9 @@ public class Queue {
 	public void cleanExceeded() {
 		numExceeded = 0;
 		bytesExceeded = 0;
+		if (scheduler != null) {
+			scheduler.cleanExceeded();
+		}
 	}
 
 	public void cleanDelay() {
@@ -197,6 +205,48 @@ public class Queue {
 		numPackets = 0;
 		setAccumulatedDelayLowLatency(0);
 		setNumPacketsLowLatency(0);
+		if (scheduler != null) {
+			scheduler.cleanDelay();
+		}
+		if (delayHistogram != null) {
+			delayHistogram.clear();
+			delayHistogramLowLatency.clear();
+			cleanIntervalDelay();
+		}
+	}
+
+	public void cleanIntervalDelay() {
+		if (intervalDelayHistogram != null) {
+			intervalDelayHistogram.clear();
+			intervalDelayHistogramLowLatency.clear();
+			if (scheduler != null) {
+				scheduler.cleanIntervalDelay();
+			}
+		}
+	}
+
+	/**
+	 * Records the delay of every transmitted packet in histograms, so that the
+	 * percentiles of the delay can be computed.
+	 */
+	public void enableDelayHistograms() {
+		delayHistogram = new DelayHistogram();
+		delayHistogramLowLatency = new DelayHistogram();
+		intervalDelayHistogram = new DelayHistogram();
+		intervalDelayHistogramLowLatency = new DelayHistogram();
+		if (scheduler != null) {
+			scheduler.enableDelayHistograms();
+		}
+	}
+
+	private void recordDelay(long packetDelay, boolean lowLatency) {
+		if (lowLatency) {
+			delayHistogramLowLatency.record(packetDelay);
+			intervalDelayHistogramLowLatency.record(packetDelay);
+		} else {
+			delayHistogram.record(packetDelay);
+			intervalDelayHistogram.record(packetDelay);
+		}
 	}
 
 	public int getMaxPackets() {
@@ -235,107 +285,293 @@ public class Queue {
 		return numPackets;
 	}
 
-	public void addPacket(Packet packet, boolean lowLatency, QueueType queueType) {
+	/**
+	 * Splits the queue into several traffic classes, which share the port
+	 * according to the given policy (see ClassScheduler). The buffer of each
+	 * class has the size of the queue.
+	 */
+	public void enableClasses(int numClasses, ClassScheduler.Policy policy, double[] weights) {
+		scheduler = new ClassScheduler(numClasses, policy, weights);
+		if (delayHistogram != null) {
+			scheduler.enableDelayHistograms();
+		}
+	}
+
+	public ClassScheduler getScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * Adds a packet of the given traffic class to the queue. If the traffic
+	 * classes are not enabled, the class is ignored.
+	 */
+	public void addPacket(long queueArrivalTimestamp, long bytes, boolean lowLatency, int trafficClass,
+			QueueType queueType) {
+		if (scheduler == null) {
+			addPacket(queueArrivalTimestamp, bytes, lowLatency, queueType);
+			return;
+		}
+		long transmissionTime = transmissionTimeTable.getTransmissionTime(bytes);
+		if (scheduler.add(scheduler.getClassIndex(trafficClass), queueArrivalTimestamp, transmissionTime, bytes,
+				lowLatency, queueSize)) {
+			if (writer != null) {
+				exportPacket(queueArrivalTimestamp, bytes, lowLatency);
+			}
+		} else {
+			numExceeded += 1;
+			bytesExceeded += bytes;
+		}
+		maxPackets = Math.max(maxPackets, scheduler.size());
+	}
+
+	/**
+	 * Adds a packet to the queue. The transmission time of the packet is taken
+	 * from the table of the bandwidth of the port.
+	 * 
+	 * @param queueArrivalTimestamp
+	 *            In nanoseconds.
+	 * @param bytes
+	 * @param lowLatency
+	 * @param queueType
+	 */
+	public void addPacket(long queueArrivalTimestamp, long bytes, boolean lowLatency, QueueType queueType) {
 		if (DEBUG) {
-			System.out.println(
-					"addPacket(" + packet.getQueueArrivalTimestamp() + ", " + lowLatency + ", " + queueType + ")");
+			System.out.println("addPacket(" + queueArrivalTimestamp + ", " + lowLatency + ", " + queueType + ")");
 		}
+		long transmissionTime = transmissionTimeTable.getTransmissionTime(bytes);
 		if (lowLatency && queueType.equals(QueueType.HIGHPRIORITY)) {
-			addPriorityPacket(packet);
+			addPriorityPacket(queueArrivalTimestamp, transmissionTime, bytes, lowLatency);
 		} else {
-			addNonPriorityPacket(packet);
+			addNonPriorityPacket(queueArrivalTimestamp, transmissionTime, bytes, lowLatency);
 		}
 	}
 
-	public void addNonPriorityPacket(Packet packet) {
+	public void addNonPriorityPacket(long queueArrivalTimestamp, long transmissionTime, long bytes, boolean lowLatency) {
 		if (DEBUG) {
-			System.out.println("[DEBUG] Added packet to queue: currentTimestamp=" + packet.getQueueArrivalTimestamp()
-					+ ", transmissionTime=" + packet.getTransmissionTime());
+			System.out.println("[DEBUG] Added packet to queue: currentTimestamp=" + queueArrivalTimestamp
+					+ ", transmissionTime=" + transmissionTime);
 		}
 
 		if (exceedThreshold()) {
 			numExceeded += 1;
-			bytesExceeded += packet.getBytes();
+			bytesExceeded += bytes;
 		} else {
-			list.add(packet);
-			totalDelay += packet.getTransmissionTime();
-			if (PRINT_PACKETS) {
-				// Print to file of this port! (to be later processed by HystEEE simulator
-				// (https://github.com/migrax/HystEEE))
-				if (packet.getQueueArrivalTimestamp() - referenceTimestamp >= 0) {
-					String toPrint = DecimalFormatUtils.getDecimalFormat9()
-							.format((packet.getQueueArrivalTimestamp() - referenceTimestamp) / 1e9) + " "
-							+ packet.getBytes() + "\n";
-					try {
-						writer.write(toPrint);
-						if (packet.isLowLatency()) {
-							lowLatencyIndexWriter.write(packetCount + "\n");
-						}
-						packetCount += 1;
-					} catch (IOException e) {
-						e.printStackTrace();
-						System.out.println(writer);
-						System.exit(1);
-					}
-				}
+			list.add(queueArrivalTimestamp, transmissionTime, bytes, lowLatency);
+			totalDelay += transmissionTime;
+			if (writer != null) {
+				exportPacket(queueArrivalTimestamp, bytes, lowLatency);
 			}
 		}
 		maxPackets = Math.max(maxPackets, list.size());
 	}
 
-	public void addPriorityPacket(Packet packet) {
+	public void addPriorityPacket(long queueArrivalTimestamp, long transmissionTime, long bytes, boolean lowLatency) {
 		if (DEBUG) {
 			System.out.println("[DEBUG] Added priority packet to queue of port " + portName + ": currentTimestamp="
-					+ packet.getQueueArrivalTimestamp() + ", transmissionTime=" + packet.getTransmissionTime());
+					+ queueArrivalTimestamp + ", transmissionTime=" + transmissionTime);
 		}
 
 		if (exceedThresholdPriority()) {
 			numExceeded += 1;
-			bytesExceeded += packet.getBytes();
+			bytesExceeded += bytes;
 		} else {
-			priorityList.add(packet);
-			totalDelayPriority += packet.getTransmissionTime();
-			if (PRINT_PACKETS) {
-				// Print to file of this port! (to be later processed by Miguel's HystEEE
-				// simulator (https://github.com/migrax/HystEEE))
-				if (packet.getQueueArrivalTimestamp() - referenceTimestamp >= 0) {
-					String toPrint = DecimalFormatUtils.getDecimalFormat9()
-							.format((packet.getQueueArrivalTimestamp() - referenceTimestamp) / 1e9) + " "
-							+ packet.getBytes() + "\n";
-					try {
-						writer.write(toPrint);
-						if (packet.isLowLatency()) {
-							lowLatencyIndexWriter.write(packetCount + "\n");
-						}
-						packetCount += 1;
-					} catch (IOException e) {
-						e.printStackTrace();
-						System.out.println(writer);
-						System.exit(1);
-					}
-				}
+			priorityList.add(queueArrivalTimestamp, transmissionTime, bytes, lowLatency);
+			totalDelayPriority += transmissionTime;
+			if (writer != null) {
+				exportPacket(queueArrivalTimestamp, bytes, lowLatency);
 			}
 		}
 		maxPackets = Math.max(maxPackets, priorityList.size());
 	}
 
+	private void exportPacket(long queueArrivalTimestamp, long bytes, boolean lowLatency) {
+		if (queueArrivalTimestamp - referenceTimestamp >= 0) {
+			try {
+				writer.write(queueArrivalTimestamp - referenceTimestamp, bytes,
+						lowLatency ? PacketExportWriter.CLASS_LOW_LATENCY : PacketExportWriter.CLASS_NORMAL);
+				packetCount += 1;
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.out.println(fileName);
+				System.exit(1);
+			}
+		}
+	}
+
 	public void update(long currentTimestamp) {
+		if (scheduler != null) {
+			updateClasses(currentTimestamp);
+			return;
+		}
+		// Fast paths: when one of the queues is empty, the other one is transmitted
+		// on its own (packets do not arrive during the update, so it stays empty)
+		if (isEmptyPriority()) {
+			transmitAlone(list, currentTimestamp);
+			return;
+		}
+		if (isEmpty()) {
+			transmitAlone(priorityList, currentTimestamp);
+			return;
+		}
 		long transmittedPackets = -1;
 		while (transmittedPackets != 0) {
 			transmittedPackets = 0;
 			transmittedPackets += updatePriority(currentTimestamp);
 			transmittedPackets += updateNonPriority(currentTimestamp);
+			if (isEmptyPriority() || isEmpty()) {
+				transmitAlone(isEmptyPriority() ? list : priorityList, currentTimestamp);
+				return;
+			}
 		}
 	}
 
+	/**
+	 * Transmits the packets of the traffic classes that leave the port before
+	 * currentTimestamp. The port sleeps and wakes up as with a single queue: it
+	 * wakes up when the first packet arrives, and the scheduler chooses among the
+	 * packets that have arrived when the port is ready to transmit.
+	 */
+	private void updateClasses(long currentTimestamp) {
+		final long sleepTime = (long) (1e9 * EnergyConsumptionUtils.T_S);
+		final long wakeUpTime = (long) (1e9 * EnergyConsumptionUtils.T_W);
+		while (!scheduler.isEmpty()) {
+			long arrival = scheduler.getFirstArrivalTimestamp();
+			long start = lastTransmittedTimestamp;
+			long currentIdleTime = 0;
+			if (arrival > lastTransmittedTimestamp || lastTransmittedTimestamp == 0) {
+				long sleepTimeCompensation = 0;
+				if (lastTransmittedTimestamp > 0) {
+					currentIdleTime = arrival - lastTransmittedTimestamp - sleepTime;
+					if (currentIdleTime <= 0) {
+						sleepTimeCompensation = -currentIdleTime;
+					}
+				} else {
+					currentIdleTime = arrival - referenceTimestamp;
+				}
+				start = sleepTimeCompensation + arrival + wakeUpTime;
+			}
+			if (currentTimestamp - start <= 0) {
+				// Packets arriving until then may still be chosen
+				break;
+			}
+			int c = scheduler.select(start);
+			PacketQueue queue = scheduler.getQueue(c);
+			long transmissionTime = queue.getFirstTransmissionTime();
+			boolean isLowLatency = queue.isFirstLowLatency();
+			long packetDelay = transmissionTime + start - queue.getFirstArrivalTimestamp();
+			scheduler.remove(c, packetDelay);
+
+			if (currentIdleTime > 0) {
+				setIdleTime(getIdleTime() + currentIdleTime);
+			}
+			if (delayHistogram != null) {
+				recordDelay(packetDelay, isLowLatency);
+			}
+			if (isLowLatency) {
+				setAccumulatedDelayLowLatency(getAccumulatedDelayLowLatency() + packetDelay);
+				setNumPacketsLowLatency(getNumPacketsLowLatency() + 1);
+			} else {
+				accumulatedDelay += packetDelay;
+				numPackets += 1;
+			}
+			lastTransmittedTimestamp = start + transmissionTime;
+		}
+	}
+
+	/**
+	 * Transmits the packets of the given queue that leave the port before
+	 * currentTimestamp, when the other queue is empty. This is equivalent to
+	 * updatePriority() and updateNonPriority() in that case, but the departures
+	 * are computed in a single pass: within a busy period (packets that arrive
+	 * before the previous one has been transmitted) each packet starts when the
+	 * previous one ends, so only the first packet of each busy period pays the
+	 * sleep and wake up times. The idle time, delays and counters are updated
+	 * once at the end.
+	 */
+	private void transmitAlone(PacketQueue queue, long currentTimestamp) {
+		final long sleepTime = (long) (1e9 * EnergyConsumptionUtils.T_S);
+		final long wakeUpTime = (long) (1e9 * EnergyConsumptionUtils.T_W);
+		final int size = queue.size();
+		long last = lastTransmittedTimestamp;
+		long accIdleTime = 0;
+		long accTransmissionTime = 0;
+		long accDelay = 0;
+		long accDelayLowLatency = 0;
+		int transmitted = 0;
+		int transmittedLowLatency = 0;
+		int i = 0;
+		while (i < size) {
+			// First packet of a busy period: the port has to wake up
+			long arrival = queue.getArrivalTimestamp(i);
+			long start = last;
+			if (arrival > last || last == 0) {
+				long sleepTimeCompensation = 0;
+				long currentIdleTime;
+				if (last > 0) {
+					currentIdleTime = arrival - last - sleepTime;
+					if (currentIdleTime <= 0) {
+						sleepTimeCompensation = -currentIdleTime;
+					}
+				} else {
+					currentIdleTime = arrival - referenceTimestamp;
+				}
+				start = sleepTimeCompensation + arrival + wakeUpTime;
+				if (currentTimestamp - start <= 0) {
+					break;
+				}
+				if (currentIdleTime > 0) {
+					accIdleTime += currentIdleTime;
+				}
+			} else if (currentTimestamp - start <= 0) {
+				break;
+			}
+			// Rest of the busy period: each packet ends at the start of the period plus
+			// the cumulative transmission time
+			long end = start;
+			do {
+				long transmissionTime = queue.getTransmissionTime(i);
+				end += transmissionTime;
+				accTransmissionTime += transmissionTime;
+				long packetDelay = end - queue.getArrivalTimestamp(i);
+				if (queue.isLowLatency(i)) {
+					accDelayLowLatency += packetDelay;
+					transmittedLowLatency++;
+				} else {
+					accDelay += packetDelay;
+				}
+				if (delayHistogram != null) {
+					recordDelay(packetDelay, queue.isLowLatency(i));
+				}
+				transmitted++;
+				i++;
+			} while (i < size && currentTimestamp - end > 0 && queue.getArrivalTimestamp(i) <= end && end != 0);
+			last = end;
+		}
+		if (transmitted == 0) {
+			return;
+		}
+		queue.removeFirst(transmitted);
+		if (queue == priorityList) {
+			totalDelayPriority -= accTransmissionTime;
+		} else {
+			totalDelay -= accTransmissionTime;
+		}
+		setIdleTime(getIdleTime() + accIdleTime);
+		accumulatedDelay += accDelay;
+		numPackets += transmitted - transmittedLowLatency;
+		setAccumulatedDelayLowLatency(getAccumulatedDelayLowLatency() + accDelayLowLatency);
+		setNumPacketsLowLatency(getNumPacketsLowLatency() + transmittedLowLatency);
+		lastTransmittedTimestamp = last;
+	}
+
 	public long updatePriority(long currentTimestamp) {
 		long transmittedPackets = 0;
 		while (!isEmptyPriority()) {
 			long lastTransmittedTimestampTmp = lastTransmittedTimestamp;
 			long currentIdleTime = 0;
-			long portWakeUpTimestamp = priorityList.get(0).getQueueArrivalTimestamp();
+			long portWakeUpTimestamp = priorityList.getFirstArrivalTimestamp();
 
-			if (priorityList.get(0).getQueueArrivalTimestamp() > lastTransmittedTimestamp
+			if (priorityList.getFirstArrivalTimestamp() > lastTransmittedTimestamp
 					|| lastTransmittedTimestamp == 0) {
 				long sleep_time_compensation = 0;
 				if (lastTransmittedTimestamp > 0) {
@@ -354,14 +590,12 @@ public class Queue {
 
 				// Testing
 				if (currentIdleTime > 0) {
-					if (!isEmpty() && list.get(0).getQueueArrivalTimestamp() < priorityList.get(0)
-							.getQueueArrivalTimestamp()) {
-						portWakeUpTimestamp = list.get(0).getQueueArrivalTimestamp();
+					if (!isEmpty() && list.getFirstArrivalTimestamp() < priorityList.getFirstArrivalTimestamp()) {
+						portWakeUpTimestamp = list.getFirstArrivalTimestamp();
 						// Evaluate if when the port is awake, the high priority packet is already in
 						// the queue
-						if (list.get(0).getQueueArrivalTimestamp()
-								+ ((long) (1e9 * EnergyConsumptionUtils.T_W)) < priorityList.get(0)
-										.getQueueArrivalTimestamp()) {
+						if (list.getFirstArrivalTimestamp()
+								+ ((long) (1e9 * EnergyConsumptionUtils.T_W)) < priorityList.getFirstArrivalTimestamp()) {
 							// Then the low-priority packet will be transmitted before this high-priority
 							// packet
 							break;
@@ -387,8 +621,11 @@ public class Queue {
 			// the first packet in the queue will be transmitted
 			if (currentTimestamp - lastTransmittedTimestampTmp > 0) { // TODO: Decide if >= or >.
 				// The first packet in the queue can be transmitted
-				Packet currentPacket = priorityList.remove(0);
-				totalDelayPriority -= currentPacket.getTransmissionTime();
+				long arrivalTimestamp = priorityList.getFirstArrivalTimestamp();
+				long transmissionTime = priorityList.getFirstTransmissionTime();
+				boolean isLowLatency = priorityList.isFirstLowLatency();
+				priorityList.removeFirst();
+				totalDelayPriority -= transmissionTime;
 
 				// Update idleTime:
 				if (currentIdleTime > 0) {
@@ -403,15 +640,14 @@ public class Queue {
 					// currentPacket.getQueueArrivalTimestamp());
 					// System.out.println("txTime: " + currentPacket.getTransmissionTime());
 					// if (!isEmpty()) {
-					// System.out.println("listTs=" + list.get(0).getQueueArrivalTimestamp());
+					// System.out.println("listTs=" + list.getFirstArrivalTimestamp());
 					// }
 					// System.out.println("currentIdleTime= " + currentIdleTime);
 					// }
 					setIdleTime(getIdleTime() + currentIdleTime);
 				}
 
-				long packetDelay = currentPacket.getTransmissionTime() + lastTransmittedTimestampTmp
-						- currentPacket.getQueueArrivalTimestamp();
+				long packetDelay = transmissionTime + lastTransmittedTimestampTmp - arrivalTimestamp;
 
 				// System.out.println("***");
 				// System.out.println("currentTimestamp=" + currentTimestamp);
@@ -422,13 +658,17 @@ public class Queue {
 				// currentPacket.getQueueArrivalTimestamp());
 				// System.out.println("txTime: " + currentPacket.getTransmissionTime());
 				// if (!isEmpty()) {
-				// System.out.println("listTs=" + list.get(0).getQueueArrivalTimestamp());
+				// System.out.println("listTs=" + list.getFirstArrivalTimestamp());
 				// }
 
 				// System.out.println(currentPacket.getQueueArrivalTimestamp() + " " +
 				// packetDelay);
 
-				if (currentPacket.isLowLatency()) {
+				if (delayHistogram != null) {
+					recordDelay(packetDelay, isLowLatency);
+				}
+
+				if (isLowLatency) {
 					setAccumulatedDelayLowLatency(getAccumulatedDelayLowLatency() + packetDelay);
 					setNumPacketsLowLatency(getNumPacketsLowLatency() + 1);
 				} else {
@@ -437,7 +677,7 @@ public class Queue {
 					numPackets += 1;
 				}
 
-				lastTransmittedTimestamp = lastTransmittedTimestampTmp + currentPacket.getTransmissionTime();
+				lastTransmittedTimestamp = lastTransmittedTimestampTmp + transmissionTime;
 				transmittedPackets += 1;
 			} else {
 				break;
@@ -451,10 +691,10 @@ public class Queue {
 		while (!isEmpty()) {
 			long lastTransmittedTimestampTmp = lastTransmittedTimestamp;
 			long currentIdleTime = 0;
-			if (list.get(0).getQueueArrivalTimestamp() > lastTransmittedTimestamp || lastTransmittedTimestamp == 0) {
+			if (list.getFirstArrivalTimestamp() > lastTransmittedTimestamp || lastTransmittedTimestamp == 0) {
 				long sleep_time_compensation = 0;
 				if (lastTransmittedTimestamp > 0) {
-					long timeSinceLastTransmissionEnded = list.get(0).getQueueArrivalTimestamp()
+					long timeSinceLastTransmissionEnded = list.getFirstArrivalTimestamp()
 							- lastTransmittedTimestamp;
 					currentIdleTime = timeSinceLastTransmissionEnded - ((long) (1e9 * EnergyConsumptionUtils.T_S));
 					if (currentIdleTime > 0) {
@@ -464,36 +704,42 @@ public class Queue {
 					}
 
 				} else {
-					currentIdleTime = (list.get(0).getQueueArrivalTimestamp() - referenceTimestamp);
+					currentIdleTime = (list.getFirstArrivalTimestamp() - referenceTimestamp);
 					// setIdleTime(getIdleTime() + currentIdleTime);
 				}
-				lastTransmittedTimestampTmp = sleep_time_compensation + list.get(0).getQueueArrivalTimestamp()
+				lastTransmittedTimestampTmp = sleep_time_compensation + list.getFirstArrivalTimestamp()
 						+ ((long) (1e9 * EnergyConsumptionUtils.T_W));
 			}
 			// From this point on, lastTransmittedTimestampTmp contains the timestamp when
 			// the first packet in the queue will be transmitted
-			if (!isEmptyPriority() && priorityList.get(0).getQueueArrivalTimestamp() <= lastTransmittedTimestamp) {
+			if (!isEmptyPriority() && priorityList.getFirstArrivalTimestamp() <= lastTransmittedTimestamp) {
 				// Then a high-priority packet will be transmitted before this low-priority
 				// packet
 				break;
 			}
 			if (currentTimestamp - lastTransmittedTimestampTmp > 0) { // TODO: Decidir si >=  >
 				// The first packet in the queue can be transmitted
-				Packet currentPacket = list.remove(0);
-				totalDelay -= currentPacket.getTransmissionTime();
+				long arrivalTimestamp = list.getFirstArrivalTimestamp();
+				long transmissionTime = list.getFirstTransmissionTime();
+				boolean isLowLatency = list.isFirstLowLatency();
+				list.removeFirst();
+				totalDelay -= transmissionTime;
 
 				// Update idleTime:
 				if (currentIdleTime > 0) {
 					setIdleTime(getIdleTime() + currentIdleTime);
 				}
 
-				long packetDelay = currentPacket.getTransmissionTime() + lastTransmittedTimestampTmp
-						- currentPacket.getQueueArrivalTimestamp();
+				long packetDelay = transmissionTime + lastTransmittedTimestampTmp - arrivalTimestamp;
 
 				// System.out.println(currentPacket.getQueueArrivalTimestamp() + " " +
 				// packetDelay);
 
-				if (currentPacket.isLowLatency()) {
+				if (delayHistogram != null) {
+					recordDelay(packetDelay, isLowLatency);
+				}
+
+				if (isLowLatency) {
 					setAccumulatedDelayLowLatency(getAccumulatedDelayLowLatency() + packetDelay);
 					setNumPacketsLowLatency(getNumPacketsLowLatency() + 1);
 				} else {
@@ -501,7 +747,7 @@ public class Queue {
 					numPackets += 1;
 				}
 
-				lastTransmittedTimestamp = lastTransmittedTimestampTmp + currentPacket.getTransmissionTime();
+				lastTransmittedTimestamp = lastTransmittedTimestampTmp + transmissionTime;
 				transmittedPackets += 1;
 			} else {
 				break;
@@ -534,6 +780,26 @@ public class Queue {
 		this.idleTime = idleTime;
 	}
 
+	/**
+	 * Returns the histogram of the delays of the normal packets, or null if the
+	 * histograms are not enabled.
+	 */
+	public DelayHistogram getDelayHistogram() {
+		return delayHistogram;
+	}
+
+	public DelayHistogram getDelayHistogramLowLatency() {
+		return delayHistogramLowLatency;
+	}
+
+	public DelayHistogram getIntervalDelayHistogram() {
+		return intervalDelayHistogram;
+	}
+
+	public DelayHistogram getIntervalDelayHistogramLowLatency() {
+		return intervalDelayHistogramLowLatency;
+	}
+
 	public String getPortName() {
 		return portName;
 	}
@@ -0,0 +1,245 @@
+package auxiliar;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * SpaceSaving sketch (Metwally et al.) that finds the heaviest flows (in bytes)
+ * with a fixed number of counters. Each monitored flow has a counter with an
+ * upper bound of its bytes and the maximum overestimation of that bound. When
+ * all the counters are in use, an unmonitored flow replaces the one with the
+ * lowest counter, inheriting its value as overestimation. Any flow with more
+ * bytes than the lowest counter is monitored.
+ *
+ * The counters are kept in an indexed binary heap (lowest counter first) and
+ * the keys of the flows are mapped to their counters with an open-addressing
+ * hash table (linear probing), so each update takes O(log n).
+ *
+ * The counters can decay (see decay()), so that the heavy hitters are those of
+ * the recent bytes instead of those of the whole trace, and a flow that becomes
+ * heavy late is found as soon as one that was heavy from the beginning.
+ *
+ * @author pfondo
+ *
+ */
+public class SpaceSaving implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int capacity;
+	private int size = 0;
+
+	// Per counter
+	private final long[] counterKeys;
+	private final long[] counts;
+	private final long[] errors;
+	// Position of each counter in the heap
+	private final int[] positions;
+	private final int[] heap;
+
+	// Hash table from keys to counters (-1 if the slot is empty)
+	private final long[] tableKeys;
+	private final int[] tableCounters;
+	private final int mask;
+
+	private long totalBytes = 0;
+
+	/**
+	 * @param capacity
+	 *            Number of counters.
+	 */
+	public SpaceSaving(int capacity) {
+		this.capacity = capacity;
+		counterKeys = new long[capacity];
+		counts = new long[capacity];
+		errors = new long[capacity];
+		positions = new int[capacity];
+		heap = new int[capacity];
+		int tableCapacity = 2;
+		while (tableCapacity < 2 * capacity) {
+			tableCapacity <<= 1;
+		}
+		tableKeys = new long[tableCapacity];
+		tableCounters = new int[tableCapacity];
+		Arrays.fill(tableCounters, -1);
+		mask = tableCapacity - 1;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the bytes of all the flows.
+	 */
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * Adds the bytes of a packet of the flow.
+	 */
+	public void offer(long key, long bytes) {
+		totalBytes += bytes;
+		int counter = find(key);
+		if (counter == -1) {
+			if (size < capacity) {
+				counter = size++;
+				heap[counter] = counter;
+				positions[counter] = counter;
+				counts[counter] = 0;
+				errors[counter] = 0;
+				// The lowest counter until the bytes are added
+				siftUp(counter);
+			} else {
+				// Replace the flow with the lowest counter
+				counter = heap[0];
+				delete(counterKeys[counter]);
+				errors[counter] = counts[counter];
+			}
+			counterKeys[counter] = key;
+			insert(key, counter);
+		}
+		counts[counter] += bytes;
+		siftDown(positions[counter]);
+	}
+
+	/**
+	 * Returns the upper bound of the bytes of the flow, or the bound of the bytes
+	 * of any unmonitored flow if it is not monitored.
+	 */
+	public long getCount(long key) {
+		int counter = find(key);
+		return counter == -1 ? getMaxError() : counts[counter];
+	}
+
+	/**
+	 * Returns the bytes that the flow has sent for sure (its counter minus its
+	 * overestimation), or 0 if it is not monitored.
+	 */
+	public long getGuaranteedCount(long key) {
+		int counter = find(key);
+		return counter == -1 ? 0 : counts[counter] - errors[counter];
+	}
+
+	/**
+	 * Returns the maximum overestimation of the bytes of any flow: the lowest
+	 * counter if all of them are in use, 0 otherwise.
+	 */
+	public long getMaxError() {
+		return size < capacity ? 0 : counts[heap[0]];
+	}
+
+	/**
+	 * Whether the flow is a heavy hitter: it is monitored and it has sent for sure
+	 * at least as many bytes as the maximum overestimation. Until all the counters are
+	 * in use, every flow is a heavy hitter.
+	 */
+	public boolean isHeavyHitter(long key) {
+		int counter = find(key);
+		return counter != -1 && counts[counter] - errors[counter] >= getMaxError();
+	}
+
+	/**
+	 * Multiplies the counters and their overestimations by the given factor
+	 * (between 0 and 1). The order of the counters does not change, so the heap is
+	 * still valid.
+	 */
+	public void decay(double factor) {
+		for (int counter = 0; counter < size; counter++) {
+			counts[counter] = (long) (counts[counter] * factor);
+			errors[counter] = (long) (errors[counter] * factor);
+		}
+	}
+
+	private static int slot(long key, int mask) {
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+	private int find(long key) {
+		int slot = slot(key, mask);
+		int counter;
+		while ((counter = tableCounters[slot]) != -1) {
+			if (tableKeys[slot] == key) {
+				return counter;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private void insert(long key, int counter) {
+		int slot = slot(key, mask);
+		while (tableCounters[slot] != -1) {
+			slot = (slot + 1) & mask;
+		}
+		tableKeys[slot] = key;
+		tableCounters[slot] = counter;
+	}
+
+	/**
+	 * Backward shift deletion (see FlowTable).
+	 */
+	private void delete(long key) {
+		int slot = slot(key, mask);
+		while (tableKeys[slot] != key || tableCounters[slot] == -1) {
+			slot = (slot + 1) & mask;
+		}
+		int next = (slot + 1) & mask;
+		while (tableCounters[next] != -1) {
+			int ideal = slot(tableKeys[next], mask);
+			if (((next - ideal) & mask) >= ((next - slot) & mask)) {
+				tableKeys[slot] = tableKeys[next];
+				tableCounters[slot] = tableCounters[next];
+				slot = next;
+			}
+			next = (next + 1) & mask;
+		}
+		tableCounters[slot] = -1;
+	}
+
+	private void siftUp(int position) {
+		int counter = heap[position];
+		while (position > 0) {
+			int parent = (position - 1) >>> 1;
+			if (counts[heap[parent]] <= counts[counter]) {
+				break;
+			}
+			heap[position] = heap[parent];
+			positions[heap[position]] = position;
+			position = parent;
+		}
+		heap[position] = counter;
+		positions[counter] = position;
+	}
+
+	/**
+	 * Once in the heap, the counters only grow (they only decay all together), so
+	 * they only move down.
+	 */
+	private void siftDown(int position) {
+		int counter = heap[position];
+		while (true) {
+			int child = 2 * position + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+				child++;
+			}
+			if (counts[heap[child]] >= counts[counter]) {
+				break;
+			}
+			heap[position] = heap[child];
+			positions[heap[position]] = position;
+			position = child;
+		}
+		heap[position] = counter;
+		positions[counter] = position;
+	}
+}
@@ -0,0 +1,143 @@
+package auxiliar;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel. Each level has 64 slots, and each slot of a level
+ * spans all the slots of the level below, so advancing the wheel only touches
+ * the items whose deadline has been reached (plus the items cascaded from the
+ * upper levels).
+ *
+ * Deadlines are expressed in ticks and are evaluated lazily: when an item is
+ * popped, its deadline is computed again and, if it has been postponed (e.g.,
+ * because the flow has been used since it was scheduled), it is rescheduled
+ * instead of being returned. Thus, items do not need to be rescheduled every
+ * time their deadline changes, as long as it is only postponed.
+ *
+ * @author pfondo
+ *
+ */
+public class TimerWheel<T> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Computes the current deadline (in ticks) of an item. It is serializable, so
+	 * that the wheel can be saved with its items.
+	 */
+	public interface DeadlineFunction<T> extends Serializable {
+		long getDeadline(T item);
+	}
+
+	private static final int SLOT_BITS = 6;
+	private static final int SLOTS = 1 << SLOT_BITS;
+	private static final int SLOT_MASK = SLOTS - 1;
+	private static final int LEVELS = 4;
+
+	private final DeadlineFunction<T> deadlineFunction;
+	private final List<List<T>> slots;
+	// Items whose deadline is beyond the range of the wheel
+	private List<T> overflow = new ArrayList<T>();
+	private List<T> spare = new ArrayList<T>();
+	private long current; // Last tick processed
+	private int size = 0;
+
+	/**
+	 * @param deadlineFunction
+	 *            Computes the deadline of the items.
+	 * @param start
+	 *            Current tick.
+	 */
+	public TimerWheel(DeadlineFunction<T> deadlineFunction, long start) {
+		this.deadlineFunction = deadlineFunction;
+		this.current = start;
+		this.slots = new ArrayList<List<T>>(LEVELS * SLOTS);
+		for (int i = 0; i < LEVELS * SLOTS; i++) {
+			slots.add(new ArrayList<T>());
+		}
+	}
+
+	public void schedule(T item) {
+		place(item, deadlineFunction.getDeadline(item));
+		size++;
+	}
+
+	private void place(T item, long deadline) {
+		if (deadline <= current) {
+			// Already expired: it will be returned in the next tick
+			deadline = current + 1;
+		}
+		for (int level = 0; level < LEVELS; level++) {
+			int shift = SLOT_BITS * (level + 1);
+			if ((deadline >>> shift) == (current >>> shift)) {
+				int slot = (int) (deadline >>> (SLOT_BITS * level)) & SLOT_MASK;
+				slots.get(level * SLOTS + slot).add(item);
+				return;
+			}
+		}
+		overflow.add(item);
+	}
+
+	/**
+	 * Advances the wheel up to the given tick (included), adding to expired the
+	 * items whose deadline has been reached.
+	 */
+	public void advance(long now, Collection<T> expired) {
+		while (current < now) {
+			current++;
+			// Cascade the upper levels whose slot starts at this tick (from the top)
+			if ((current & ((1L << (SLOT_BITS * LEVELS)) - 1)) == 0) {
+				cascade(overflow);
+			}
+			for (int level = LEVELS - 1; level > 0; level--) {
+				if ((current & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+					int slot = (int) (current >>> (SLOT_BITS * level)) & SLOT_MASK;
+					cascade(slots.get(level * SLOTS + slot));
+				}
+			}
+			List<T> slot = slots.get((int) current & SLOT_MASK);
+			if (slot.isEmpty()) {
+				continue;
+			}
+			// Swap the slot with the auxiliary list, since items may be placed again in
+			// it
+			slots.set((int) current & SLOT_MASK, spare);
+			spare = slot;
+			for (T item : slot) {
+				long deadline = deadlineFunction.getDeadline(item);
+				if (deadline <= current) {
+					expired.add(item);
+					size--;
+				} else {
+					place(item, deadline);
+				}
+			}
+			slot.clear();
+		}
+	}
+
+	private void cascade(List<T> items) {
+		if (items.isEmpty()) {
+			return;
+		}
+		List<T> pending = new ArrayList<T>(items);
+		items.clear();
+		for (T item : pending) {
+			place(item, deadlineFunction.getDeadline(item));
+		}
+	}
+
+	/**
+	 * Returns the number of items scheduled.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public long getCurrent() {
+		return current;
+	}
+}
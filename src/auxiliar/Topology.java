@@ -0,0 +1,114 @@
+package auxiliar;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Bundles of links of a fabric, read from a file with one bundle per line: the
+ * source device, the destination device and the number of ports of the bundle,
+ * separated by spaces or tabs (e.g., "1 2 4"). Empty lines and lines starting
+ * with '#' are ignored.
+ *
+ * @author pfondo
+ *
+ */
+public class Topology {
+
+	private final List<Bundle> bundles;
+
+	/**
+	 * Bundle of ports from a device to one of its neighbors.
+	 */
+	public static class Bundle {
+		private final DeviceId srcDevice;
+		private final DeviceId dstDevice;
+		private final int numPorts;
+
+		public Bundle(DeviceId srcDevice, DeviceId dstDevice, int numPorts) {
+			this.srcDevice = srcDevice;
+			this.dstDevice = dstDevice;
+			this.numPorts = numPorts;
+		}
+
+		public DeviceId getSrcDevice() {
+			return srcDevice;
+		}
+
+		public DeviceId getDstDevice() {
+			return dstDevice;
+		}
+
+		public int getNumPorts() {
+			return numPorts;
+		}
+
+		@Override
+		public String toString() {
+			return srcDevice + "-" + dstDevice;
+		}
+	}
+
+	public Topology(List<Bundle> bundles) {
+		this.bundles = Collections.unmodifiableList(new ArrayList<Bundle>(bundles));
+	}
+
+	public List<Bundle> getBundles() {
+		return bundles;
+	}
+
+	public int getNumBundles() {
+		return bundles.size();
+	}
+
+	/**
+	 * Returns the total number of ports of the bundles.
+	 */
+	public int getNumPorts() {
+		int numPorts = 0;
+		for (Bundle bundle : bundles) {
+			numPorts += bundle.getNumPorts();
+		}
+		return numPorts;
+	}
+
+	public static Topology load(String topologyFile) throws IOException {
+		List<Bundle> bundles = new ArrayList<Bundle>();
+		BufferedReader br = new BufferedReader(new FileReader(topologyFile));
+		try {
+			String line;
+			int lineNumber = 0;
+			while ((line = br.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split("\\s+");
+				try {
+					if (fields.length != 3) {
+						throw new NumberFormatException();
+					}
+					Bundle bundle = new Bundle(new DeviceId(Integer.parseInt(fields[0])),
+							new DeviceId(Integer.parseInt(fields[1])), Integer.parseInt(fields[2]));
+					if (bundle.getNumPorts() <= 0) {
+						throw new NumberFormatException();
+					}
+					bundles.add(bundle);
+				} catch (NumberFormatException e) {
+					throw new IOException("Invalid bundle at line " + lineNumber + " of " + topologyFile
+							+ " (expected: SRC_DEVICE DST_DEVICE PORTS): " + line);
+				}
+			}
+		} finally {
+			br.close();
+		}
+		if (bundles.isEmpty()) {
+			throw new IOException("No bundles in " + topologyFile);
+		}
+		return new Topology(bundles);
+	}
+}
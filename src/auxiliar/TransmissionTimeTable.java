@@ -0,0 +1,66 @@
+package auxiliar;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Transmission time (in nanoseconds) of each packet size for a given port
+ * bandwidth, precomputed so that it is not calculated again for every packet.
+ * The tables are shared among all the ports with the same bandwidth.
+ *
+ * @author pfondo
+ *
+ */
+public class TransmissionTimeTable implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	// Largest IP packet; bigger packets are computed on demand
+	private static final int MAX_TABULATED_BYTES = 65535;
+
+	private static final Map<Double, TransmissionTimeTable> tables = new HashMap<Double, TransmissionTimeTable>();
+
+	private final double bandwidth;
+	private final long[] transmissionTimes;
+
+	/**
+	 * @param bandwidth
+	 *            In bytes per second.
+	 */
+	private TransmissionTimeTable(double bandwidth) {
+		this.bandwidth = bandwidth;
+		this.transmissionTimes = new long[MAX_TABULATED_BYTES + 1];
+		for (int bytes = 0; bytes <= MAX_TABULATED_BYTES; bytes++) {
+			transmissionTimes[bytes] = compute(bytes);
+		}
+	}
+
+	/**
+	 * Returns the table of the given bandwidth (in bytes per second).
+	 */
+	public static synchronized TransmissionTimeTable getTable(double bandwidth) {
+		TransmissionTimeTable table = tables.get(bandwidth);
+		if (table == null) {
+			table = new TransmissionTimeTable(bandwidth);
+			tables.put(bandwidth, table);
+		}
+		return table;
+	}
+
+	private long compute(long bytes) {
+		// Experimental: Nanosecond precision
+		return Math.round((bytes / bandwidth) * 1e9);
+	}
+
+	public long getTransmissionTime(long bytes) {
+		if (bytes >= 0 && bytes <= MAX_TABULATED_BYTES) {
+			return transmissionTimes[(int) bytes];
+		}
+		return compute(bytes);
+	}
+
+	public double getBandwidth() {
+		return bandwidth;
+	}
+}
@@ -2,8 +2,12 @@ package conf;
 
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.cli.CommandLine;
@@ -15,6 +19,9 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
 import algorithm.*;
+import auxiliar.ClassScheduler;
+import auxiliar.Topology;
+import trace.BundleTraceReader;
 import utils.FileNameUtils;
 
 public class Configuration {
@@ -31,6 +38,15 @@ public class Configuration {
 	public final String DEFAULT_QUEUE_SIZE = "0.01";
 	public final String DEFAULT_SPEED = "1";
 	public final String DEFAULT_ALPHA_EWMA = "1.0";
+	public final String DEFAULT_LOW_LATENCY_DSCP = "46";
+	public final String DEFAULT_READ_BUFFER = "65536";
+	public final String DEFAULT_START_TIME = "0";
+	public final String DEFAULT_NUM_CLASSES = "0";
+	public final String DEFAULT_SCHEDULER = "SP";
+	public final String DEFAULT_HEAVY_HITTERS = "0";
+	public final String DEFAULT_BUNDLE_RULE = "HASH";
+	public final String DEFAULT_QUEUE_THREADS = "0";
+	public final String DEFAULT_CHECKPOINT_EVERY = "0";
 
 	private PrintStream printStream;
 	private int iterationsToDiscard = 1;
@@ -46,14 +62,51 @@ public class Configuration {
 	private long queueSize; // In nanoseconds, yet the argument is in seconds
 	private double speed;
 	private double alphaEwma;
+	private int[] lowLatencyDscp; // Only used with pcap/pcapng traces
+	private int readBuffer; // In packets
+	private long startTime; // In nanoseconds of the trace, yet the argument is in seconds
+	private long endTime = Long.MAX_VALUE; // In nanoseconds of the trace, yet the argument is in seconds
+	private boolean sourceTags; // Only used with several input traces
+	private boolean delayHistograms;
+	private boolean exportPackets;
+	private int queueThreads; // 0 if the queues are simulated in the simulation thread
+	private int numClasses; // 0 if the traffic classes are not used
+	private ClassScheduler.Policy scheduler;
+	private double[] classWeights;
+	private int heavyHitters; // Memory budget in flows (0 if the heavy-hitter mode is disabled)
+	private String topologyFile; // null if only one bundle is simulated
+	private Topology topology;
+	private BundleTraceReader.Rule bundleRule;
+	private int checkpointEvery; // In iterations (0 if no checkpoints are written)
+	private boolean resume;
 	// private boolean priorityQueues;
 	private Class<? extends LowLatencyBaseAlgorithm> lowLatencyAlgorithm;
 
 	private String outputFile;
 
+	// Sweep: the comma-separated values of each swept option, and the values of
+	// this simulation (null if this is the configuration of the whole sweep)
+	private boolean sweep;
+	private String[] args;
+	private Map<String, String[]> sweepValues = new LinkedHashMap<String, String[]>();
+	private Map<String, String> sweepPoint;
+
+	// Bundle of the topology simulated (null if this is the configuration of the
+	// whole fabric or there is no topology)
+	private Topology.Bundle bundle;
+
 	public Configuration(String args[]) {
+		this(args, null, null);
+	}
+
+	private Configuration(String args[], Map<String, String> sweepPoint, Topology.Bundle bundle) {
+		this.args = args;
+		this.sweepPoint = sweepPoint;
+		this.bundle = bundle;
 		parse(args);
-		init();
+		if (!isSweep()) {
+			init();
+		}
 	}
 
 	/**
@@ -130,7 +183,8 @@ public class Configuration {
 	public void parse(String args[]) {
 		Options options = new Options();
 
-		Option inputFileOption = new Option("i", "input", true, "Specifies the input file.");
+		Option inputFileOption = new Option("i", "input", true,
+				"Specifies the input file. Several traces can be specified as a comma-separated list or as a directory, and they are merged by timestamp.");
 		inputFileOption.setRequired(true);
 		inputFileOption.setArgName("INPUT");
 		options.addOption(inputFileOption);
@@ -195,6 +249,105 @@ public class Configuration {
 		alphaEwmaOption.setArgName("ALPHA");
 		options.addOption(alphaEwmaOption);
 
+		Option lowLatencyDscpOption = new Option("lld", "lowLatencyDscp", true,
+				"Specifies the comma-separated DSCP values that mark a packet as low-latency when the input is a pcap/pcapng capture [default: 46].");
+		lowLatencyDscpOption.setRequired(false);
+		lowLatencyDscpOption.setArgName("DSCP");
+		options.addOption(lowLatencyDscpOption);
+
+		Option readBufferOption = new Option("rb", "readBuffer", true,
+				"Specifies the number of packets buffered between the thread that reads the trace and the simulation. 0 reads the trace in the simulation thread [default: 65536].");
+		readBufferOption.setRequired(false);
+		readBufferOption.setArgName("PACKETS");
+		options.addOption(readBufferOption);
+
+		Option startTimeOption = new Option("st", "startTime", true,
+				"Specifies the time of the trace (seconds) at which the results start to be computed. The trace is read from the previous iterations to discard, which are used as warm-up [default: 0].");
+		startTimeOption.setRequired(false);
+		startTimeOption.setArgName("TIME");
+		options.addOption(startTimeOption);
+
+		Option endTimeOption = new Option("et", "endTime", true,
+				"Specifies the time of the trace (seconds) at which the simulation ends [default: end of the trace].");
+		endTimeOption.setRequired(false);
+		endTimeOption.setArgName("TIME");
+		options.addOption(endTimeOption);
+
+		Option sourceTagsOption = new Option("tag", "sourceTags", false,
+				"Distinguishes the flows of each input trace when several traces are merged.");
+		sourceTagsOption.setRequired(false);
+		options.addOption(sourceTagsOption);
+
+		Option delayHistogramsOption = new Option("dh", "delayHistograms", false,
+				"Reports the percentiles (50, 90, 99 and 99.9) and the maximum of the delay of the packets of each port (and of each traffic class, see the option classes).");
+		delayHistogramsOption.setRequired(false);
+		options.addOption(delayHistogramsOption);
+
+		Option exportPacketsOption = new Option("xp", "exportPackets", false,
+				"Writes the packets that arrive to each port to a binary file in the \"packets\" folder, which can be converted to the input format of HystEEE with tfm.PacketExportConverter.");
+		exportPacketsOption.setRequired(false);
+		options.addOption(exportPacketsOption);
+
+		Option queueThreadsOption = new Option("qt", "queueThreads", true,
+				"Simulates the queues of the ports in parallel with THREADS worker threads: the packets of each interval are buffered per port, and each port processes its packets at the end of the interval. 0 simulates the queues in the simulation thread as the packets arrive [default: 0].");
+		queueThreadsOption.setRequired(false);
+		queueThreadsOption.setArgName("THREADS");
+		options.addOption(queueThreadsOption);
+
+		Option numClassesOption = new Option("cl", "classes", true,
+				"Specifies the number of traffic classes of each port (up to " + ClassScheduler.MAX_CLASSES
+						+ "), which replace the normal and high-priority queues. The class of a packet is its DSCP class selector in pcap/pcapng captures or the value of the low-latency mark (0-7) in text traces, and classes above the last one share it. 0 disables the traffic classes [default: 0].");
+		numClassesOption.setRequired(false);
+		numClassesOption.setArgName("CLASSES");
+		options.addOption(numClassesOption);
+
+		Option schedulerOption = new Option("sch", "scheduler", true,
+				"Specifies how the traffic classes share each port: SP (strict priority, the higher the class the higher the priority), DRR (deficit round robin) or WFQ (weighted fair queuing) [default: SP].");
+		schedulerOption.setRequired(false);
+		schedulerOption.setArgName("POLICY");
+		options.addOption(schedulerOption);
+
+		Option classWeightsOption = new Option("cw", "classWeights", true,
+				"Specifies the comma-separated weights of the traffic classes for DRR and WFQ [default: 1 for every class].");
+		classWeightsOption.setRequired(false);
+		classWeightsOption.setArgName("WEIGHTS");
+		options.addOption(classWeightsOption);
+
+		Option heavyHittersOption = new Option("hh", "heavyHitters", true,
+				"Enables the heavy-hitter mode for large numbers of flows (e.g., with long masks of the destination IP address), which keeps at most FLOWS flows. The heaviest flows, found with a SpaceSaving sketch of FLOWS counters, are tracked exactly, and the packets of the other flows are aggregated into buckets (FLOWS/8 for normal and FLOWS/8 for low-latency packets, by hash of the flow) that the algorithms handle as flows. The counters of the sketch are halved every interval, so that the heaviest flows are the recent ones. The approximation error is reported at the end. 0 disables it [default: 0].");
+		heavyHittersOption.setRequired(false);
+		heavyHittersOption.setArgName("FLOWS");
+		options.addOption(heavyHittersOption);
+
+		Option sweepOption = new Option("sw", "sweep", false,
+				"Runs a simulation for each combination of the comma-separated values of the options algorithm, lowLatencyAlgorithm, numPorts, queueSize and alphaEWMA. The trace is read only once for all of them, and the simulations run in parallel, one thread each.");
+		sweepOption.setRequired(false);
+		options.addOption(sweepOption);
+
+		Option topologyOption = new Option("tp", "topology", true,
+				"Simulates the bundles of a fabric described in a file, with one bundle per line: the source device, the destination device and the number of ports (e.g., \"1 2 4\"), which replaces the \"numPorts\" option. The packets are mapped to the bundles with the bundle rule, and each bundle runs its own algorithm in its own thread. The results are reported per bundle and for the whole fabric.");
+		topologyOption.setRequired(false);
+		topologyOption.setArgName("FILE");
+		options.addOption(topologyOption);
+
+		Option bundleRuleOption = new Option("br", "bundleRule", true,
+				"Specifies how the packets are mapped to the bundles of the topology: HASH (by hash of the flow, as ECMP does) or SOURCE (by input trace, when several traces are merged) [default: HASH].");
+		bundleRuleOption.setRequired(false);
+		bundleRuleOption.setArgName("RULE");
+		options.addOption(bundleRuleOption);
+
+		Option checkpointEveryOption = new Option("ce", "checkpointEvery", true,
+				"Saves the whole state of the simulation every INTERVALS intervals to a checkpoint file (the output file with suffix \"" + FileNameUtils.CHECKPOINT_FILE_SUFIX
+						+ "\"), which replaces the previous one and is deleted when the simulation finishes. Not compatible with the options sweep, topology and exportPackets. 0 disables it [default: 0].");
+		checkpointEveryOption.setRequired(false);
+		checkpointEveryOption.setArgName("INTERVALS");
+		options.addOption(checkpointEveryOption);
+
+		Option resumeOption = new Option("r", "resume", false,
+				"Resumes the simulation from its last checkpoint (see the \"checkpointEvery\" option), with the same results as an uninterrupted simulation. The other options must be the same. If there is no checkpoint, the simulation starts from the beginning.");
+		resumeOption.setRequired(false);
+		options.addOption(resumeOption);
+
 		Option helpOption = new Option("h", "help", false, "Shows this help menu.");
 		helpOption.setRequired(false);
 		options.addOption(helpOption);
@@ -218,17 +371,19 @@ public class Configuration {
 
 		// this.priorityQueues = cmd.hasOption("pq");
 
+		this.sweep = cmd.hasOption("sweep");
+
 		this.inputFile = cmd.getOptionValue("input", DEFAULT_INPUT_FILE);
 
-		String algorithm = cmd.getOptionValue("algorithm", DEFAULT_ALGORITHM);
+		String algorithm = getSweptOptionValue(cmd, "algorithm", DEFAULT_ALGORITHM);
 
 		parseAlgorithmOption(algorithm);
 
-		String lowLatencyAlgorithm = cmd.getOptionValue("lowLatencyAlgorithm", DEFAULT_LOW_LATENCY_ALGORITHM);
+		String lowLatencyAlgorithm = getSweptOptionValue(cmd, "lowLatencyAlgorithm", DEFAULT_LOW_LATENCY_ALGORITHM);
 
 		parseLowLatencyAlgorithmOption(lowLatencyAlgorithm);
 
-		this.numPorts = Integer.parseInt(cmd.getOptionValue("numPorts", DEFAULT_NUM_PORTS));
+		this.numPorts = Integer.parseInt(getSweptOptionValue(cmd, "numPorts", DEFAULT_NUM_PORTS));
 
 		this.period = (long) (1e9 * Double.parseDouble(cmd.getOptionValue("period", DEFAULT_SAMPLING_PERIOD)));
 
@@ -239,13 +394,193 @@ public class Configuration {
 
 		this.endBitDstIp = Integer.parseInt(cmd.getOptionValue("endBitDstIp", DEFAULT_END_BIT_DST_IP));
 
-		this.queueSize = (long) (1e9 * Double.parseDouble(cmd.getOptionValue("queueSize", DEFAULT_QUEUE_SIZE))); // Converted
+		this.queueSize = (long) (1e9 * Double.parseDouble(getSweptOptionValue(cmd, "queueSize", DEFAULT_QUEUE_SIZE))); // Converted
 																													// to
 																													// nanoseconds
 
 		this.speed = Double.parseDouble(cmd.getOptionValue("speed", DEFAULT_SPEED));
 
-		this.setAlphaEwma(Double.parseDouble(cmd.getOptionValue("alphaEWMA", DEFAULT_ALPHA_EWMA)));
+		this.setAlphaEwma(Double.parseDouble(getSweptOptionValue(cmd, "alphaEWMA", DEFAULT_ALPHA_EWMA)));
+
+		String[] lowLatencyDscp = cmd.getOptionValue("lowLatencyDscp", DEFAULT_LOW_LATENCY_DSCP).split(",");
+		this.lowLatencyDscp = new int[lowLatencyDscp.length];
+		for (int i = 0; i < lowLatencyDscp.length; i++) {
+			this.lowLatencyDscp[i] = Integer.parseInt(lowLatencyDscp[i].trim());
+		}
+
+		this.readBuffer = Integer.parseInt(cmd.getOptionValue("readBuffer", DEFAULT_READ_BUFFER));
+
+		this.startTime = (long) (1e9 * Double.parseDouble(cmd.getOptionValue("startTime", DEFAULT_START_TIME)));
+
+		if (cmd.hasOption("endTime")) {
+			this.endTime = (long) (1e9 * Double.parseDouble(cmd.getOptionValue("endTime")));
+		}
+
+		this.sourceTags = cmd.hasOption("sourceTags");
+
+		this.delayHistograms = cmd.hasOption("delayHistograms");
+
+		this.exportPackets = cmd.hasOption("exportPackets");
+
+		this.queueThreads = Integer.parseInt(cmd.getOptionValue("queueThreads", DEFAULT_QUEUE_THREADS));
+		if (queueThreads < 0) {
+			System.err.println("The number of threads of the queues must not be negative");
+			formatter.printHelp("sdn-bundle-simulator", options, true);
+			System.exit(1);
+		}
+
+		this.numClasses = Integer.parseInt(cmd.getOptionValue("classes", DEFAULT_NUM_CLASSES));
+		if (numClasses < 0 || numClasses > ClassScheduler.MAX_CLASSES) {
+			System.err.println("The number of traffic classes must be between 0 and " + ClassScheduler.MAX_CLASSES);
+			formatter.printHelp("sdn-bundle-simulator", options, true);
+			System.exit(1);
+		}
+
+		try {
+			this.scheduler = ClassScheduler.Policy
+					.valueOf(cmd.getOptionValue("scheduler", DEFAULT_SCHEDULER).toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.err.println("Unknown scheduler: " + cmd.getOptionValue("scheduler"));
+			formatter.printHelp("sdn-bundle-simulator", options, true);
+			System.exit(1);
+		}
+
+		if (cmd.hasOption("classWeights")) {
+			String[] classWeights = cmd.getOptionValue("classWeights").split(",");
+			this.classWeights = new double[classWeights.length];
+			for (int i = 0; i < classWeights.length; i++) {
+				this.classWeights[i] = Double.parseDouble(classWeights[i].trim());
+			}
+		}
+
+		this.heavyHitters = Integer.parseInt(cmd.getOptionValue("heavyHitters", DEFAULT_HEAVY_HITTERS));
+		if (heavyHitters < 0) {
+			System.err.println("The memory budget of the heavy-hitter mode must not be negative");
+			formatter.printHelp("sdn-bundle-simulator", options, true);
+			System.exit(1);
+		}
+
+		if (cmd.hasOption("topology")) {
+			this.topologyFile = cmd.getOptionValue("topology");
+			try {
+				this.topology = Topology.load(topologyFile);
+			} catch (IOException e) {
+				System.err.println("Error with topology file: " + e.getMessage());
+				System.exit(1);
+			}
+			if (sweep) {
+				System.err.println("The sweep mode is not compatible with a topology");
+				formatter.printHelp("sdn-bundle-simulator", options, true);
+				System.exit(1);
+			}
+			if (bundle == null) {
+				// The results of the whole fabric are named after all its ports
+				this.numPorts = topology.getNumPorts();
+			}
+		}
+
+		this.checkpointEvery = Integer.parseInt(cmd.getOptionValue("checkpointEvery", DEFAULT_CHECKPOINT_EVERY));
+		if (checkpointEvery < 0) {
+			System.err.println("The number of intervals between checkpoints must not be negative");
+			formatter.printHelp("sdn-bundle-simulator", options, true);
+			System.exit(1);
+		}
+
+		this.resume = cmd.hasOption("resume");
+		if ((checkpointEvery > 0 || resume) && (sweep || topology != null || exportPackets)) {
+			System.err.println("The checkpoints are not compatible with the options sweep, topology and exportPackets");
+			formatter.printHelp("sdn-bundle-simulator", options, true);
+			System.exit(1);
+		}
+
+		try {
+			this.bundleRule = BundleTraceReader.Rule
+					.valueOf(cmd.getOptionValue("bundleRule", DEFAULT_BUNDLE_RULE).toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.err.println("Unknown bundle rule: " + cmd.getOptionValue("bundleRule"));
+			formatter.printHelp("sdn-bundle-simulator", options, true);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Returns the value of an option that can be swept: in a sweep, the value of
+	 * this simulation among the comma-separated values of the option (the first
+	 * one for the configuration of the whole sweep).
+	 */
+	private String getSweptOptionValue(CommandLine cmd, String option, String defaultValue) {
+		String value = cmd.getOptionValue(option, defaultValue);
+		if (sweep) {
+			String[] values = value.split(",");
+			for (int i = 0; i < values.length; i++) {
+				values[i] = values[i].trim();
+			}
+			sweepValues.put(option, values);
+			value = values[0];
+		}
+		if (sweepPoint != null && sweepPoint.containsKey(option)) {
+			value = sweepPoint.get(option);
+		}
+		return value;
+	}
+
+	/**
+	 * Whether this is the configuration of a whole sweep (see
+	 * getSweepConfigurations()), which has no output file.
+	 */
+	public boolean isSweep() {
+		return sweep && sweepPoint == null;
+	}
+
+	/**
+	 * Returns the configurations of the simulations of a sweep, one for each
+	 * combination of the values of the swept options.
+	 */
+	public List<Configuration> getSweepConfigurations() {
+		List<Map<String, String>> points = new ArrayList<Map<String, String>>();
+		points.add(new HashMap<String, String>());
+		for (Map.Entry<String, String[]> entry : sweepValues.entrySet()) {
+			List<Map<String, String>> newPoints = new ArrayList<Map<String, String>>();
+			for (Map<String, String> point : points) {
+				for (String value : entry.getValue()) {
+					Map<String, String> newPoint = new HashMap<String, String>(point);
+					newPoint.put(entry.getKey(), value);
+					newPoints.add(newPoint);
+				}
+			}
+			points = newPoints;
+		}
+		List<Configuration> configurations = new ArrayList<Configuration>();
+		for (Map<String, String> point : points) {
+			Configuration configuration = new Configuration(args, point, null);
+			configuration.setIterationsToDiscard(iterationsToDiscard);
+			configurations.add(configuration);
+		}
+		return configurations;
+	}
+
+	/**
+	 * Whether this is the configuration of a whole fabric (see
+	 * getBundleConfigurations()).
+	 */
+	public boolean isFabric() {
+		return topology != null && bundle == null;
+	}
+
+	/**
+	 * Returns the configurations of the simulations of the bundles of the
+	 * topology, in the same order.
+	 */
+	public List<Configuration> getBundleConfigurations() {
+		List<Configuration> configurations = new ArrayList<Configuration>();
+		for (Topology.Bundle bundle : topology.getBundles()) {
+			Map<String, String> point = new HashMap<String, String>();
+			point.put("numPorts", String.valueOf(bundle.getNumPorts()));
+			Configuration configuration = new Configuration(args, point, bundle);
+			configuration.setIterationsToDiscard(iterationsToDiscard);
+			configurations.add(configuration);
+		}
+		return configurations;
 	}
 
 	/**
@@ -254,9 +589,15 @@ public class Configuration {
 	public void init() {
 		outputFile = FileNameUtils.BASE_PATH
 				+ FileNameUtils.generateOutputFileName(algorithm, inputFile, period, flowRuleTimeout, startBitDstIp,
-						endBitDstIp, queueSize, speed, numPorts, lowLatencyAlgorithm, alphaEwma);
+						endBitDstIp, queueSize, speed, numPorts, lowLatencyAlgorithm, alphaEwma)
+				+ FileNameUtils.generateWindowSuffix(startTime, endTime)
+				+ FileNameUtils.generateClassesSuffix(numClasses, scheduler, classWeights)
+				+ FileNameUtils.generateHeavyHittersSuffix(heavyHitters)
+				+ FileNameUtils.generateTopologySuffix(topologyFile, bundle);
 		try {
-			printStream = new PrintStream(new FileOutputStream(outputFile));
+			// When resuming, the output is truncated to the last checkpoint instead (see
+			// NetworkSimulator.restore())
+			printStream = new PrintStream(new FileOutputStream(outputFile, resume));
 		} catch (FileNotFoundException e) {
 			System.err.println("Error with output file: " + outputFile + ". Using System.out.");
 			printStream = System.out;
@@ -384,4 +725,140 @@ public class Configuration {
 		this.alphaEwma = alphaEwma;
 	}
 
+	public int[] getLowLatencyDscp() {
+		return lowLatencyDscp;
+	}
+
+	public void setLowLatencyDscp(int[] lowLatencyDscp) {
+		this.lowLatencyDscp = lowLatencyDscp;
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	public void setStartTime(long startTime) {
+		this.startTime = startTime;
+	}
+
+	public long getEndTime() {
+		return endTime;
+	}
+
+	public void setEndTime(long endTime) {
+		this.endTime = endTime;
+	}
+
+	public boolean isSourceTags() {
+		return sourceTags;
+	}
+
+	public void setSourceTags(boolean sourceTags) {
+		this.sourceTags = sourceTags;
+	}
+
+	public boolean isDelayHistograms() {
+		return delayHistograms;
+	}
+
+	public void setDelayHistograms(boolean delayHistograms) {
+		this.delayHistograms = delayHistograms;
+	}
+
+	public int getNumClasses() {
+		return numClasses;
+	}
+
+	public void setNumClasses(int numClasses) {
+		this.numClasses = numClasses;
+	}
+
+	public ClassScheduler.Policy getScheduler() {
+		return scheduler;
+	}
+
+	public void setScheduler(ClassScheduler.Policy scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	public double[] getClassWeights() {
+		return classWeights;
+	}
+
+	public void setClassWeights(double[] classWeights) {
+		this.classWeights = classWeights;
+	}
+
+	public boolean isExportPackets() {
+		return exportPackets;
+	}
+
+	public void setExportPackets(boolean exportPackets) {
+		this.exportPackets = exportPackets;
+	}
+
+	public int getHeavyHitters() {
+		return heavyHitters;
+	}
+
+	public void setHeavyHitters(int heavyHitters) {
+		this.heavyHitters = heavyHitters;
+	}
+
+	public String getTopologyFile() {
+		return topologyFile;
+	}
+
+	public Topology getTopology() {
+		return topology;
+	}
+
+	public BundleTraceReader.Rule getBundleRule() {
+		return bundleRule;
+	}
+
+	public void setBundleRule(BundleTraceReader.Rule bundleRule) {
+		this.bundleRule = bundleRule;
+	}
+
+	/**
+	 * Returns the bundle of the topology simulated, or null if this is the
+	 * configuration of the whole fabric or there is no topology.
+	 */
+	public Topology.Bundle getBundle() {
+		return bundle;
+	}
+
+	public int getCheckpointEvery() {
+		return checkpointEvery;
+	}
+
+	public void setCheckpointEvery(int checkpointEvery) {
+		this.checkpointEvery = checkpointEvery;
+	}
+
+	public boolean isResume() {
+		return resume;
+	}
+
+	public void setResume(boolean resume) {
+		this.resume = resume;
+	}
+
+	public int getQueueThreads() {
+		return queueThreads;
+	}
+
+	public void setQueueThreads(int queueThreads) {
+		this.queueThreads = queueThreads;
+	}
+
+	public int getReadBuffer() {
+		return readBuffer;
+	}
+
+	public void setReadBuffer(int readBuffer) {
+		this.readBuffer = readBuffer;
+	}
+
 }
@@ -0,0 +1,147 @@
+package tfm;
+
+import java.text.DecimalFormat;
+
+/**
+ * Final results of the simulation of a bundle, which can be aggregated over the
+ * bundles of a fabric (see MainClass.fabricExecution()).
+ *
+ * @author pfondo
+ *
+ */
+public class FinalStatistics {
+
+	private final String name;
+	private int numPorts;
+	// Intervals whose results are not discarded
+	private long numIntervals;
+	// Sum of the average rates of the ports (Mbps)
+	private double rate = 0;
+	private long numFlowMods = 0;
+	private long accAlgorithmExecutionTime = 0;
+	private double numPackets = 0;
+	private double numLostPackets = 0;
+	// Sums of the average consumptions of the ports
+	private double accConsumptionModel = 0;
+	private double accConsumptionReal = 0;
+	private double accDelay = 0;
+	private long numPacketsDelay = 0;
+	private double accDelayLowLatency = 0;
+	private long numPacketsDelayLowLatency = 0;
+
+	public FinalStatistics(String name, int numPorts, long numIntervals) {
+		this.name = name;
+		this.numPorts = numPorts;
+		this.numIntervals = numIntervals;
+	}
+
+	public void setRate(double rate) {
+		this.rate = rate;
+	}
+
+	public void setFlowMods(long numFlowMods, long accAlgorithmExecutionTime) {
+		this.numFlowMods = numFlowMods;
+		this.accAlgorithmExecutionTime = accAlgorithmExecutionTime;
+	}
+
+	public void setPackets(double numPackets, double numLostPackets) {
+		this.numPackets = numPackets;
+		this.numLostPackets = numLostPackets;
+	}
+
+	public void setConsumption(double accConsumptionModel, double accConsumptionReal) {
+		this.accConsumptionModel = accConsumptionModel;
+		this.accConsumptionReal = accConsumptionReal;
+	}
+
+	public void setDelay(double accDelay, long numPacketsDelay, double accDelayLowLatency,
+			long numPacketsDelayLowLatency) {
+		this.accDelay = accDelay;
+		this.numPacketsDelay = numPacketsDelay;
+		this.accDelayLowLatency = accDelayLowLatency;
+		this.numPacketsDelayLowLatency = numPacketsDelayLowLatency;
+	}
+
+	/**
+	 * Adds the results of another bundle. The flow mods and the execution time of
+	 * the algorithm are added up, since each bundle runs its own algorithm.
+	 */
+	public void add(FinalStatistics other) {
+		numPorts += other.numPorts;
+		numIntervals = Math.max(numIntervals, other.numIntervals);
+		rate += other.rate;
+		numFlowMods += other.numFlowMods;
+		accAlgorithmExecutionTime += other.accAlgorithmExecutionTime;
+		numPackets += other.numPackets;
+		numLostPackets += other.numLostPackets;
+		accConsumptionModel += other.accConsumptionModel;
+		accConsumptionReal += other.accConsumptionReal;
+		accDelay += other.accDelay;
+		numPacketsDelay += other.numPacketsDelay;
+		accDelayLowLatency += other.accDelayLowLatency;
+		numPacketsDelayLowLatency += other.numPacketsDelayLowLatency;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getNumPorts() {
+		return numPorts;
+	}
+
+	public double getRate() {
+		return rate;
+	}
+
+	public double getFlowModsPerInterval() {
+		return numFlowMods / (double) numIntervals;
+	}
+
+	/**
+	 * @return Average execution time of the algorithm per interval (ms)
+	 */
+	public double getAlgorithmExecutionTime() {
+		return accAlgorithmExecutionTime / (1e6 * numIntervals);
+	}
+
+	public double getLossPercent() {
+		return numLostPackets * 100.0 / numPackets;
+	}
+
+	public double getConsumptionModelPercent() {
+		return accConsumptionModel * 100.0 / numPorts;
+	}
+
+	public double getConsumptionRealPercent() {
+		return accConsumptionReal * 100.0 / numPorts;
+	}
+
+	/**
+	 * @return Average delay of the packets (us)
+	 */
+	public double getAverageDelay() {
+		return accDelay / numPacketsDelay / 1e3;
+	}
+
+	/**
+	 * @return Average delay of the low-latency packets (us)
+	 */
+	public double getAverageDelayLowLatency() {
+		return accDelayLowLatency / numPacketsDelayLowLatency / 1e3;
+	}
+
+	public static String getHeader(String separator) {
+		return "# bundle" + separator + "ports" + separator + "rate(Mbps)" + separator + "flow_mods(int)" + separator
+				+ "avg_time_alg(ms)" + separator + "loss(%)" + separator + "model_energy(%)" + separator
+				+ "real_energy(%)" + separator + "avg_delay(us)" + separator + "avg_delay_low_latency(us)";
+	}
+
+	public String format(DecimalFormat df, String separator) {
+		return name + separator + numPorts + separator + df.format(getRate()) + separator
+				+ df.format(getFlowModsPerInterval()) + separator + df.format(getAlgorithmExecutionTime()) + separator
+				+ df.format(getLossPercent()) + separator + df.format(getConsumptionModelPercent()) + separator
+				+ df.format(getConsumptionRealPercent()) + separator + df.format(getAverageDelay()) + separator
+				+ (numPacketsDelayLowLatency > 0 ? df.format(getAverageDelayLowLatency()) : "-");
+	}
+}
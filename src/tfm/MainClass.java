@@ -1,8 +1,17 @@
 package tfm;
 
 import java.io.File;
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
 
 import conf.Configuration;
+import trace.BroadcastTraceReader;
+import trace.BundleTraceReader;
+import trace.PrefetchingTraceReader;
+import trace.TraceReader;
+import utils.DecimalFormatUtils;
 import utils.FileNameUtils;
 
 public class MainClass {
@@ -13,15 +22,160 @@ public class MainClass {
 		if (!directory.exists()) {
 			directory.mkdir();
 		}
-		singleExecution(args);
+		Configuration conf = new Configuration(args);
+		if (conf.isSweep()) {
+			sweepExecution(conf.getSweepConfigurations());
+		} else if (conf.isFabric()) {
+			fabricExecution(conf);
+		} else {
+			singleExecution(conf);
+		}
 	}
 
 	public static void singleExecution(String args[]) {
-		// Set seed to allow for reproducibility
-		Configuration conf = new Configuration(args);
+		singleExecution(new Configuration(args));
+	}
+
+	public static void singleExecution(Configuration conf) {
+		// Instantiate the simulator (or restore it from its last checkpoint) and start
+		// the simulation
+		NetworkSimulator ns = conf.isResume() ? NetworkSimulator.restore(conf) : new NetworkSimulator(conf);
+		if (ns != null) {
+			ns.schedule();
+		}
+	}
+
+	/**
+	 * Runs the simulations of a sweep in parallel, one thread each. The trace is
+	 * read only once, and each packet is delivered to all the simulations (see
+	 * BroadcastTraceReader). Each simulation has its own flow table, queues and
+	 * algorithm.
+	 */
+	public static void sweepExecution(List<Configuration> confs) {
+		// The swept options do not change how the trace is read
+		BroadcastTraceReader broadcastReader = openBroadcastTraceReader(confs.get(0), confs.size());
+		if (broadcastReader == null) {
+			return;
+		}
+		List<NetworkSimulator> simulators = new ArrayList<NetworkSimulator>();
+		List<TraceReader> readers = new ArrayList<TraceReader>();
+		for (int i = 0; i < confs.size(); i++) {
+			readers.add(broadcastReader.getReader(i));
+			simulators.add(new NetworkSimulator(confs.get(i), readers.get(i)));
+		}
+		runSimulations(simulators, readers);
+		System.err.println("Sweep of " + confs.size() + " simulations: trace waited for the slowest simulation "
+				+ broadcastReader.getProducerWaits() + " times");
+	}
+
+	/**
+	 * Runs the simulations of the bundles of a fabric in parallel, one thread
+	 * each. The trace is read only once, and each packet is only delivered to the
+	 * bundle to which it is mapped (see BundleTraceReader). The results of each
+	 * bundle are reported as those of a single simulation, and then aggregated for
+	 * the whole fabric.
+	 */
+	public static void fabricExecution(Configuration conf) {
+		List<Configuration> confs = conf.getBundleConfigurations();
+		TraceReader source;
+		try {
+			source = NetworkSimulator.openTraceReader(conf);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		BundleTraceReader bundleReader = new BundleTraceReader(source, getReadBufferCapacity(conf),
+				conf.getBundleRule(), confs.size(), conf.getStartBitDstIp(), conf.getEndBitDstIp());
+		List<NetworkSimulator> simulators = new ArrayList<NetworkSimulator>();
+		List<TraceReader> readers = new ArrayList<TraceReader>();
+		for (int i = 0; i < confs.size(); i++) {
+			readers.add(bundleReader.getReader(i));
+			simulators.add(new NetworkSimulator(confs.get(i), readers.get(i)));
+		}
+		runSimulations(simulators, readers);
+		System.err.println("Fabric of " + confs.size() + " bundles: trace waited for a bundle "
+				+ bundleReader.getProducerWaits() + " times");
 
-		// Instantiate the simulator and start the simulation
-		NetworkSimulator ns = new NetworkSimulator(conf);
-		ns.schedule();
+		DecimalFormat df = DecimalFormatUtils.getDecimalFormat4Pad0();
+		String results = FinalStatistics.getHeader("\t") + "\n";
+		FinalStatistics fabricStatistics = null;
+		for (NetworkSimulator ns : simulators) {
+			FinalStatistics bundleStatistics = ns.getFinalStatistics();
+			if (bundleStatistics == null) {
+				System.err.println("The simulation of bundle " + ns.getSrcDevice() + "-" + ns.getDstDevice()
+						+ " did not finish");
+				continue;
+			}
+			results += bundleStatistics.format(df, "\t") + "\n";
+			if (fabricStatistics == null) {
+				fabricStatistics = new FinalStatistics("fabric", 0, 0);
+			}
+			fabricStatistics.add(bundleStatistics);
+		}
+		if (fabricStatistics != null) {
+			results += fabricStatistics.format(df, "\t") + "\n";
+		}
+		conf.getPrintStream().print(results);
+		System.out.println(results);
+		// DEBUG
+		System.err.println(results);
+	}
+
+	/**
+	 * Opens the trace of the configuration, to be read by several simulations.
+	 * Returns null if it cannot be opened.
+	 */
+	private static BroadcastTraceReader openBroadcastTraceReader(Configuration conf, int numReaders) {
+		TraceReader source;
+		try {
+			source = NetworkSimulator.openTraceReader(conf);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+		return new BroadcastTraceReader(source, getReadBufferCapacity(conf), numReaders);
+	}
+
+	private static int getReadBufferCapacity(Configuration conf) {
+		return conf.getReadBuffer() > 0 ? conf.getReadBuffer() : PrefetchingTraceReader.DEFAULT_CAPACITY;
+	}
+
+	/**
+	 * Runs each simulation in its own thread, until all of them finish.
+	 *
+	 * @param readers
+	 *            Reader of the trace of each simulation.
+	 */
+	private static void runSimulations(List<NetworkSimulator> simulators, List<TraceReader> readers) {
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < simulators.size(); i++) {
+			final TraceReader reader = readers.get(i);
+			final NetworkSimulator ns = simulators.get(i);
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						ns.schedule();
+					} finally {
+						// Otherwise, the other simulations would wait for this one
+						try {
+							reader.close();
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+					}
+				}
+			}, "simulation-" + i));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
 	}
 }
@@ -1,16 +1,25 @@
 package tfm;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.text.DecimalFormat;
 import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
@@ -23,29 +32,120 @@ import auxiliar.Queue;
 import conf.Configuration;
 import utils.DecimalFormatUtils;
 import utils.FileNameUtils;
+import auxiliar.ClassScheduler;
+import auxiliar.DelayHistogram;
 import auxiliar.DeviceId;
 import auxiliar.FlowEntry;
-import auxiliar.Packet;
+import auxiliar.FlowTable;
+import auxiliar.ParallelQueueUpdater;
+import auxiliar.SpaceSaving;
+import auxiliar.TimerWheel;
+import trace.PrefetchingTraceReader;
+import trace.TraceReader;
+import trace.TraceReaderFactory;
+import trace.TraceRecord;
 
-public class NetworkSimulator {
+public class NetworkSimulator implements Serializable {
+
+	private static final long serialVersionUID = 1L;
 
 	private static final boolean DEBUG = false;
 	private static final boolean WITH_TABS = true;
 
+	// First bytes of the checkpoint files
+	private static final long CHECKPOINT_MAGIC = 0x53444e434b505431L; // "SDNCKPT1"
+
 	private long period; // nanoseconds
 	private long flowRuleTimeout; // nanoseconds
 	private int numPorts;
 
+	// Bundle that is simulated
+	private DeviceId srcDevice = new DeviceId(1);
+	private DeviceId dstDevice = new DeviceId(2);
+
 	private long queueSize; // seconds
 
 	private long iteration = 0;
-	private BufferedReader br = null;
-	private String line = "";
+	// The trace, the output and the worker threads are not saved in the
+	// checkpoints (see restore())
+	private transient TraceReader reader = null;
+	// Packets read from the trace. When the simulation is restored, they are
+	// skipped only if the reader cannot seek to the packet read ahead
+	private long numRecordsRead = 0;
+	// Flows installed in the switch indexed by key
+	private final FlowTable flowTable = new FlowTable();
+	// Flows installed in the switch ordered by expiration (in iterations)
+	private final TimerWheel<FlowEntry> flowTimerWheel = new TimerWheel<FlowEntry>(
+			new TimerWheel.DeadlineFunction<FlowEntry>() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public long getDeadline(FlowEntry fe) {
+					// First iteration at which the flow is expired
+					return (long) Math.ceil((fe.getLastUse() + flowRuleTimeout) / period);
+				}
+			}, 0);
+	private final List<FlowEntry> expiredFlows = new ArrayList<FlowEntry>();
+	// Flows removed from the flow table because they were not reallocated, but not
+	// expired yet. They keep their ordinals, which are taken by the flows with the
+	// same key installed again before they expire.
+	private final FlowTable uninstalledFlowTable = new FlowTable();
+	// Flows expired in the current iteration, whose ordinals have been released
+	private final List<FlowEntry> releasedFlows = new ArrayList<FlowEntry>();
+	// Ordinals of the expired flows, reused before assigning new ones
+	private int[] freeOrdinals = new int[64];
+	private int numFreeOrdinals = 0;
+	private int nextOrdinal = 0;
+	// Flows returned in the current and the previous iterations
+	private List<FlowEntry> currentFlows = new ArrayList<FlowEntry>();
+	private List<FlowEntry> previousFlows = new ArrayList<FlowEntry>();
+	// Lookahead: packet already read from the trace but not processed yet
+	private final TraceRecord record = new TraceRecord();
+	private boolean recordPending = false;
+	private boolean started = false;
 	private boolean finished = false;
 
 	// Used to identify each flow
 	private int startBitDstIp = 0;
 	private int endBitDstIp = 0;
+	// Bits of the flow identifier used to distinguish the input traces (0 if
+	// they are not distinguished)
+	private int sourceBits = 0;
+
+	// Heavy-hitter mode (null if disabled): only the heaviest flows are tracked
+	// exactly, while the packets of the other flows are aggregated into buckets
+	private SpaceSaving heavyHitters = null;
+	private int numMouseBuckets; // For normal and for low-latency packets
+	private int maxExactFlows;
+	private long mouseBytes = 0;
+	// The counters of the sketch are halved every interval, so that the heavy
+	// hitters are those of the last intervals
+	private static final double HEAVY_HITTERS_DECAY = 0.5;
+	// Maximum error of the bytes of a heavy hitter at the end of each interval
+	private long accHeavyHittersError = 0;
+	private long maxHeavyHittersError = 0;
+	private int heavyHittersIntervals = 0;
+
+	// Whether the percentiles of the delay are reported
+	private boolean delayHistograms = false;
+
+	// Whether the packets that arrive to each port are exported
+	private boolean exportPackets = false;
+
+	// Simulates the queues of the ports of each interval in parallel (null if
+	// they are simulated as the packets arrive)
+	private transient ParallelQueueUpdater queueUpdater = null;
+
+	// Checkpoints of the state of the simulation (see checkpointIfNeeded())
+	private transient int checkpointEvery = 0;
+	private transient String outputFile;
+	private transient String checkpointFile;
+	private long lastCheckpointIteration = 0;
+
+	// Traffic classes of the ports (0 if they are not used)
+	private int numClasses = 0;
+	private ClassScheduler.Policy scheduler;
+	private double[] classWeights;
 
 	private double speed = 0;
 
@@ -57,7 +157,7 @@ public class NetworkSimulator {
 
 	private String inputFile;
 
-	private PrintStream printStream;
+	private transient PrintStream printStream;
 
 	private BaseAlgorithm algorithm;
 
@@ -73,6 +173,9 @@ public class NetworkSimulator {
 
 	private Map<DeviceId, Map<PortNumber, PortStatistics>> totalPortStatistics;
 
+	// Set at the end of the simulation (see printFinalPortStatistics())
+	private FinalStatistics finalStatistics = null;
+
 	/**
 	 * 
 	 * @param algorithmClass
@@ -95,13 +198,13 @@ public class NetworkSimulator {
 		this.inputFile = inputFile;
 		iteration = 0;
 		finished = false;
-		line = "";
 		numFlowMods = 0;
 		totalPortStatistics = new HashMap<DeviceId, Map<PortNumber, PortStatistics>>();
-		br = null;
+		reader = null;
 		try {
-			br = new BufferedReader(new FileReader(inputFile));
-		} catch (FileNotFoundException e) {
+			reader = new PrefetchingTraceReader(TraceReaderFactory.open(inputFile, speed),
+					PrefetchingTraceReader.DEFAULT_CAPACITY);
+		} catch (IOException e) {
 			e.printStackTrace();
 			return;
 		}
@@ -124,47 +227,273 @@ public class NetworkSimulator {
 	}
 
 	public NetworkSimulator(Configuration conf) {
+		this(conf, null);
+	}
+
+	/**
+	 * @param reader
+	 *            Reader of the trace (e.g., one of the readers of a
+	 *            BroadcastTraceReader, shared by the simulations of a sweep), or
+	 *            null to open the trace of the configuration.
+	 */
+	public NetworkSimulator(Configuration conf, TraceReader reader) {
 		this.inputFile = conf.getInputFile();
 		iteration = 0;
 		finished = false;
-		line = "";
 		numFlowMods = 0;
 		totalPortStatistics = new HashMap<DeviceId, Map<PortNumber, PortStatistics>>();
-		br = null;
-		try {
-			br = new BufferedReader(new FileReader(this.inputFile));
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-			return;
+		this.reader = reader;
+		if (this.reader == null) {
+			try {
+				this.reader = openReader(conf);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+		}
+		if (conf.isSourceTags()) {
+			try {
+				int numSources = TraceReaderFactory.getInputFiles(this.inputFile).size();
+				this.sourceBits = 32 - Integer.numberOfLeadingZeros(numSources - 1);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		}
 		this.algorithm = BaseAlgorithm.newInstance(conf.getAlgorithm());
 		this.lowLatencyAlgorithm = LowLatencyBaseAlgorithm.newInstance(conf.getLowLatencyAlgorithm());
 		this.numPorts = conf.getNumPorts();
+		if (conf.getBundle() != null) {
+			this.srcDevice = conf.getBundle().getSrcDevice();
+			this.dstDevice = conf.getBundle().getDstDevice();
+		}
 		this.period = conf.getPeriod();
 		this.flowRuleTimeout = conf.getFlowRuleTimeout();
 		this.startBitDstIp = conf.getStartBitDstIp();
 		this.endBitDstIp = conf.getEndBitDstIp();
-		this.printStream = conf.getPrintStream();
 		this.fileToAppendFinalResults = null;
 		this.queueSize = conf.getQueueSize();
 		this.speed = conf.getSpeed();
 		this.iterationsToDiscard = conf.getIterationsToDiscard();
 		this.alphaEwma = conf.getAlphaEwma();
+		this.delayHistograms = conf.isDelayHistograms();
+		this.exportPackets = conf.isExportPackets();
+		this.numClasses = conf.getNumClasses();
+		this.scheduler = conf.getScheduler();
+		this.classWeights = conf.getClassWeights();
+		if (conf.getHeavyHitters() > 0) {
+			initHeavyHitters(conf.getHeavyHitters());
+		}
 		this.accAlgorithmExecutionTime = 0;
 		this.accRateError = 0;
+		initTransientState(conf);
 		// Must be called at the end of this constructor
 		this.algorithm.init(this);
 		System.err.println("Executing simulation: " + conf.getOutputFile());
 	}
 
+	/**
+	 * Initializes the state that is not saved in the checkpoints (except the
+	 * reader of the trace).
+	 */
+	private void initTransientState(Configuration conf) {
+		this.printStream = conf.getPrintStream();
+		if (conf.getQueueThreads() > 0) {
+			this.queueUpdater = new ParallelQueueUpdater(conf.getQueueThreads());
+		}
+		this.checkpointEvery = conf.getCheckpointEvery();
+		this.outputFile = conf.getOutputFile();
+		this.checkpointFile = conf.getOutputFile() + FileNameUtils.CHECKPOINT_FILE_SUFIX;
+	}
+
+	/**
+	 * Restores the simulation from the last checkpoint of the configuration (see
+	 * checkpointIfNeeded()), or starts it from the beginning if there is none. The
+	 * output file is truncated to its length when the checkpoint was written, so
+	 * that the results are the same as those of an uninterrupted simulation. The
+	 * trace is repositioned at the offset of the packet read ahead (see
+	 * openReaderAfter()). Returns null if the checkpoint cannot be read.
+	 */
+	public static NetworkSimulator restore(Configuration conf) {
+		Path checkpointPath = Paths.get(conf.getOutputFile() + FileNameUtils.CHECKPOINT_FILE_SUFIX);
+		if (!Files.exists(checkpointPath)) {
+			System.err.println("No checkpoint found: " + checkpointPath + ". Starting the simulation from the beginning.");
+			truncateOutputFile(conf, 0);
+			return new NetworkSimulator(conf);
+		}
+		NetworkSimulator ns;
+		long outputLength;
+		try (ObjectInputStream in = new ObjectInputStream(
+				new BufferedInputStream(Files.newInputStream(checkpointPath), 1 << 16))) {
+			if (in.readLong() != CHECKPOINT_MAGIC) {
+				throw new IOException("Not a checkpoint: " + checkpointPath);
+			}
+			outputLength = in.readLong();
+			ns = (NetworkSimulator) in.readObject();
+		} catch (IOException | ClassNotFoundException e) {
+			e.printStackTrace();
+			return null;
+		}
+		truncateOutputFile(conf, outputLength);
+		ns.initTransientState(conf);
+		try {
+			ns.reader = openReaderAfter(conf, ns.record, ns.numRecordsRead);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+		System.err.println("Resuming simulation: " + conf.getOutputFile() + " from iteration " + ns.iteration);
+		return ns;
+	}
+
+	private static void truncateOutputFile(Configuration conf, long length) {
+		if (conf.getPrintStream() == System.out) {
+			return;
+		}
+		try (RandomAccessFile file = new RandomAccessFile(conf.getOutputFile(), "rw")) {
+			file.setLength(length);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Saves the whole state of the simulation (flow table, queues, statistics,
+	 * state of the algorithms...) every checkpointEvery iterations, replacing the
+	 * previous checkpoint. Must be called between two intervals.
+	 */
+	public void checkpointIfNeeded() {
+		if (checkpointEvery <= 0 || iteration == 0 || iteration % checkpointEvery != 0
+				|| iteration == lastCheckpointIteration) {
+			return;
+		}
+		lastCheckpointIteration = iteration;
+		printStream.flush();
+		long outputLength = new File(outputFile).length();
+		// Written to a temporary file first, so that the last checkpoint is never
+		// left incomplete
+		Path checkpointPath = Paths.get(checkpointFile);
+		Path temporaryPath = Paths.get(checkpointFile + ".tmp");
+		try {
+			try (ObjectOutputStream out = new ObjectOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(temporaryPath), 1 << 16))) {
+				out.writeLong(CHECKPOINT_MAGIC);
+				out.writeLong(outputLength);
+				out.writeObject(this);
+			}
+			Files.move(temporaryPath, checkpointPath, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			// DEBUG
+			System.err.println("Checkpoint at iteration " + iteration + ": " + checkpointPath);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Opens the trace of the configuration, read in a background thread if it has
+	 * a read buffer.
+	 */
+	private static TraceReader openReader(Configuration conf) throws IOException {
+		TraceReader reader = openTraceReader(conf);
+		if (conf.getReadBuffer() > 0) {
+			reader = new PrefetchingTraceReader(reader, conf.getReadBuffer());
+		}
+		return reader;
+	}
+
+	/**
+	 * Opens the trace of the configuration just after the last packet read before
+	 * a checkpoint, seeking to its offset if the trace supports it. Otherwise,
+	 * the trace is read from the beginning, skipping the packets already read.
+	 *
+	 * @param lastRecord
+	 *            Last packet read (i.e., the one read ahead).
+	 * @param numRecordsRead
+	 *            Number of packets read, including the last one.
+	 */
+	private static TraceReader openReaderAfter(Configuration conf, TraceRecord lastRecord, long numRecordsRead)
+			throws IOException {
+		TraceReader reader = TraceReaderFactory.openAfter(conf.getInputFile(), conf.getSpeed(),
+				conf.getLowLatencyDscp(), lastRecord, getWindowStartTime(conf), getWindowEndTime(conf));
+		if (reader == null) {
+			System.err.println("The trace cannot seek: skipping the " + numRecordsRead + " packets already read");
+			reader = openTraceReader(conf);
+			TraceRecord skippedRecord = new TraceRecord();
+			for (long i = 0; i < numRecordsRead; i++) {
+				if (!reader.next(skippedRecord)) {
+					reader.close();
+					throw new IOException("The trace is shorter than in the checkpoint: " + conf.getInputFile());
+				}
+			}
+		}
+		if (conf.getReadBuffer() > 0) {
+			reader = new PrefetchingTraceReader(reader, conf.getReadBuffer());
+		}
+		return reader;
+	}
+
+	/**
+	 * Opens the trace of the configuration (only the packets of its time window,
+	 * if any).
+	 */
+	public static TraceReader openTraceReader(Configuration conf) throws IOException {
+		if (conf.getStartTime() > 0 || conf.getEndTime() != Long.MAX_VALUE) {
+			return TraceReaderFactory.open(conf.getInputFile(), conf.getSpeed(), conf.getLowLatencyDscp(),
+					getWindowStartTime(conf), getWindowEndTime(conf));
+		}
+		return TraceReaderFactory.open(conf.getInputFile(), conf.getSpeed(), conf.getLowLatencyDscp());
+	}
+
+	/**
+	 * Returns the time of the trace that becomes time 0 of the simulation: the
+	 * start of the warm-up iterations of the window (nanoseconds, speed already
+	 * applied), or 0 if there is no window.
+	 */
+	private static long getWindowStartTime(Configuration conf) {
+		if (conf.getStartTime() > 0 || conf.getEndTime() != Long.MAX_VALUE) {
+			return (long) (conf.getStartTime() / conf.getSpeed()) - conf.getIterationsToDiscard() * conf.getPeriod();
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the end of the window of the trace (nanoseconds, speed already
+	 * applied), or Long.MAX_VALUE if there is none.
+	 */
+	private static long getWindowEndTime(Configuration conf) {
+		return conf.getEndTime() == Long.MAX_VALUE ? Long.MAX_VALUE : (long) (conf.getEndTime() / conf.getSpeed());
+	}
+
 	public void schedule() {
 		algorithm.schedule();
 	}
 
 	public void finish() {
-		if (br != null) {
+		if (reader != null) {
 			try {
-				br.close();
+				reader.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			if (reader instanceof PrefetchingTraceReader) {
+				PrefetchingTraceReader prefetchingReader = (PrefetchingTraceReader) reader;
+				System.err.println("Read buffer: average occupancy "
+						+ DecimalFormatUtils.getDecimalFormat4().format(100 * prefetchingReader.getAverageOccupancy())
+						+ "% of " + prefetchingReader.getCapacity() + " packets; simulation waited for the trace "
+						+ prefetchingReader.getConsumerWaits() + " times; trace waited for the simulation "
+						+ prefetchingReader.getProducerWaits() + " times");
+			}
+		}
+		if (heavyHitters != null) {
+			printHeavyHittersStatistics();
+		}
+		if (queueUpdater != null) {
+			queueUpdater.shutdown();
+		}
+		if (checkpointEvery > 0) {
+			// The simulation has finished, so it will not be resumed
+			try {
+				Files.deleteIfExists(Paths.get(checkpointFile));
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -172,6 +501,61 @@ public class NetworkSimulator {
 		setFinished(true);
 	}
 
+	/**
+	 * @param budget
+	 *            Maximum number of flows in the flow table (and counters of the
+	 *            sketch).
+	 */
+	private void initHeavyHitters(int budget) {
+		heavyHitters = new SpaceSaving(budget);
+		numMouseBuckets = Math.max(1, budget / 8);
+		if (getIdLength() < 31) {
+			// The bucket is stored in the bits of the identifier of the flow
+			numMouseBuckets = Math.min(numMouseBuckets, 1 << getIdLength());
+		}
+		maxExactFlows = Math.max(0, budget - 2 * numMouseBuckets);
+	}
+
+	/**
+	 * Computes the key of the bucket into which the packets of a flow that is
+	 * not tracked exactly are aggregated. Its identifier has 2 more bits than
+	 * those of the flows: a 1 (so that the keys of the buckets are higher than
+	 * those of the flows), the low-latency bit and the bucket.
+	 */
+	private long computeMouseBucketKey(long key, boolean isLowLatency) {
+		int idLength = getIdLength();
+		long bucket = ((key * 0x9E3779B97F4A7C15L) >>> 32) % numMouseBuckets;
+		return (1L << (idLength + 1)) | ((isLowLatency ? 1L : 0L) << idLength) | bucket;
+	}
+
+	/**
+	 * Records the maximum error of the bytes of a heavy hitter in the interval that
+	 * has just finished, and makes the counters of the sketch decay.
+	 */
+	private void finishHeavyHittersInterval() {
+		long maxError = heavyHitters.getMaxError();
+		accHeavyHittersError += maxError;
+		maxHeavyHittersError = Math.max(maxHeavyHittersError, maxError);
+		heavyHittersIntervals += 1;
+		heavyHitters.decay(HEAVY_HITTERS_DECAY);
+	}
+
+	private void printHeavyHittersStatistics() {
+		DecimalFormat df = DecimalFormatUtils.getDecimalFormat4();
+		long totalBytes = Math.max(heavyHitters.getTotalBytes(), 1);
+		int intervals = Math.max(heavyHittersIntervals, 1);
+		double averageError = accHeavyHittersError / (double) intervals;
+		String statistics = "Heavy-hitter mode: " + heavyHitters.getCapacity() + " counters, " + numMouseBuckets
+				+ " buckets of mice flows; bytes aggregated into buckets: "
+				+ df.format(100.0 * mouseBytes / totalBytes)
+				+ "%; maximum error of the bytes of a heavy hitter per interval: " + df.format(averageError)
+				+ " bytes on average (" + df.format(100.0 * averageError * intervals / totalBytes)
+				+ "% of the bytes of an interval), " + maxHeavyHittersError + " bytes at most";
+		printStream.println(statistics);
+		// DEBUG
+		System.err.println(statistics);
+	}
+
 	public void initPortStatistics(DeviceId deviceId, Set<PortNumber> portList, double PORT_BANDWIDTH) {
 		totalPortStatistics.put(deviceId, new HashMap<PortNumber, PortStatistics>());
 		for (PortNumber pn : portList) {
@@ -179,23 +563,63 @@ public class NetworkSimulator {
 					new PortStatistics(FileNameUtils.generateOutputFileName(algorithm.getClass(), inputFile, period,
 							flowRuleTimeout, startBitDstIp, endBitDstIp, queueSize, speed, numPorts,
 							lowLatencyAlgorithm.getClass(), alphaEwma), pn, period, PORT_BANDWIDTH, queueSize));
+			if (delayHistograms) {
+				totalPortStatistics.get(deviceId).get(pn).getQueue().enableDelayHistograms();
+			}
+			if (exportPackets) {
+				totalPortStatistics.get(deviceId).get(pn).getQueue().enablePacketExport();
+			}
+			if (numClasses > 0) {
+				totalPortStatistics.get(deviceId).get(pn).getQueue().enableClasses(numClasses, scheduler,
+						classWeights);
+			}
 		}
 	}
 
-	public String computeId(String srcIP, String dstIP, boolean isLowLatency) {
-		String id = isLowLatency ? "1" : "0";
-		int num;
-
-		String dstIPBits = "";
+	/**
+	 * Computes the key of a flow: the low-latency bit, the input trace of the
+	 * packet (only if the input traces are distinguished) and the bits
+	 * [startBitDstIp, endBitDstIp) of the destination IP address. Its binary
+	 * representation with getIdLength() bits is the identifier of the flow.
+	 */
+	public long computeKey(int dstIp, boolean isLowLatency, int source) {
+		int dstBits = endBitDstIp - startBitDstIp;
+		long key = isLowLatency ? 1 : 0;
+		key = (key << sourceBits) | (source & ((1L << sourceBits) - 1));
+		key = (key << dstBits) | (((dstIp & 0xFFFFFFFFL) >>> (32 - endBitDstIp)) & ((1L << dstBits) - 1));
+		return key;
+	}
 
-		for (String numStr : dstIP.split("\\.")) {
-			num = Integer.parseInt(numStr);
-			dstIPBits += String.format("%08d", Integer.parseInt(Integer.toBinaryString(num)));
-		}
+	/**
+	 * Returns the number of bits of the identifiers of the flows.
+	 */
+	public int getIdLength() {
+		return 1 + sourceBits + endBitDstIp - startBitDstIp;
+	}
 
-		id += dstIPBits.substring(startBitDstIp, endBitDstIp);
+	/**
+	 * Computes the legacy identifier of a flow: the low-latency bit followed by
+	 * the bits [startBitDstIp, endBitDstIp) of the destination IP address.
+	 */
+	public String computeId(int dstIp, boolean isLowLatency) {
+		return computeId(dstIp, isLowLatency, 0);
+	}
 
-		return id;
+	/**
+	 * Computes the identifier of a flow: the low-latency bit, the input trace of
+	 * the packet (only if the input traces are distinguished) and the bits
+	 * [startBitDstIp, endBitDstIp) of the destination IP address.
+	 */
+	public String computeId(int dstIp, boolean isLowLatency, int source) {
+		StringBuilder id = new StringBuilder(1 + sourceBits + endBitDstIp - startBitDstIp);
+		id.append(isLowLatency ? '1' : '0');
+		for (int bit = sourceBits - 1; bit >= 0; bit--) {
+			id.append(((source >>> bit) & 1) == 1 ? '1' : '0');
+		}
+		for (int bit = startBitDstIp; bit < endBitDstIp; bit++) {
+			id.append(((dstIp >>> (31 - bit)) & 1) == 1 ? '1' : '0');
+		}
+		return id.toString();
 	}
 
 	// This is a method used for debugging
@@ -258,6 +682,9 @@ public class NetworkSimulator {
 		double accumulatedDelayLowLatency = 0;
 		long totalPacketsToComputeDelayLowLatency = 0;
 
+		DelayHistogram delayHistogram = new DelayHistogram();
+		DelayHistogram delayHistogramLowLatency = new DelayHistogram();
+
 		for (PortNumber pn : portList) {
 			PortStatistics ps = totalPortStatistics.get(deviceId).get(pn);
 			// Set current time of the simulation
@@ -289,6 +716,11 @@ public class NetworkSimulator {
 			accumulatedDelayLowLatency += queue.getAccumulatedDelayLowLatency();
 			totalPacketsToComputeDelayLowLatency += queue.getNumPacketsLowLatency();
 
+			if (delayHistograms) {
+				delayHistogram.add(queue.getDelayHistogram());
+				delayHistogramLowLatency.add(queue.getDelayHistogramLowLatency());
+			}
+
 			totalLostPackets += queue.getNumExceeded();
 			printStream.println(ps);
 		}
@@ -300,6 +732,15 @@ public class NetworkSimulator {
 		double averageDelay = accumulatedDelay / totalPacketsToComputeDelay;
 		double averageDelayLowLatency = accumulatedDelayLowLatency / totalPacketsToComputeDelayLowLatency;
 
+		finalStatistics = new FinalStatistics(srcDevice + "-" + dstDevice, portList.size(),
+				iteration - iterationsToDiscard);
+		finalStatistics.setRate(averageRate);
+		finalStatistics.setFlowMods(numFlowMods, accAlgorithmExecutionTime);
+		finalStatistics.setPackets(totalPackets, totalLostPackets);
+		finalStatistics.setConsumption(accumulatedConsumptionModel, accumulatedConsumptionReal);
+		finalStatistics.setDelay(accumulatedDelay, totalPacketsToComputeDelay, accumulatedDelayLowLatency,
+				totalPacketsToComputeDelayLowLatency);
+
 		DecimalFormat df = DecimalFormatUtils.getDecimalFormat4Pad0();
 
 		printStream.println("Average consumption (model): " + df.format(averageConsumptionModel * 100.0) + " %");
@@ -354,6 +795,14 @@ public class NetworkSimulator {
 		if (totalPacketsToComputeDelayLowLatency > 0) {
 			finalResult += df.format(averageDelayLowLatency / 1e3);
 		}
+		// percentiles and maximum delay of the packets
+		if (delayHistograms) {
+			finalResult += (WITH_TABS ? "\t" : " ") + delayHistogram.format(df, WITH_TABS ? "\t" : " ");
+			if (totalPacketsToComputeDelayLowLatency > 0) {
+				finalResult += (WITH_TABS ? "\t" : " ")
+						+ delayHistogramLowLatency.format(df, WITH_TABS ? "\t" : " ");
+			}
+		}
 		finalResult += "\n";
 
 		String header = "# file" + (WITH_TABS ? "\t\t\t" : " ") + "algorithm" + (WITH_TABS ? "\t" : " ")
@@ -368,6 +817,13 @@ public class NetworkSimulator {
 		if (totalPacketsToComputeDelayLowLatency > 0) {
 			header += (WITH_TABS ? "\t" : " ") + "avg_delay_low_latency(us)";
 		}
+		if (delayHistograms) {
+			header += (WITH_TABS ? "\t" : " ") + DelayHistogram.formatNames("", "_delay(us)", WITH_TABS ? "\t" : " ");
+			if (totalPacketsToComputeDelayLowLatency > 0) {
+				header += (WITH_TABS ? "\t" : " ")
+						+ DelayHistogram.formatNames("", "_delay_low_latency(us)", WITH_TABS ? "\t" : " ");
+			}
+		}
 		header += "\n";
 
 		if (fileToAppendFinalResults != null) {
@@ -403,99 +859,160 @@ public class NetworkSimulator {
 	/* Returns null on empty set */
 	public Collection<FlowEntry> getFlowEntries(DeviceId deviceId, Collection<FlowEntry> oldFlowEntries,
 			double PORT_BANDWIDTH) {
-		Map<String, FlowEntry> currentFlowsMap = new HashMap<String, FlowEntry>();
 		if (!totalPortStatistics.containsKey(deviceId)) {
-			initPortStatistics(deviceId, algorithm.getLinkPorts(deviceId, new DeviceId(2)), PORT_BANDWIDTH);
+			initPortStatistics(deviceId, algorithm.getLinkPorts(deviceId, dstDevice), PORT_BANDWIDTH);
 		}
 		iteration += 1;
 		printStream.println("# iteration " + iteration);
 		// DEBUG
 		System.err.println("# iteration " + iteration);
 
+		if (heavyHitters != null) {
+			finishHeavyHittersInterval();
+		}
+
+		// Remove the flows that have expired
+		releasedFlows.clear();
+		expiredFlows.clear();
+		flowTimerWheel.advance(iteration, expiredFlows);
+		for (FlowEntry fe : expiredFlows) {
+			boolean installed = flowTable.get(fe.getKey()) == fe;
+			if (!installed && uninstalledFlowTable.get(fe.getKey()) != fe) {
+				// Already removed
+				continue;
+			}
+			if ((fe.getLastUse() + flowRuleTimeout) > (iteration * period)) {
+				flowTimerWheel.schedule(fe);
+			} else if (installed) {
+				expireFlow(fe);
+			} else {
+				uninstalledFlowTable.remove(fe.getKey());
+				releaseOrdinal(fe);
+			}
+		}
+
+		List<FlowEntry> currentFlows = previousFlows;
+		previousFlows = this.currentFlows;
+		this.currentFlows = currentFlows;
+
+		// Only the flows reallocated by the algorithm remain installed
+		if (oldFlowEntries != null && oldFlowEntries.size() != previousFlows.size()) {
+			for (FlowEntry fe : previousFlows) {
+				if (!oldFlowEntries.contains(fe) && flowTable.get(fe.getKey()) == fe) {
+					flowTable.remove(fe.getKey());
+					uninstalledFlowTable.put(fe.getKey(), fe);
+				}
+			}
+		}
+
+		// The flows are returned in the order in which they were installed, first
+		// those already installed (in the order of the previous allocation), since the
+		// algorithms depend on it
+		currentFlows.clear();
 		if (oldFlowEntries != null) {
 			for (FlowEntry fe : oldFlowEntries) {
-				// Check if the flow has already expired
-				if ((fe.getLastUse() + flowRuleTimeout) > (iteration * period)) {
-					currentFlowsMap.put(fe.getId(), fe);
+				if (flowTable.get(fe.getKey()) == fe) {
+					// Check if the flow has already expired (the timer wheel may round the other
+					// way)
+					if ((fe.getLastUse() + flowRuleTimeout) > (iteration * period)) {
+						currentFlows.add(fe);
+					} else {
+						expireFlow(fe);
+					}
 				}
 			}
 		}
 
 		// Compute flowEntries reading from file
 		try {
-			if (line == "") {
+			if (!started) {
 				// i.e., it is the first time that this function is called
-				try {
-					line = br.readLine();
-				} catch (IOException ioe) {
-					ioe.printStackTrace();
-				}
+				started = true;
+				recordPending = readRecord();
 			}
-			while (line != null) {
-				try {
-					if (processLine(line, currentFlowsMap, deviceId, PORT_BANDWIDTH) == -1) {
-						break;
-					}
-					line = br.readLine();
-				} catch (IOException ioe) {
-					ioe.printStackTrace();
+			while (recordPending) {
+				if (processPacket(record, currentFlows, deviceId) == -1) {
+					break;
 				}
+				recordPending = readRecord();
 			}
-			if (line == null) {
-				// The EOF has been reached
-				finish();
-				// Editing here: return currentFlowsMap.values();
-				return null;
-			} else {
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			recordPending = false;
+		}
+		if (queueUpdater != null) {
+			// The queues must be updated before their statistics are printed
+			queueUpdater.flush(lowLatencyAlgorithm.getQueueType());
+		}
+		if (!recordPending) {
+			// The EOF has been reached
+			finish();
+			// Editing here: return currentFlowsMap.values();
+			return null;
+		}
+		return currentFlows;
+	}
 
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
+	private boolean readRecord() throws IOException {
+		if (reader.next(record)) {
+			numRecordsRead++;
+			return true;
 		}
-		return currentFlowsMap.values();
+		return false;
 	}
 
-	public long getCurrentTime() {
-		// double currentTime = iteration * period;
-		long currentTime = lastArrivalTimestamp;
-		return currentTime;
+	private void expireFlow(FlowEntry fe) {
+		flowTable.remove(fe.getKey());
+		releaseOrdinal(fe);
 	}
 
 	/**
-	 * Returns: 0 if normal processing. 1 if the EOF has been reached. -1 if the
-	 * line does not correspond to the current interval.
+	 * Returns the ordinal for a new flow with the given key: the one of the
+	 * uninstalled flow with the same key, if it has not expired yet, or the one of
+	 * an expired flow.
 	 */
-	private int processLine(String line, Map<String, FlowEntry> currentFlows, DeviceId deviceId,
-			double PORT_BANDWIDTH) {
-		boolean isLowLatency = false;
-		// Allow comment lines starting with #
-		if (line == null) {
-			return 1;
+	private int acquireOrdinal(long key) {
+		FlowEntry uninstalledFlow = uninstalledFlowTable.remove(key);
+		if (uninstalledFlow != null) {
+			return uninstalledFlow.getOrdinal();
 		}
-		if (line.startsWith("#")) {
-			return 0;
+		return numFreeOrdinals > 0 ? freeOrdinals[--numFreeOrdinals] : nextOrdinal++;
+	}
+
+	private void releaseOrdinal(FlowEntry fe) {
+		if (numFreeOrdinals == freeOrdinals.length) {
+			freeOrdinals = Arrays.copyOf(freeOrdinals, 2 * numFreeOrdinals);
 		}
+		freeOrdinals[numFreeOrdinals++] = fe.getOrdinal();
+		releasedFlows.add(fe);
+	}
+
+	/**
+	 * Returns the flows that expired in the last call to getFlowEntries(). Their
+	 * ordinals (see FlowEntry.getOrdinal()) may have been assigned to new flows,
+	 * so whatever is indexed by them must be evicted.
+	 */
+	public List<FlowEntry> getReleasedFlows() {
+		return releasedFlows;
+	}
 
-		long time; // In nanoseconds
-		String sip;
-		String dip;
-		int bytes;
+	public long getCurrentTime() {
+		// double currentTime = iteration * period;
+		long currentTime = lastArrivalTimestamp;
+		return currentTime;
+	}
 
-		try {
-			String[] splittedLine = line.split(" ");
-			time = (long) (1e9 * Double.parseDouble(splittedLine[0]) / speed);
-			sip = splittedLine[1];
-			dip = splittedLine[2];
-			bytes = Integer.parseInt(splittedLine[3]);
-			isLowLatency = splittedLine.length > 4; // If the line has more than 4 items then it is a low-latency packet
-		} catch (Exception e) {
-			System.err.println("Error on line: " + line);
-			e.printStackTrace();
-			return 1;
-		}
+	/**
+	 * Returns: 0 if normal processing. -1 if the packet does not correspond to
+	 * the current interval.
+	 */
+	private int processPacket(TraceRecord record, List<FlowEntry> currentFlows, DeviceId deviceId) {
+		long time = record.getTimestamp(); // In nanoseconds
+		int bytes = record.getBytes();
+		boolean isLowLatency = record.isLowLatency();
 
 		if (DEBUG) {
-			System.err.println(time + " " + sip + " " + dip + " " + bytes);
+			System.err.println(record);
 		}
 
 		if (time > (iteration * period)) {
@@ -509,34 +1026,52 @@ public class NetworkSimulator {
 		// Do the processing
 		lastArrivalTimestamp = time;
 
-		String id = computeId(sip, dip, isLowLatency);
-		FlowEntry matchFlow = null;
-		if (currentFlows.containsKey(id)) {
+		long key = computeKey(record.getDstIp(), isLowLatency, record.getSource());
+		int idLength = getIdLength();
+		if (heavyHitters != null) {
+			heavyHitters.offer(key, bytes);
+			// A flow is tracked exactly once it is found to be a heavy hitter, until it
+			// expires
+			if (flowTable.get(key) == null
+					&& (!heavyHitters.isHeavyHitter(key) || flowTable.size() >= maxExactFlows)) {
+				key = computeMouseBucketKey(key, isLowLatency);
+				idLength += 2;
+				mouseBytes += bytes;
+			}
+		}
+		FlowEntry matchFlow = flowTable.get(key);
+		if (matchFlow != null) {
 			// Already present
-			matchFlow = currentFlows.get(id);
-			currentFlows.get(id).setBytes(currentFlows.get(id).bytes() + bytes);
-			currentFlows.get(id).setLastUse(time);
+			matchFlow.setBytes(matchFlow.bytes() + bytes);
+			matchFlow.setLastUse(time);
 		} else {
 			// No present in the last poll: Allocate new port
 			if (isLowLatency) {
-				matchFlow = new FlowEntry(id, algorithm.selectOutputPortLowLatency(new DeviceId(1), new DeviceId(2)),
-						bytes, time, time, true);
+				matchFlow = new FlowEntry(key, idLength,
+						algorithm.selectOutputPortLowLatency(srcDevice, dstDevice), bytes, time, time, true);
 			} else {
-				matchFlow = new FlowEntry(id, algorithm.selectOutputPort(new DeviceId(1), new DeviceId(2)), bytes, time,
-						time, false);
+				matchFlow = new FlowEntry(key, idLength,
+						algorithm.selectOutputPort(srcDevice, dstDevice), bytes, time, time, false);
 			}
-			currentFlows.put(id, matchFlow);
+			matchFlow.setOrdinal(acquireOrdinal(key));
+			flowTable.put(key, matchFlow);
+			flowTimerWheel.schedule(matchFlow);
+			currentFlows.add(matchFlow);
 		}
 		PortNumber selectedPort = matchFlow.getOutputPort();
 		totalPortStatistics.get(deviceId).get(selectedPort).addPackets(1);
 		totalPortStatistics.get(deviceId).get(selectedPort).addBytes(bytes);
 		Queue queue = totalPortStatistics.get(deviceId).get(selectedPort).getQueue();
+		if (queueUpdater != null) {
+			// Processed at the end of the interval, in parallel with the other ports
+			queueUpdater.addPacket(queue, time, bytes, isLowLatency, record.getTrafficClass());
+			return 0;
+		}
 		if (Queue.DEBUG) {
 			printStream.println("[DEBUG] port=" + matchFlow.getOutputPort() + ", currentTimestamp=" + time);
 		}
 		queue.update(time);
-		Packet packet = new Packet(bytes, PORT_BANDWIDTH, time, isLowLatency);
-		queue.addPacket(packet, isLowLatency, lowLatencyAlgorithm.getQueueType());
+		queue.addPacket(time, bytes, isLowLatency, record.getTrafficClass(), lowLatencyAlgorithm.getQueueType());
 
 		if (Queue.DEBUG) {
 			printStream.print("Added packet to queue of port " + matchFlow.getOutputPort() + "...");
@@ -594,6 +1129,21 @@ public class NetworkSimulator {
 		this.numPorts = numPorts;
 	}
 
+	public DeviceId getSrcDevice() {
+		return srcDevice;
+	}
+
+	public DeviceId getDstDevice() {
+		return dstDevice;
+	}
+
+	/**
+	 * Returns the final results of the simulation, or null if it has not finished.
+	 */
+	public FinalStatistics getFinalStatistics() {
+		return finalStatistics;
+	}
+
 	public LowLatencyBaseAlgorithm getLowLatencyAlgorithm() {
 		return lowLatencyAlgorithm;
 	}
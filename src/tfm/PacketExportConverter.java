@@ -0,0 +1,110 @@
+package tfm;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import auxiliar.PacketExportWriter;
+import utils.DecimalFormatUtils;
+import utils.FileNameUtils;
+
+/**
+ * Converts the binary file of the packets exported from a port (see
+ * PacketExportWriter) into the text format used by the HystEEE simulator
+ * (https://github.com/migrax/HystEEE): one line per packet with its timestamp
+ * (seconds) and length (bytes), plus an index file with the positions of the
+ * low-latency packets.
+ *
+ * @author pfondo
+ *
+ */
+public class PacketExportConverter {
+
+	private static final int BUFFER_SIZE = 1 << 20; // 1 MB
+
+	public static void main(String[] args) {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("usage: PacketExportConverter <INPUT> [<OUTPUT>]");
+			System.exit(1);
+		}
+		String outputFile;
+		if (args.length == 2) {
+			outputFile = args[1];
+		} else if (args[0].endsWith(PacketExportWriter.FILE_SUFIX)) {
+			outputFile = args[0].substring(0, args[0].length() - PacketExportWriter.FILE_SUFIX.length());
+		} else {
+			outputFile = args[0] + ".txt";
+		}
+		try {
+			long numRecords = convert(args[0], outputFile);
+			System.err.println("Converted " + numRecords + " packets to " + outputFile + " and " + outputFile
+					+ FileNameUtils.LOW_LATENCY_INDEX_FILE_SUFIX);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Writes the packets to outputFile and the index of the low-latency packets
+	 * to outputFile + FileNameUtils.LOW_LATENCY_INDEX_FILE_SUFIX.
+	 *
+	 * @return The number of packets converted.
+	 */
+	public static long convert(String inputFile, String outputFile) throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ);
+		BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
+		BufferedWriter lowLatencyIndexWriter = new BufferedWriter(
+				new FileWriter(outputFile + FileNameUtils.LOW_LATENCY_INDEX_FILE_SUFIX));
+		long numRecords = 0;
+		try {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+			buffer.limit(0); // Nothing read yet
+			if (!read(channel, buffer, PacketExportWriter.MAGIC.length)) {
+				throw new IOException("Empty packets file: " + inputFile);
+			}
+			for (int i = 0; i < PacketExportWriter.MAGIC.length; i++) {
+				if (buffer.get() != PacketExportWriter.MAGIC[i]) {
+					throw new IOException("Not a packets file: " + inputFile);
+				}
+			}
+			while (read(channel, buffer, PacketExportWriter.RECORD_SIZE)) {
+				long timestamp = buffer.getLong();
+				long bytes = buffer.getInt() & 0xFFFFFFFFL;
+				int packetClass = buffer.getInt();
+				writer.write(DecimalFormatUtils.getDecimalFormat9().format(timestamp / 1e9) + " " + bytes + "\n");
+				if (packetClass == PacketExportWriter.CLASS_LOW_LATENCY) {
+					lowLatencyIndexWriter.write(numRecords + "\n");
+				}
+				numRecords += 1;
+			}
+		} finally {
+			channel.close();
+			writer.close();
+			lowLatencyIndexWriter.close();
+		}
+		return numRecords;
+	}
+
+	/**
+	 * Ensures that the buffer has at least the given number of bytes remaining.
+	 * Returns false at the end of the file.
+	 */
+	private static boolean read(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+		if (buffer.remaining() >= bytes) {
+			return true;
+		}
+		buffer.compact();
+		while (buffer.position() < bytes) {
+			if (channel.read(buffer) < 0) {
+				break;
+			}
+		}
+		buffer.flip();
+		return buffer.remaining() >= bytes;
+	}
+}
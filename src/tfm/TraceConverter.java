@@ -0,0 +1,47 @@
+package tfm;
+
+import java.io.IOException;
+
+import trace.BinaryTraceWriter;
+import trace.TraceReader;
+import trace.TraceReaderFactory;
+import trace.TraceRecord;
+
+/**
+ * Converts a text trace into the binary trace format, which can be directly
+ * used as input of the simulator.
+ * 
+ * @author pfondo
+ *
+ */
+public class TraceConverter {
+
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.err.println("usage: TraceConverter <INPUT> <OUTPUT>");
+			System.exit(1);
+		}
+		try {
+			long numRecords = convert(args[0], args[1]);
+			System.err.println("Converted " + numRecords + " packets to " + args[1]);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	public static long convert(String inputFile, String outputFile) throws IOException {
+		TraceReader reader = TraceReaderFactory.open(inputFile, 1);
+		BinaryTraceWriter writer = new BinaryTraceWriter(outputFile);
+		TraceRecord record = new TraceRecord();
+		try {
+			while (reader.next(record)) {
+				writer.write(record);
+			}
+		} finally {
+			reader.close();
+			writer.close();
+		}
+		return writer.getNumRecords();
+	}
+}
@@ -0,0 +1,74 @@
+package trace;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary representation of a trace. The file starts with the 8-byte
+ * {@link #MAGIC} header, followed by one record per packet:
+ * 
+ * <pre>
+ * flags (1 byte) | timestamp delta (zigzag varint, ns) | source IP (4 bytes) | destination IP (4 bytes) | length (varint)
+ * </pre>
+ * 
+ * The lowest bit of the flags is the low-latency mark and the next 3 bits are
+ * the traffic class of the packet.
+ * 
+ * The timestamp of each packet is encoded as the difference (in nanoseconds)
+ * with respect to the timestamp of the previous packet (0 for the first one).
+ * Integers are stored in big-endian order.
+ * 
+ * @author pfondo
+ *
+ */
+public class BinaryTraceFormat {
+
+	public static final byte[] MAGIC = "SDNBTRC1".getBytes(StandardCharsets.US_ASCII);
+
+	public static final int FLAG_LOW_LATENCY = 0x01;
+	public static final int TRAFFIC_CLASS_SHIFT = 1;
+	public static final int TRAFFIC_CLASS_MASK = 0x07;
+
+	// flags + timestamp delta + source IP + destination IP + length
+	public static final int MAX_RECORD_SIZE = 1 + 10 + 4 + 4 + 5;
+
+	public static boolean hasMagic(byte[] header) {
+		if (header.length < MAGIC.length) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (header[i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public static void putVarLong(ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	public static long getVarLong(ByteBuffer buffer) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	public static long zigZagEncode(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	public static long zigZagDecode(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
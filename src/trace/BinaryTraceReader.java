@@ -0,0 +1,119 @@
+package trace;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads traces in the binary trace format (see {@link BinaryTraceFormat}).
+ * 
+ * @author pfondo
+ *
+ */
+public class BinaryTraceReader implements SeekableTraceReader {
+
+	private static final int BUFFER_SIZE = 1 << 22; // 4 MB
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final double speed;
+	private boolean eof = false;
+
+	// Timestamp (without applying the speed) of the last record read
+	private long previousTimestamp = 0;
+
+	// Offset in the file of the first byte of the buffer
+	private long bufferOffset = 0;
+	// Offset in the file and previous timestamp of the last record read
+	private long recordOffset;
+	private long recordState;
+
+	public BinaryTraceReader(String inputFile, double speed) throws IOException {
+		this.channel = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ);
+		this.speed = speed;
+		buffer.limit(0);
+		fill();
+		if (buffer.remaining() < BinaryTraceFormat.MAGIC.length) {
+			throw new IOException("Not a binary trace: " + inputFile);
+		}
+		byte[] header = new byte[BinaryTraceFormat.MAGIC.length];
+		buffer.get(header);
+		if (!BinaryTraceFormat.hasMagic(header)) {
+			throw new IOException("Not a binary trace: " + inputFile);
+		}
+	}
+
+	private void fill() throws IOException {
+		bufferOffset += buffer.position();
+		buffer.compact();
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				eof = true;
+				break;
+			}
+		}
+		buffer.flip();
+	}
+
+	@Override
+	public boolean next(TraceRecord record) throws IOException {
+		if (buffer.remaining() < BinaryTraceFormat.MAX_RECORD_SIZE && !eof) {
+			fill();
+		}
+		if (!buffer.hasRemaining()) {
+			return false;
+		}
+		long offset = bufferOffset + buffer.position();
+		int flags;
+		long timestamp;
+		int srcIp;
+		int dstIp;
+		int bytes;
+		try {
+			flags = buffer.get();
+			timestamp = previousTimestamp + BinaryTraceFormat.zigZagDecode(BinaryTraceFormat.getVarLong(buffer));
+			srcIp = buffer.getInt();
+			dstIp = buffer.getInt();
+			bytes = (int) BinaryTraceFormat.getVarLong(buffer);
+		} catch (BufferUnderflowException e) {
+			System.err.println("Truncated record at the end of the binary trace");
+			return false;
+		}
+		recordOffset = offset;
+		recordState = previousTimestamp;
+		previousTimestamp = timestamp;
+		long time = speed == 1 ? timestamp : (long) (timestamp / speed);
+		record.set(time, srcIp, dstIp, bytes, (flags & BinaryTraceFormat.FLAG_LOW_LATENCY) != 0);
+		record.setTrafficClass((flags >>> BinaryTraceFormat.TRAFFIC_CLASS_SHIFT) & BinaryTraceFormat.TRAFFIC_CLASS_MASK);
+		record.setOffset(recordOffset, recordState);
+		return true;
+	}
+
+	@Override
+	public long getRecordOffset() {
+		return recordOffset;
+	}
+
+	@Override
+	public long getRecordState() {
+		return recordState;
+	}
+
+	@Override
+	public void seek(long offset, long state) throws IOException {
+		channel.position(offset);
+		buffer.clear();
+		buffer.limit(0);
+		bufferOffset = offset;
+		eof = false;
+		previousTimestamp = state;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,62 @@
+package trace;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes packets in the binary trace format (see {@link BinaryTraceFormat}).
+ * The timestamps of the records must not be scaled by the speed of the trace.
+ * 
+ * @author pfondo
+ *
+ */
+public class BinaryTraceWriter {
+
+	private static final int BUFFER_SIZE = 1 << 22; // 4 MB
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private long previousTimestamp = 0;
+	private long numRecords = 0;
+
+	public BinaryTraceWriter(String outputFile) throws IOException {
+		this.channel = FileChannel.open(Paths.get(outputFile), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		buffer.put(BinaryTraceFormat.MAGIC);
+	}
+
+	public void write(TraceRecord record) throws IOException {
+		if (buffer.remaining() < BinaryTraceFormat.MAX_RECORD_SIZE) {
+			flush();
+		}
+		buffer.put((byte) ((record.isLowLatency() ? BinaryTraceFormat.FLAG_LOW_LATENCY : 0)
+				| ((record.getTrafficClass() & BinaryTraceFormat.TRAFFIC_CLASS_MASK) << BinaryTraceFormat.TRAFFIC_CLASS_SHIFT)));
+		BinaryTraceFormat.putVarLong(buffer,
+				BinaryTraceFormat.zigZagEncode(record.getTimestamp() - previousTimestamp));
+		buffer.putInt(record.getSrcIp());
+		buffer.putInt(record.getDstIp());
+		BinaryTraceFormat.putVarLong(buffer, record.getBytes() & 0xFFFFFFFFL);
+		previousTimestamp = record.getTimestamp();
+		numRecords += 1;
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	public long getNumRecords() {
+		return numRecords;
+	}
+
+	public void close() throws IOException {
+		flush();
+		channel.close();
+	}
+}
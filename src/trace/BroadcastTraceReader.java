@@ -0,0 +1,243 @@
+package trace;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reads a trace once in a background thread and delivers every packet to
+ * several readers (e.g., one per simulation of a sweep), so that the trace is
+ * decoded only once for all of them.
+ *
+ * The producer thread decodes the packets into a single-producer
+ * multiple-consumer ring buffer of preallocated primitive slots (as
+ * PrefetchingTraceReader), and each reader has its own position in it. A slot
+ * is only reused once every reader has consumed it, so the readers advance
+ * together, at most the capacity of the ring buffer apart from each other.
+ * Thus, each reader must be consumed by its own thread.
+ *
+ * @author pfondo
+ *
+ */
+public class BroadcastTraceReader {
+
+	// The producer publishes the written slots every BATCH_SIZE packets
+	private static final int BATCH_SIZE = 256;
+	private static final int SPINS_BEFORE_PARKING = 100;
+	private static final long PARK_NANOS = 20000;
+
+	private final TraceReader source;
+	private final int mask;
+
+	private final long[] timestamps;
+	private final int[] srcIps;
+	private final int[] dstIps;
+	private final int[] bytes;
+	private final boolean[] lowLatency;
+	private final int[] sources;
+	private final byte[] trafficClasses;
+
+	// Next slot to be written (published by the producer)
+	private final AtomicLong head = new AtomicLong();
+
+	private final Reader[] readers;
+	private final AtomicInteger openReaders;
+
+	private volatile boolean finished = false;
+	private volatile boolean closed = false;
+	private volatile IOException error = null;
+	private final Thread producer;
+
+	// Producer side
+	private long cachedTail = 0;
+	private volatile long producerWaits = 0;
+
+	/**
+	 * Reader of the packets for one of the consumers.
+	 */
+	private class Reader implements TraceReader {
+
+		// Next slot to be read (published by the consumer)
+		private final AtomicLong tail = new AtomicLong();
+		private long cachedHead = 0;
+		private boolean readerClosed = false;
+
+		@Override
+		public boolean next(TraceRecord record) throws IOException {
+			long position = tail.get();
+			if (position == cachedHead) {
+				cachedHead = head.get();
+				int spins = 0;
+				while (position == cachedHead) {
+					if (finished) {
+						// The last slots are published before finishing
+						cachedHead = head.get();
+						if (position == cachedHead) {
+							if (error != null) {
+								throw error;
+							}
+							return false;
+						}
+						break;
+					}
+					spins = backOff(spins);
+					cachedHead = head.get();
+				}
+			}
+			int slot = (int) position & mask;
+			record.set(timestamps[slot], srcIps[slot], dstIps[slot], bytes[slot], lowLatency[slot], sources[slot]);
+			record.setTrafficClass(trafficClasses[slot]);
+			tail.lazySet(position + 1);
+			return true;
+		}
+
+		/**
+		 * The producer no longer waits for this reader. The trace is closed once all
+		 * the readers are closed.
+		 */
+		@Override
+		public void close() throws IOException {
+			if (readerClosed) {
+				return;
+			}
+			readerClosed = true;
+			tail.set(Long.MAX_VALUE);
+			if (openReaders.decrementAndGet() == 0) {
+				closeSource();
+			}
+		}
+	}
+
+	/**
+	 * @param source
+	 *            Reader that will be run in the background thread.
+	 * @param capacity
+	 *            Number of slots of the ring buffer (rounded up to a power of 2).
+	 * @param numReaders
+	 *            Number of readers (see getReader()).
+	 */
+	public BroadcastTraceReader(TraceReader source, int capacity, int numReaders) {
+		this.source = source;
+		int size = Integer.highestOneBit(Math.max(capacity, BATCH_SIZE) - 1) << 1;
+		this.mask = size - 1;
+		this.timestamps = new long[size];
+		this.srcIps = new int[size];
+		this.dstIps = new int[size];
+		this.bytes = new int[size];
+		this.lowLatency = new boolean[size];
+		this.sources = new int[size];
+		this.trafficClasses = new byte[size];
+		this.readers = new Reader[numReaders];
+		for (int i = 0; i < numReaders; i++) {
+			readers[i] = new Reader();
+		}
+		this.openReaders = new AtomicInteger(numReaders);
+		this.producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				produce();
+			}
+		}, "trace-broadcast");
+		this.producer.setDaemon(true);
+		this.producer.start();
+	}
+
+	/**
+	 * Returns the i-th reader. Each reader returns all the packets of the trace.
+	 */
+	public TraceReader getReader(int i) {
+		return readers[i];
+	}
+
+	public int getNumReaders() {
+		return readers.length;
+	}
+
+	/**
+	 * Returns the position of the slowest reader.
+	 */
+	private long getMinTail() {
+		long minTail = Long.MAX_VALUE;
+		for (Reader reader : readers) {
+			minTail = Math.min(minTail, reader.tail.get());
+		}
+		return minTail;
+	}
+
+	private void produce() {
+		TraceRecord record = new TraceRecord();
+		long position = 0;
+		try {
+			while (!closed && source.next(record)) {
+				if (position - cachedTail > mask) {
+					// Full: make all the written slots visible before waiting
+					head.lazySet(position);
+					cachedTail = getMinTail();
+					if (position - cachedTail > mask) {
+						producerWaits++;
+						int spins = 0;
+						while (position - (cachedTail = getMinTail()) > mask) {
+							if (closed) {
+								return;
+							}
+							spins = backOff(spins);
+						}
+					}
+				}
+				int slot = (int) position & mask;
+				timestamps[slot] = record.getTimestamp();
+				srcIps[slot] = record.getSrcIp();
+				dstIps[slot] = record.getDstIp();
+				bytes[slot] = record.getBytes();
+				lowLatency[slot] = record.isLowLatency();
+				sources[slot] = record.getSource();
+				trafficClasses[slot] = (byte) record.getTrafficClass();
+				position++;
+				if ((position & (BATCH_SIZE - 1)) == 0) {
+					head.lazySet(position);
+				}
+			}
+		} catch (IOException e) {
+			if (!closed) {
+				error = e;
+			}
+		} finally {
+			head.set(position);
+			finished = true;
+		}
+	}
+
+	private static int backOff(int spins) {
+		if (spins < SPINS_BEFORE_PARKING) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+		return spins + 1;
+	}
+
+	/**
+	 * Returns the number of times the reader found the ring buffer full, waiting
+	 * for the slowest simulation.
+	 */
+	public long getProducerWaits() {
+		return producerWaits;
+	}
+
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	private void closeSource() throws IOException {
+		closed = true;
+		if (Thread.currentThread() != producer) {
+			try {
+				producer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		source.close();
+	}
+}
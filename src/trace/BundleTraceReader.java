@@ -0,0 +1,295 @@
+package trace;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reads a trace once in a background thread and routes each packet to the
+ * reader of the bundle of a fabric to which it is mapped, so that each bundle
+ * can be simulated on its own. The packets are mapped to the bundles with one
+ * of the following rules:
+ *
+ * <ul>
+ * <li>HASH: by hash of the bits [startBitDstIp, endBitDstIp) of the
+ * destination IP address and the input trace of the packet (as ECMP does), so
+ * that all the packets of a flow are sent through the same bundle.</li>
+ * <li>SOURCE: by the input trace of the packet (see
+ * TraceReaderFactory.getInputFiles()), e.g., one trace per bundle.</li>
+ * </ul>
+ *
+ * The bundle of each packet is computed once, by the producer thread, which
+ * decodes the packets into a single-producer single-consumer ring buffer of
+ * preallocated primitive slots per bundle (as PrefetchingTraceReader). Thus,
+ * each bundle only handles its own packets, and it only waits for the other
+ * bundles when the producer finds its ring buffer full. Each reader must be
+ * consumed by its own thread.
+ *
+ * @author pfondo
+ *
+ */
+public class BundleTraceReader {
+	public enum Rule {
+		HASH, SOURCE
+	}
+
+	// The producer publishes the written slots of a ring buffer every BATCH_SIZE
+	// packets
+	private static final int BATCH_SIZE = 256;
+	private static final int SPINS_BEFORE_PARKING = 100;
+	private static final long PARK_NANOS = 20000;
+
+	private final TraceReader source;
+	private final Rule rule;
+	private final int numBundles;
+	private final int startBitDstIp;
+	private final int endBitDstIp;
+
+	private final Reader[] readers;
+	private final AtomicInteger openReaders;
+
+	private volatile boolean finished = false;
+	private volatile boolean closed = false;
+	private volatile IOException error = null;
+	private final Thread producer;
+
+	private volatile long producerWaits = 0;
+
+	/**
+	 * Ring buffer and reader of the packets of one of the bundles.
+	 */
+	private class Reader implements TraceReader {
+
+		private final int mask;
+		private final long[] timestamps;
+		private final int[] srcIps;
+		private final int[] dstIps;
+		private final int[] bytes;
+		private final boolean[] lowLatency;
+		private final int[] sources;
+		private final byte[] trafficClasses;
+
+		// Next slot to be written (published by the producer)
+		private final AtomicLong head = new AtomicLong();
+		// Next slot to be read (published by the consumer)
+		private final AtomicLong tail = new AtomicLong();
+
+		// Producer side
+		private long writePosition = 0;
+		private long cachedTail = 0;
+
+		// Consumer side
+		private long cachedHead = 0;
+		private boolean readerClosed = false;
+
+		public Reader(int size) {
+			this.mask = size - 1;
+			this.timestamps = new long[size];
+			this.srcIps = new int[size];
+			this.dstIps = new int[size];
+			this.bytes = new int[size];
+			this.lowLatency = new boolean[size];
+			this.sources = new int[size];
+			this.trafficClasses = new byte[size];
+		}
+
+		/**
+		 * Writes the packet in the ring buffer, waiting for the consumer if it is
+		 * full. Called by the producer.
+		 *
+		 * @return false if the trace has been closed while waiting.
+		 */
+		private boolean put(TraceRecord record) {
+			if (writePosition - cachedTail > mask) {
+				// Full: make the written slots of all the bundles visible before waiting
+				publishAll();
+				cachedTail = tail.get();
+				if (writePosition - cachedTail > mask) {
+					producerWaits++;
+					int spins = 0;
+					while (writePosition - (cachedTail = tail.get()) > mask) {
+						if (closed) {
+							return false;
+						}
+						spins = backOff(spins);
+					}
+				}
+			}
+			int slot = (int) writePosition & mask;
+			timestamps[slot] = record.getTimestamp();
+			srcIps[slot] = record.getSrcIp();
+			dstIps[slot] = record.getDstIp();
+			bytes[slot] = record.getBytes();
+			lowLatency[slot] = record.isLowLatency();
+			sources[slot] = record.getSource();
+			trafficClasses[slot] = (byte) record.getTrafficClass();
+			writePosition++;
+			if ((writePosition & (BATCH_SIZE - 1)) == 0) {
+				head.lazySet(writePosition);
+			}
+			return true;
+		}
+
+		@Override
+		public boolean next(TraceRecord record) throws IOException {
+			long position = tail.get();
+			if (position == cachedHead) {
+				cachedHead = head.get();
+				int spins = 0;
+				while (position == cachedHead) {
+					if (finished) {
+						// The last slots are published before finishing
+						cachedHead = head.get();
+						if (position == cachedHead) {
+							if (error != null) {
+								throw error;
+							}
+							return false;
+						}
+						break;
+					}
+					spins = backOff(spins);
+					cachedHead = head.get();
+				}
+			}
+			int slot = (int) position & mask;
+			record.set(timestamps[slot], srcIps[slot], dstIps[slot], bytes[slot], lowLatency[slot], sources[slot]);
+			record.setTrafficClass(trafficClasses[slot]);
+			tail.lazySet(position + 1);
+			return true;
+		}
+
+		/**
+		 * The producer no longer waits for this reader. The trace is closed once all
+		 * the readers are closed.
+		 */
+		@Override
+		public void close() throws IOException {
+			if (readerClosed) {
+				return;
+			}
+			readerClosed = true;
+			tail.set(Long.MAX_VALUE);
+			if (openReaders.decrementAndGet() == 0) {
+				closeSource();
+			}
+		}
+	}
+
+	/**
+	 * @param source
+	 *            Reader that will be run in the background thread.
+	 * @param capacity
+	 *            Number of slots of the ring buffers of all the bundles, which is
+	 *            split among them (each one is rounded up to a power of 2).
+	 * @param numBundles
+	 *            Number of bundles (see getReader()).
+	 */
+	public BundleTraceReader(TraceReader source, int capacity, Rule rule, int numBundles, int startBitDstIp,
+			int endBitDstIp) {
+		this.source = source;
+		this.rule = rule;
+		this.numBundles = numBundles;
+		this.startBitDstIp = startBitDstIp;
+		this.endBitDstIp = endBitDstIp;
+		int bundleCapacity = Math.max(capacity / numBundles, 4 * BATCH_SIZE);
+		int size = Integer.highestOneBit(bundleCapacity - 1) << 1;
+		this.readers = new Reader[numBundles];
+		for (int i = 0; i < numBundles; i++) {
+			readers[i] = new Reader(size);
+		}
+		this.openReaders = new AtomicInteger(numBundles);
+		this.producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				produce();
+			}
+		}, "trace-bundles");
+		this.producer.setDaemon(true);
+		this.producer.start();
+	}
+
+	/**
+	 * Returns the reader of the packets mapped to the given bundle, from 0 to
+	 * numBundles - 1.
+	 */
+	public TraceReader getReader(int bundle) {
+		return readers[bundle];
+	}
+
+	/**
+	 * Returns the index of the bundle to which the packet is mapped.
+	 */
+	public int getBundle(TraceRecord record) {
+		switch (rule) {
+		case SOURCE:
+			return record.getSource() % numBundles;
+		case HASH:
+		default:
+			int dstBits = endBitDstIp - startBitDstIp;
+			long prefix = ((record.getDstIp() & 0xFFFFFFFFL) >>> (32 - endBitDstIp)) & ((1L << dstBits) - 1);
+			long hash = ((prefix << 8) | record.getSource()) * 0x9E3779B97F4A7C15L;
+			return (int) ((hash >>> 32) % numBundles);
+		}
+	}
+
+	private void publishAll() {
+		for (Reader reader : readers) {
+			reader.head.lazySet(reader.writePosition);
+		}
+	}
+
+	private void produce() {
+		TraceRecord record = new TraceRecord();
+		try {
+			while (!closed && source.next(record)) {
+				if (!readers[getBundle(record)].put(record)) {
+					return;
+				}
+			}
+		} catch (IOException e) {
+			if (!closed) {
+				error = e;
+			}
+		} catch (RuntimeException e) {
+			if (!closed) {
+				error = new IOException("Error reading the trace", e);
+			}
+		} finally {
+			for (Reader reader : readers) {
+				reader.head.set(reader.writePosition);
+			}
+			finished = true;
+		}
+	}
+
+	private static int backOff(int spins) {
+		if (spins < SPINS_BEFORE_PARKING) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+		return spins + 1;
+	}
+
+	/**
+	 * Returns the number of times the reader found the ring buffer of a bundle
+	 * full, waiting for its simulation.
+	 */
+	public long getProducerWaits() {
+		return producerWaits;
+	}
+
+	private void closeSource() throws IOException {
+		closed = true;
+		if (Thread.currentThread() != producer) {
+			try {
+				producer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		source.close();
+	}
+}
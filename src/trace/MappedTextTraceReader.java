@@ -0,0 +1,98 @@
+package trace;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Text trace reader that maps the file in memory (in windows, so that traces
+ * larger than 2 GB are supported) and parses the packets in place, without
+ * creating any object per packet.
+ * 
+ * @author pfondo
+ *
+ */
+public class MappedTextTraceReader implements SeekableTraceReader {
+
+	private static final long WINDOW_SIZE = 1L << 28; // 256 MB
+
+	private final FileChannel channel;
+	private final long fileSize;
+	private final TextTraceParser parser;
+
+	private MappedByteBuffer buffer;
+	private long windowStart; // Offset in the file of the first byte of the window
+	private int position; // Position in the window of the next line
+	private long recordOffset; // Offset in the file of the last packet read
+
+	public MappedTextTraceReader(String inputFile, double speed) throws IOException {
+		this.channel = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ);
+		this.fileSize = channel.size();
+		this.parser = new TextTraceParser(speed);
+		map(0);
+	}
+
+	private void map(long offset) throws IOException {
+		windowStart = offset;
+		position = 0;
+		buffer = channel.map(MapMode.READ_ONLY, offset, Math.min(WINDOW_SIZE, fileSize - offset));
+	}
+
+	@Override
+	public boolean next(TraceRecord record) throws IOException {
+		while (windowStart + position < fileSize) {
+			int limit = buffer.limit();
+			int lineEnd = position;
+			while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+				lineEnd++;
+			}
+			if (lineEnd == limit && windowStart + limit < fileSize) {
+				// The line continues in the next window
+				if (position == 0) {
+					throw new IOException("Line too long at offset " + windowStart);
+				}
+				map(windowStart + position);
+				continue;
+			}
+			int lineStart = position;
+			position = lineEnd + 1;
+			int result = parser.parse(buffer, lineStart, lineEnd, record);
+			if (result == TextTraceParser.RECORD) {
+				recordOffset = windowStart + lineStart;
+				record.setOffset(recordOffset, 0);
+				return true;
+			} else if (result == TextTraceParser.ERROR) {
+				System.err.println("Error on line: " + TextTraceParser.toString(buffer, lineStart, lineEnd));
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public long getRecordOffset() {
+		return recordOffset;
+	}
+
+	@Override
+	public long getRecordState() {
+		return 0;
+	}
+
+	@Override
+	public void seek(long offset, long state) throws IOException {
+		if (offset >= windowStart && offset <= windowStart + buffer.limit()) {
+			position = (int) (offset - windowStart);
+		} else {
+			map(offset);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		buffer = null;
+		channel.close();
+	}
+}
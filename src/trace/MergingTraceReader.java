@@ -0,0 +1,122 @@
+package trace;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Merges several traces by timestamp on the fly (k-way merge with a binary
+ * heap), so that they can be simulated as a single trace without writing a
+ * merged copy to disk. Each packet is tagged with the position of its trace in
+ * the list of sources. Packets with the same timestamp are returned in the
+ * order of their sources.
+ *
+ * @author pfondo
+ *
+ */
+public class MergingTraceReader implements TraceReader {
+
+	private final TraceReader[] sources;
+	// Next packet of each source
+	private final TraceRecord[] heads;
+	// Min-heap of the sources with pending packets
+	private final int[] heap;
+	private int heapSize = 0;
+	private boolean started = false;
+
+	public MergingTraceReader(List<TraceReader> sources) {
+		this.sources = sources.toArray(new TraceReader[sources.size()]);
+		this.heads = new TraceRecord[this.sources.length];
+		this.heap = new int[this.sources.length];
+		for (int i = 0; i < heads.length; i++) {
+			heads[i] = new TraceRecord();
+		}
+	}
+
+	private void start() throws IOException {
+		started = true;
+		for (int i = 0; i < sources.length; i++) {
+			if (sources[i].next(heads[i])) {
+				heap[heapSize] = i;
+				siftUp(heapSize++);
+			}
+		}
+	}
+
+	@Override
+	public boolean next(TraceRecord record) throws IOException {
+		if (!started) {
+			start();
+		}
+		if (heapSize == 0) {
+			return false;
+		}
+		int source = heap[0];
+		record.copyFrom(heads[source]);
+		record.setSource(source);
+		if (!sources[source].next(heads[source])) {
+			heap[0] = heap[--heapSize];
+		}
+		siftDown(0);
+		return true;
+	}
+
+	private boolean less(int a, int b) {
+		long timestampA = heads[a].getTimestamp();
+		long timestampB = heads[b].getTimestamp();
+		return timestampA < timestampB || (timestampA == timestampB && a < b);
+	}
+
+	private void siftUp(int position) {
+		int source = heap[position];
+		while (position > 0) {
+			int parent = (position - 1) >>> 1;
+			if (!less(source, heap[parent])) {
+				break;
+			}
+			heap[position] = heap[parent];
+			position = parent;
+		}
+		heap[position] = source;
+	}
+
+	private void siftDown(int position) {
+		if (heapSize == 0) {
+			return;
+		}
+		int source = heap[position];
+		while (true) {
+			int child = 2 * position + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			if (child + 1 < heapSize && less(heap[child + 1], heap[child])) {
+				child++;
+			}
+			if (!less(heap[child], source)) {
+				break;
+			}
+			heap[position] = heap[child];
+			position = child;
+		}
+		heap[position] = source;
+	}
+
+	public int getNumSources() {
+		return sources.length;
+	}
+
+	@Override
+	public void close() throws IOException {
+		IOException exception = null;
+		for (TraceReader source : sources) {
+			try {
+				source.close();
+			} catch (IOException e) {
+				exception = e;
+			}
+		}
+		if (exception != null) {
+			throw exception;
+		}
+	}
+}
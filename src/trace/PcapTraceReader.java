@@ -0,0 +1,444 @@
+package trace;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the IPv4 packets of pcap and pcapng captures, so that they can be used
+ * as input of the simulator without converting them to a text trace.
+ *
+ * The timestamp of each packet is taken relative to the first packet of the
+ * capture (or to the given time base), and the length is the original length of the frame. Supported link
+ * types are Ethernet (including 802.1Q/802.1ad tags), Linux cooked capture (v1
+ * and v2), BSD loopback and raw IP. Packets that are not IPv4 are skipped. A
+ * packet is considered low-latency when the DSCP value of its IPv4 header is
+ * one of the configured values.
+ *
+ * @author pfondo
+ *
+ */
+public class PcapTraceReader implements TraceReader {
+
+	/**
+	 * Expedited Forwarding (RFC 3246).
+	 */
+	public static final int[] DEFAULT_LOW_LATENCY_DSCP = { 46 };
+
+	private static final int BUFFER_SIZE = 1 << 23; // 8 MB
+
+	// Bytes of each packet that are inspected (link and IPv4 headers)
+	private static final int MAX_HEADERS_SIZE = 128;
+
+	private static final int PCAP_MAGIC_MICROSECONDS = 0xa1b2c3d4;
+	private static final int PCAP_MAGIC_NANOSECONDS = 0xa1b23c4d;
+	private static final int PCAPNG_SECTION_HEADER_BLOCK = 0x0a0d0d0a;
+	private static final int PCAPNG_BYTE_ORDER_MAGIC = 0x1a2b3c4d;
+	private static final int PCAPNG_INTERFACE_DESCRIPTION_BLOCK = 1;
+	private static final int PCAPNG_SIMPLE_PACKET_BLOCK = 3;
+	private static final int PCAPNG_ENHANCED_PACKET_BLOCK = 6;
+	private static final int PCAPNG_OPTION_END = 0;
+	private static final int PCAPNG_OPTION_IF_TSRESOL = 9;
+
+	private static final int LINKTYPE_NULL = 0;
+	private static final int LINKTYPE_ETHERNET = 1;
+	private static final int LINKTYPE_RAW_OPENBSD = 12;
+	private static final int LINKTYPE_RAW = 101;
+	private static final int LINKTYPE_LINUX_SLL = 113;
+	private static final int LINKTYPE_IPV4 = 228;
+	private static final int LINKTYPE_LINUX_SLL2 = 276;
+
+	private static final int ETHERTYPE_IPV4 = 0x0800;
+	private static final int ETHERTYPE_VLAN = 0x8100;
+	private static final int ETHERTYPE_QINQ = 0x88a8;
+
+	private final ReadableByteChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final double speed;
+	private final boolean[] lowLatencyDscp = new boolean[64];
+	private final boolean pcapng;
+	private boolean eof = false;
+
+	// pcap: link type and timestamp resolution of the whole capture
+	private int linkType;
+	private boolean nanoseconds;
+
+	// pcapng: link type and timestamp resolution of each interface of the current
+	// section
+	private final List<Integer> interfaceLinkTypes = new ArrayList<Integer>();
+	private final List<Long> interfaceTimestampUnits = new ArrayList<Long>();
+
+	private boolean timeBaseSet = false;
+	private long timeBase;
+	private long lastTimestamp;
+
+	// First packet, read in advance to know its timestamp (see
+	// getFirstTimestamp())
+	private TraceRecord firstRecord = null;
+	private boolean firstRecordPending = false;
+
+	/**
+	 * @param channel
+	 *            Channel positioned at the beginning of the capture.
+	 * @param speed
+	 *            Relative speed of the trace.
+	 * @param lowLatencyDscp
+	 *            DSCP values of the low-latency packets.
+	 */
+	public PcapTraceReader(ReadableByteChannel channel, double speed, int[] lowLatencyDscp) throws IOException {
+		this.channel = channel;
+		this.speed = speed;
+		for (int dscp : lowLatencyDscp) {
+			if (dscp >= 0 && dscp < this.lowLatencyDscp.length) {
+				this.lowLatencyDscp[dscp] = true;
+			}
+		}
+		buffer.limit(0);
+		if (!ensure(24)) {
+			throw new IOException("Truncated capture header");
+		}
+		buffer.order(ByteOrder.BIG_ENDIAN);
+		int magic = buffer.getInt(buffer.position());
+		if (magic == PCAPNG_SECTION_HEADER_BLOCK) {
+			pcapng = true;
+		} else {
+			pcapng = false;
+			if (magic != PCAP_MAGIC_MICROSECONDS && magic != PCAP_MAGIC_NANOSECONDS) {
+				buffer.order(ByteOrder.LITTLE_ENDIAN);
+				magic = buffer.getInt(buffer.position());
+			}
+			if (magic != PCAP_MAGIC_MICROSECONDS && magic != PCAP_MAGIC_NANOSECONDS) {
+				throw new IOException("Not a pcap/pcapng capture");
+			}
+			nanoseconds = magic == PCAP_MAGIC_NANOSECONDS;
+			linkType = buffer.getInt(buffer.position() + 20) & 0xffff;
+			buffer.position(buffer.position() + 24);
+		}
+	}
+
+	/**
+	 * Returns true if the given first bytes of a file correspond to a pcap or
+	 * pcapng capture.
+	 */
+	public static boolean hasMagic(byte[] header) {
+		if (header.length < 4) {
+			return false;
+		}
+		int bigEndian = ((header[0] & 0xff) << 24) | ((header[1] & 0xff) << 16) | ((header[2] & 0xff) << 8)
+				| (header[3] & 0xff);
+		int littleEndian = Integer.reverseBytes(bigEndian);
+		return bigEndian == PCAPNG_SECTION_HEADER_BLOCK || bigEndian == PCAP_MAGIC_MICROSECONDS
+				|| bigEndian == PCAP_MAGIC_NANOSECONDS || littleEndian == PCAP_MAGIC_MICROSECONDS
+				|| littleEndian == PCAP_MAGIC_NANOSECONDS;
+	}
+
+	/**
+	 * Makes sure that at least the given number of bytes are available in the
+	 * buffer. Returns false if the end of the capture is reached before.
+	 */
+	private boolean ensure(int bytes) throws IOException {
+		while (buffer.remaining() < bytes) {
+			if (eof) {
+				return false;
+			}
+			buffer.compact();
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					eof = true;
+					break;
+				}
+			}
+			buffer.flip();
+		}
+		return true;
+	}
+
+	/**
+	 * Skips the given number of bytes, reading beyond the buffer if needed.
+	 */
+	private boolean skip(long bytes) throws IOException {
+		while (bytes > buffer.remaining()) {
+			bytes -= buffer.remaining();
+			buffer.position(buffer.limit());
+			if (!ensure(1)) {
+				return false;
+			}
+		}
+		buffer.position(buffer.position() + (int) bytes);
+		return true;
+	}
+
+	@Override
+	public boolean next(TraceRecord record) throws IOException {
+		if (firstRecordPending) {
+			firstRecordPending = false;
+			record.copyFrom(firstRecord);
+		} else if (!(pcapng ? nextPcapng(record) : nextPcap(record))) {
+			return false;
+		}
+		if (!timeBaseSet) {
+			setTimeBase(record.getTimestamp());
+		}
+		long time = record.getTimestamp() - timeBase;
+		if (speed != 1) {
+			time = (long) (time / speed);
+		}
+		record.setTimestamp(time);
+		return true;
+	}
+
+	/**
+	 * Returns the absolute timestamp (nanoseconds) of the first packet of the
+	 * capture, or Long.MAX_VALUE if it has no packets. Must be called before
+	 * reading any packet.
+	 */
+	public long getFirstTimestamp() throws IOException {
+		if (firstRecord == null) {
+			firstRecord = new TraceRecord();
+			firstRecordPending = pcapng ? nextPcapng(firstRecord) : nextPcap(firstRecord);
+		}
+		return firstRecordPending ? firstRecord.getTimestamp() : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Sets the absolute timestamp (nanoseconds) that will be time 0 of the trace.
+	 * By default, it is the timestamp of the first packet of the capture. This is
+	 * used to keep the same time reference when several captures are merged.
+	 */
+	public void setTimeBase(long timeBase) {
+		this.timeBase = timeBase;
+		this.timeBaseSet = true;
+	}
+
+	private boolean nextPcap(TraceRecord record) throws IOException {
+		while (ensure(16)) {
+			int position = buffer.position();
+			long seconds = buffer.getInt(position) & 0xffffffffL;
+			long fraction = buffer.getInt(position + 4) & 0xffffffffL;
+			int capturedLength = buffer.getInt(position + 8);
+			int originalLength = buffer.getInt(position + 12);
+			buffer.position(position + 16);
+			if (capturedLength < 0) {
+				System.err.println("Corrupted record in the pcap capture");
+				return false;
+			}
+			long timestamp = seconds * 1000000000L + (nanoseconds ? fraction : fraction * 1000L);
+			if (!ensure(Math.min(capturedLength, MAX_HEADERS_SIZE))) {
+				return false;
+			}
+			boolean found = parsePacket(record, linkType, buffer.position(), capturedLength, originalLength,
+					timestamp);
+			if (!skip(capturedLength)) {
+				return false;
+			}
+			if (found) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean nextPcapng(TraceRecord record) throws IOException {
+		while (ensure(12)) {
+			int position = buffer.position();
+			int blockType = buffer.getInt(position);
+			if (blockType == PCAPNG_SECTION_HEADER_BLOCK) {
+				// The byte order may change from one section to another
+				buffer.order(ByteOrder.BIG_ENDIAN);
+				if (buffer.getInt(position + 8) != PCAPNG_BYTE_ORDER_MAGIC) {
+					buffer.order(ByteOrder.LITTLE_ENDIAN);
+				}
+				if (buffer.getInt(position + 8) != PCAPNG_BYTE_ORDER_MAGIC) {
+					System.err.println("Corrupted section header in the pcapng capture");
+					return false;
+				}
+				interfaceLinkTypes.clear();
+				interfaceTimestampUnits.clear();
+			}
+			long blockLength = buffer.getInt(position + 4) & 0xffffffffL;
+			if (blockLength < 12) {
+				System.err.println("Corrupted block in the pcapng capture");
+				return false;
+			}
+			if (!ensure((int) Math.min(blockLength, MAX_HEADERS_SIZE + 28))) {
+				return false;
+			}
+			// The buffer may have been compacted
+			position = buffer.position();
+			boolean found = false;
+			if (blockType == PCAPNG_INTERFACE_DESCRIPTION_BLOCK) {
+				// Options may be anywhere in the block
+				if (blockLength > BUFFER_SIZE || !ensure((int) blockLength)) {
+					return false;
+				}
+				parseInterfaceDescription(buffer.position(), (int) blockLength);
+			} else if (blockType == PCAPNG_ENHANCED_PACKET_BLOCK && blockLength >= 32) {
+				int interfaceId = buffer.getInt(position + 8);
+				long units = ((buffer.getInt(position + 12) & 0xffffffffL) << 32)
+						| (buffer.getInt(position + 16) & 0xffffffffL);
+				int capturedLength = buffer.getInt(position + 20);
+				int originalLength = buffer.getInt(position + 24);
+				if (interfaceId >= 0 && interfaceId < interfaceLinkTypes.size()) {
+					long timestamp = toNanoseconds(units, interfaceTimestampUnits.get(interfaceId));
+					capturedLength = (int) Math.min(capturedLength & 0xffffffffL, blockLength - 32);
+					found = parsePacket(record, interfaceLinkTypes.get(interfaceId), position + 28, capturedLength,
+							originalLength, timestamp);
+				}
+			} else if (blockType == PCAPNG_SIMPLE_PACKET_BLOCK && blockLength >= 16
+					&& !interfaceLinkTypes.isEmpty()) {
+				// Simple packet blocks do not have timestamp
+				int originalLength = buffer.getInt(position + 8);
+				int capturedLength = (int) Math.min(originalLength & 0xffffffffL, blockLength - 16);
+				found = parsePacket(record, interfaceLinkTypes.get(0), position + 12, capturedLength, originalLength,
+						-1);
+			}
+			if (!skip(blockLength)) {
+				return false;
+			}
+			if (found) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void parseInterfaceDescription(int position, int blockLength) {
+		int linkType = buffer.getShort(position + 8) & 0xffff;
+		long timestampUnit = 6; // Microseconds by default
+		int option = position + 16;
+		int end = position + blockLength - 4;
+		while (option + 4 <= end) {
+			int code = buffer.getShort(option) & 0xffff;
+			int length = buffer.getShort(option + 2) & 0xffff;
+			if (code == PCAPNG_OPTION_END) {
+				break;
+			}
+			if (code == PCAPNG_OPTION_IF_TSRESOL && length >= 1) {
+				timestampUnit = buffer.get(option + 4) & 0xff;
+			}
+			option += 4 + ((length + 3) & ~3);
+		}
+		interfaceLinkTypes.add(linkType);
+		interfaceTimestampUnits.add(timestampUnit);
+	}
+
+	/**
+	 * Converts a pcapng timestamp to nanoseconds given the if_tsresol value of the
+	 * interface (negative power of 10, or of 2 if the most significant bit is set).
+	 */
+	private static long toNanoseconds(long units, long resolution) {
+		int exponent = (int) (resolution & 0x7f);
+		if ((resolution & 0x80) != 0) {
+			if (exponent == 0) {
+				return units * 1000000000L;
+			}
+			long seconds = units >>> exponent;
+			long fraction = units & ((1L << exponent) - 1);
+			return seconds * 1000000000L + (long) (fraction * 1e9 / Math.pow(2, exponent));
+		}
+		if (exponent <= 9) {
+			long multiplier = 1;
+			for (int i = exponent; i < 9; i++) {
+				multiplier *= 10;
+			}
+			return units * multiplier;
+		}
+		long divisor = 1;
+		for (int i = 9; i < exponent && i < 27; i++) {
+			divisor *= 10;
+		}
+		return units / divisor;
+	}
+
+	/**
+	 * Extracts the IPv4 fields of the packet stored at the given position of the
+	 * buffer. Returns false if it is not an IPv4 packet.
+	 *
+	 * @param timestamp
+	 *            Absolute timestamp in nanoseconds, or -1 if unknown.
+	 */
+	private boolean parsePacket(TraceRecord record, int linkType, int start, int capturedLength,
+			int originalLength, long timestamp) {
+		int end = start + Math.min(capturedLength, buffer.limit() - start);
+		int ip;
+		switch (linkType) {
+		case LINKTYPE_ETHERNET:
+			ip = start + 12;
+			if (ip + 2 > end) {
+				return false;
+			}
+			int etherType = getUnsignedShort(ip);
+			while ((etherType == ETHERTYPE_VLAN || etherType == ETHERTYPE_QINQ) && ip + 6 <= end) {
+				ip += 4;
+				etherType = getUnsignedShort(ip);
+			}
+			if (etherType != ETHERTYPE_IPV4) {
+				return false;
+			}
+			ip += 2;
+			break;
+		case LINKTYPE_LINUX_SLL:
+			if (start + 16 > end || getUnsignedShort(start + 14) != ETHERTYPE_IPV4) {
+				return false;
+			}
+			ip = start + 16;
+			break;
+		case LINKTYPE_LINUX_SLL2:
+			if (start + 20 > end || getUnsignedShort(start) != ETHERTYPE_IPV4) {
+				return false;
+			}
+			ip = start + 20;
+			break;
+		case LINKTYPE_NULL:
+			// Address family in the byte order of the capturing host
+			if (start + 4 > end || (buffer.get(start) != 2 && buffer.get(start + 3) != 2)) {
+				return false;
+			}
+			ip = start + 4;
+			break;
+		case LINKTYPE_RAW:
+		case LINKTYPE_RAW_OPENBSD:
+		case LINKTYPE_IPV4:
+			ip = start;
+			break;
+		default:
+			return false;
+		}
+		if (ip + 20 > end || (buffer.get(ip) & 0xf0) != 0x40) {
+			return false;
+		}
+		int dscp = (buffer.get(ip + 1) & 0xff) >>> 2;
+		int srcIp = getInt(ip + 12);
+		int dstIp = getInt(ip + 16);
+
+		if (timestamp < 0) {
+			timestamp = lastTimestamp;
+		}
+		lastTimestamp = timestamp;
+		// The timestamp is made relative and scaled in next()
+		record.set(timestamp, srcIp, dstIp, originalLength, lowLatencyDscp[dscp]);
+		// Class selector (the 3 most significant bits of the DSCP)
+		record.setTrafficClass(dscp >>> 3);
+		return true;
+	}
+
+	// Packet headers are always in network byte order, regardless of the byte
+	// order of the capture
+
+	private int getUnsignedShort(int position) {
+		return ((buffer.get(position) & 0xff) << 8) | (buffer.get(position + 1) & 0xff);
+	}
+
+	private int getInt(int position) {
+		return ((buffer.get(position) & 0xff) << 24) | ((buffer.get(position + 1) & 0xff) << 16)
+				| ((buffer.get(position + 2) & 0xff) << 8) | (buffer.get(position + 3) & 0xff);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
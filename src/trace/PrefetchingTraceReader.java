@@ -0,0 +1,227 @@
+package trace;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reads a trace in a background thread, so that the decoding of the packets
+ * overlaps with the simulation.
+ *
+ * The producer thread decodes the packets into a single-producer
+ * single-consumer ring buffer of preallocated primitive slots, and the
+ * simulation thread consumes them in the same order as the underlying reader
+ * returns them. The ring buffer also keeps counters that show whether the
+ * simulation is waiting for the trace (I/O-bound) or the other way round
+ * (CPU-bound).
+ *
+ * @author pfondo
+ *
+ */
+public class PrefetchingTraceReader implements TraceReader {
+
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	// The producer publishes the written slots every BATCH_SIZE packets
+	private static final int BATCH_SIZE = 256;
+	private static final int SPINS_BEFORE_PARKING = 100;
+	private static final long PARK_NANOS = 20000;
+
+	private final TraceReader source;
+	private final int mask;
+
+	private final long[] timestamps;
+	private final int[] srcIps;
+	private final int[] dstIps;
+	private final int[] bytes;
+	private final boolean[] lowLatency;
+	private final int[] sources;
+	private final byte[] trafficClasses;
+	private final long[] offsets;
+	private final long[] offsetStates;
+
+	// Next slot to be written (published by the producer)
+	private final AtomicLong head = new AtomicLong();
+	// Next slot to be read (published by the consumer)
+	private final AtomicLong tail = new AtomicLong();
+
+	private volatile boolean finished = false;
+	private volatile boolean closed = false;
+	private volatile IOException error = null;
+	private final Thread producer;
+
+	// Consumer side
+	private long cachedHead = 0;
+	private long consumerWaits = 0;
+	private long occupancySamples = 0;
+	private long accOccupancy = 0;
+
+	// Producer side
+	private long cachedTail = 0;
+	private volatile long producerWaits = 0;
+
+	/**
+	 * @param source
+	 *            Reader that will be run in the background thread.
+	 * @param capacity
+	 *            Number of slots of the ring buffer (rounded up to a power of 2).
+	 */
+	public PrefetchingTraceReader(TraceReader source, int capacity) {
+		this.source = source;
+		int size = Integer.highestOneBit(Math.max(capacity, BATCH_SIZE) - 1) << 1;
+		this.mask = size - 1;
+		this.timestamps = new long[size];
+		this.srcIps = new int[size];
+		this.dstIps = new int[size];
+		this.bytes = new int[size];
+		this.lowLatency = new boolean[size];
+		this.sources = new int[size];
+		this.trafficClasses = new byte[size];
+		this.offsets = new long[size];
+		this.offsetStates = new long[size];
+		this.producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				produce();
+			}
+		}, "trace-reader");
+		this.producer.setDaemon(true);
+		this.producer.start();
+	}
+
+	private void produce() {
+		TraceRecord record = new TraceRecord();
+		long position = 0;
+		try {
+			while (!closed && source.next(record)) {
+				if (position - cachedTail > mask) {
+					// Full: make all the written slots visible before waiting
+					head.lazySet(position);
+					cachedTail = tail.get();
+					if (position - cachedTail > mask) {
+						producerWaits++;
+						int spins = 0;
+						while (position - (cachedTail = tail.get()) > mask) {
+							if (closed) {
+								return;
+							}
+							spins = backOff(spins);
+						}
+					}
+				}
+				int slot = (int) position & mask;
+				timestamps[slot] = record.getTimestamp();
+				srcIps[slot] = record.getSrcIp();
+				dstIps[slot] = record.getDstIp();
+				bytes[slot] = record.getBytes();
+				lowLatency[slot] = record.isLowLatency();
+				sources[slot] = record.getSource();
+				trafficClasses[slot] = (byte) record.getTrafficClass();
+				offsets[slot] = record.getOffset();
+				offsetStates[slot] = record.getOffsetState();
+				position++;
+				if ((position & (BATCH_SIZE - 1)) == 0) {
+					head.lazySet(position);
+				}
+			}
+		} catch (IOException e) {
+			if (!closed) {
+				error = e;
+			}
+		} catch (RuntimeException e) {
+			// E.g., a malformed line of a text trace: reported as an error of the
+			// trace instead of ending it silently
+			if (!closed) {
+				error = new IOException("Error reading the trace", e);
+			}
+		} finally {
+			head.set(position);
+			finished = true;
+		}
+	}
+
+	private static int backOff(int spins) {
+		if (spins < SPINS_BEFORE_PARKING) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+		return spins + 1;
+	}
+
+	@Override
+	public boolean next(TraceRecord record) throws IOException {
+		long position = tail.get();
+		if (position == cachedHead) {
+			cachedHead = head.get();
+			if (position == cachedHead) {
+				consumerWaits++;
+				int spins = 0;
+				while (position == (cachedHead = head.get())) {
+					if (finished) {
+						// The last slots are published before finishing
+						cachedHead = head.get();
+						if (position == cachedHead) {
+							if (error != null) {
+								throw error;
+							}
+							return false;
+						}
+						break;
+					}
+					spins = backOff(spins);
+				}
+			}
+			occupancySamples++;
+			accOccupancy += cachedHead - position;
+		}
+		int slot = (int) position & mask;
+		record.set(timestamps[slot], srcIps[slot], dstIps[slot], bytes[slot], lowLatency[slot], sources[slot]);
+		record.setTrafficClass(trafficClasses[slot]);
+		record.setOffset(offsets[slot], offsetStates[slot]);
+		tail.lazySet(position + 1);
+		return true;
+	}
+
+	/**
+	 * Returns the number of times the simulation had to wait for the trace to be
+	 * read. A high value means that the simulation is I/O-bound.
+	 */
+	public long getConsumerWaits() {
+		return consumerWaits;
+	}
+
+	/**
+	 * Returns the number of times the reader found the ring buffer full. A high
+	 * value means that the simulation is CPU-bound.
+	 */
+	public long getProducerWaits() {
+		return producerWaits;
+	}
+
+	/**
+	 * Returns the average fraction of the ring buffer that was occupied when the
+	 * simulation fetched new packets.
+	 */
+	public double getAverageOccupancy() {
+		if (occupancySamples == 0) {
+			return 0;
+		}
+		return (double) accOccupancy / occupancySamples / (mask + 1);
+	}
+
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		try {
+			producer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		source.close();
+	}
+}
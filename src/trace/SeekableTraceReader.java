@@ -0,0 +1,36 @@
+package trace;
+
+import java.io.IOException;
+
+/**
+ * Trace reader that can be repositioned at any packet previously read, so that
+ * it can be used with a {@link TraceIndex}.
+ * 
+ * @author pfondo
+ *
+ */
+public interface SeekableTraceReader extends TraceReader {
+
+	/**
+	 * Returns the offset in the file of the last packet read.
+	 */
+	long getRecordOffset();
+
+	/**
+	 * Returns the state of the reader needed to decode the last packet read when
+	 * seeking to its offset (e.g., the timestamp of the previous packet in
+	 * delta-encoded traces).
+	 */
+	long getRecordState();
+
+	/**
+	 * Repositions the reader, so that the next packet read is the one at the
+	 * given offset.
+	 * 
+	 * @param offset
+	 *            Value returned by {@link #getRecordOffset()}.
+	 * @param state
+	 *            Value returned by {@link #getRecordState()}.
+	 */
+	void seek(long offset, long state) throws IOException;
+}
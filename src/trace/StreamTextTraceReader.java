@@ -0,0 +1,88 @@
+package trace;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Text trace reader for inputs that cannot be mapped in memory (e.g., pipes).
+ * The lines are parsed in place in a reusable buffer.
+ * 
+ * @author pfondo
+ *
+ */
+public class StreamTextTraceReader implements TraceReader {
+
+	private static final int BUFFER_SIZE = 1 << 20; // 1 MB
+
+	private final InputStream inputStream;
+	private final TextTraceParser parser;
+
+	private byte[] bytes = new byte[BUFFER_SIZE];
+	private ByteBuffer buffer = ByteBuffer.wrap(bytes);
+	private int position = 0;
+	private int limit = 0;
+	private boolean eof = false;
+
+	public StreamTextTraceReader(InputStream inputStream, double speed) {
+		this.inputStream = inputStream;
+		this.parser = new TextTraceParser(speed);
+	}
+
+	/**
+	 * Moves the pending bytes to the beginning of the buffer and fills in the
+	 * rest of it.
+	 */
+	private void fill() throws IOException {
+		if (position == 0 && limit == bytes.length) {
+			// Line longer than the buffer: grow it
+			bytes = Arrays.copyOf(bytes, bytes.length * 2);
+			buffer = ByteBuffer.wrap(bytes);
+		} else {
+			System.arraycopy(bytes, position, bytes, 0, limit - position);
+			limit -= position;
+			position = 0;
+		}
+		int read = inputStream.read(bytes, limit, bytes.length - limit);
+		if (read < 0) {
+			eof = true;
+		} else {
+			limit += read;
+		}
+	}
+
+	@Override
+	public boolean next(TraceRecord record) throws IOException {
+		int scanFrom = position;
+		while (true) {
+			int lineEnd = scanFrom;
+			while (lineEnd < limit && bytes[lineEnd] != '\n') {
+				lineEnd++;
+			}
+			if (lineEnd == limit && !eof) {
+				int pending = lineEnd - position;
+				fill();
+				scanFrom = position + pending;
+				continue;
+			}
+			if (position >= limit) {
+				return false;
+			}
+			int lineStart = position;
+			position = lineEnd + 1;
+			scanFrom = position;
+			int result = parser.parse(buffer, lineStart, lineEnd, record);
+			if (result == TextTraceParser.RECORD) {
+				return true;
+			} else if (result == TextTraceParser.ERROR) {
+				System.err.println("Error on line: " + TextTraceParser.toString(buffer, lineStart, lineEnd));
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		inputStream.close();
+	}
+}
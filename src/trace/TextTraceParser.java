@@ -0,0 +1,257 @@
+package trace;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses the lines of a text trace directly from the bytes of a buffer into a
+ * {@link TraceRecord}, without creating intermediate Strings. Each line has the
+ * following format:
+ * 
+ * <pre>
+ * &lt;Timestamp (seconds)&gt; &lt;Source IP&gt; &lt;Destination IP&gt; &lt;Length (bytes)&gt; [low-latency mark]
+ * </pre>
+ * 
+ * If the low-latency mark is an integer between 0 and 7, it is also taken as
+ * the traffic class of the packet.
+ * 
+ * The fields are separated by a single space, as in the original
+ * String.split(" ") based implementation.
+ * 
+ * @author pfondo
+ *
+ */
+public class TextTraceParser {
+
+	public static final int RECORD = 0;
+	public static final int SKIP = 1;
+	public static final int ERROR = 2;
+
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	// Largest mantissa that can be exactly represented in a double
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	private final double speed;
+
+	// End of the last field parsed (exclusive)
+	private int fieldEnd;
+
+	public TextTraceParser(double speed) {
+		this.speed = speed;
+	}
+
+	/**
+	 * Parses the line contained in buffer[start, end), not including the line
+	 * terminator.
+	 * 
+	 * @return RECORD if the record has been filled in, SKIP if the line is a
+	 *         comment or an empty line, ERROR if the line is malformed.
+	 */
+	public int parse(ByteBuffer buffer, int start, int end, TraceRecord record) {
+		if (end > start && buffer.get(end - 1) == '\r') {
+			end -= 1;
+		}
+		// Allow comment lines starting with #
+		if (start >= end || buffer.get(start) == '#') {
+			return SKIP;
+		}
+
+		double seconds = parseDouble(buffer, start, end);
+		if (Double.isNaN(seconds) || fieldEnd >= end) {
+			return ERROR;
+		}
+		// Source IP is not used to identify the flows, so it is not mandatory to
+		// be a valid IPv4 address
+		int srcStart = fieldEnd + 1;
+		int srcIp = parseIp(buffer, srcStart, end);
+		int srcEnd = skipField(buffer, srcStart, end);
+		if (srcEnd >= end) {
+			return ERROR;
+		}
+		int dstIp = parseIp(buffer, srcEnd + 1, end);
+		if (fieldEnd == -1 || fieldEnd >= end) {
+			return ERROR;
+		}
+		long bytes = parseInt(buffer, fieldEnd + 1, end);
+		if (bytes == Long.MIN_VALUE) {
+			return ERROR;
+		}
+		// If the line has more than 4 items then it is a low-latency packet
+		boolean isLowLatency = false;
+		int markStart = end;
+		for (int i = fieldEnd; i < end; i++) {
+			if (buffer.get(i) != ' ') {
+				isLowLatency = true;
+				markStart = i;
+				break;
+			}
+		}
+		// Same conversion as the original implementation to obtain identical
+		// timestamps
+		long time = (long) (1e9 * seconds / speed);
+		record.set(time, srcIp, dstIp, (int) bytes, isLowLatency);
+		if (isLowLatency) {
+			record.setTrafficClass(parseTrafficClass(buffer, markStart, end));
+		}
+		return RECORD;
+	}
+
+	/**
+	 * Parses a single-digit traffic class (0-7) followed by a space or the end of
+	 * the line, or returns 0 otherwise.
+	 */
+	private int parseTrafficClass(ByteBuffer buffer, int start, int end) {
+		byte b = buffer.get(start);
+		if (b < '0' || b > '7' || (start + 1 < end && buffer.get(start + 1) != ' ')) {
+			return 0;
+		}
+		return b - '0';
+	}
+
+	private int skipField(ByteBuffer buffer, int start, int end) {
+		int i = start;
+		while (i < end && buffer.get(i) != ' ') {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Parses a decimal number. Numbers with up to 15-16 significant digits (as
+	 * the timestamps of the traces) are converted with a single exact floating
+	 * point operation, which yields the same (correctly rounded) result as
+	 * Double.parseDouble(). Otherwise, it falls back to Double.parseDouble().
+	 * 
+	 * @return The number or NaN if it could not be parsed.
+	 */
+	private double parseDouble(ByteBuffer buffer, int start, int end) {
+		int i = start;
+		boolean negative = false;
+		if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+			negative = buffer.get(i) == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int decimals = 0;
+		boolean seenDot = false;
+		boolean fastPath = true;
+		for (; i < end; i++) {
+			byte b = buffer.get(i);
+			if (b >= '0' && b <= '9') {
+				if (mantissa < MAX_EXACT_MANTISSA / 10) {
+					mantissa = mantissa * 10 + (b - '0');
+				} else {
+					fastPath = false;
+				}
+				digits++;
+				if (seenDot) {
+					decimals++;
+				}
+			} else if (b == '.' && !seenDot) {
+				seenDot = true;
+			} else if (b == ' ') {
+				break;
+			} else {
+				// Exponents and other unusual representations
+				fastPath = false;
+			}
+		}
+		fieldEnd = i;
+		if (digits == 0 && fastPath) {
+			return Double.NaN;
+		}
+		if (fastPath && decimals < POWERS_OF_TEN.length) {
+			double value = mantissa / POWERS_OF_TEN[decimals];
+			return negative ? -value : value;
+		}
+		try {
+			return Double.parseDouble(toString(buffer, start, i));
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * Parses an integer with the same syntax accepted by Integer.parseInt().
+	 * 
+	 * @return The number or Long.MIN_VALUE if it could not be parsed.
+	 */
+	private long parseInt(ByteBuffer buffer, int start, int end) {
+		int i = start;
+		boolean negative = false;
+		if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+			negative = buffer.get(i) == '-';
+			i++;
+		}
+		long value = 0;
+		int digits = 0;
+		for (; i < end; i++) {
+			byte b = buffer.get(i);
+			if (b >= '0' && b <= '9') {
+				value = value * 10 + (b - '0');
+				digits++;
+				if (value > Integer.MAX_VALUE + 1L) {
+					return Long.MIN_VALUE;
+				}
+			} else if (b == ' ') {
+				break;
+			} else {
+				return Long.MIN_VALUE;
+			}
+		}
+		fieldEnd = i;
+		value = negative ? -value : value;
+		if (digits == 0 || value > Integer.MAX_VALUE) {
+			return Long.MIN_VALUE;
+		}
+		return value;
+	}
+
+	/**
+	 * Parses a dotted IPv4 address.
+	 * 
+	 * @return The address packed in an int. If the address is malformed, returns
+	 *         0 and sets fieldEnd to -1.
+	 */
+	private int parseIp(ByteBuffer buffer, int start, int end) {
+		int ip = 0;
+		int octet = 0;
+		int octetDigits = 0;
+		int octets = 0;
+		int i = start;
+		for (; i < end; i++) {
+			byte b = buffer.get(i);
+			if (b >= '0' && b <= '9') {
+				octet = octet * 10 + (b - '0');
+				octetDigits++;
+				if (octet > 255) {
+					break;
+				}
+			} else if (b == '.' && octetDigits > 0 && octets < 3) {
+				ip = (ip << 8) | octet;
+				octets++;
+				octet = 0;
+				octetDigits = 0;
+			} else {
+				break;
+			}
+		}
+		if (octets == 3 && octetDigits > 0 && octet <= 255 && (i == end || buffer.get(i) == ' ')) {
+			fieldEnd = i;
+			return (ip << 8) | octet;
+		}
+		fieldEnd = -1;
+		return 0;
+	}
+
+	public static String toString(ByteBuffer buffer, int start, int end) {
+		byte[] bytes = new byte[end - start];
+		for (int i = start; i < end; i++) {
+			bytes[i - start] = buffer.get(i);
+		}
+		return new String(bytes, StandardCharsets.US_ASCII);
+	}
+}
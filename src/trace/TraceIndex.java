@@ -0,0 +1,226 @@
+package trace;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Sparse time index of a trace, stored in a sidecar file next to it
+ * (&lt;trace&gt;.idx). It keeps the offset of the first packet of each time
+ * slot of the trace (1 second by default), so that a reader can be positioned
+ * just before a given time without reading the previous packets.
+ *
+ * The timestamps of the index are those of the trace (i.e., without applying
+ * the speed), and they are assumed to be in increasing order. The index is
+ * rebuilt when the size or the modification time of the trace changes.
+ *
+ * @author pfondo
+ *
+ */
+public class TraceIndex {
+
+	public static final String FILE_SUFFIX = ".idx";
+	public static final long DEFAULT_GRANULARITY = 1000000000L; // 1 second
+
+	private static final long MAGIC = 0x53444e5449445831L; // "SDNTIDX1"
+
+	private final long traceSize;
+	private final long traceLastModified;
+	private final long granularity;
+	private final int numEntries;
+	private final long[] timestamps;
+	private final long[] offsets;
+	private final long[] states;
+
+	private TraceIndex(long traceSize, long traceLastModified, long granularity, int numEntries, long[] timestamps,
+			long[] offsets, long[] states) {
+		this.traceSize = traceSize;
+		this.traceLastModified = traceLastModified;
+		this.granularity = granularity;
+		this.numEntries = numEntries;
+		this.timestamps = timestamps;
+		this.offsets = offsets;
+		this.states = states;
+	}
+
+	public static String getIndexFile(String inputFile) {
+		return inputFile + FILE_SUFFIX;
+	}
+
+	/**
+	 * Returns the index of the trace, loading it from its sidecar file or
+	 * building it (and writing the sidecar file) if it does not exist or is
+	 * outdated. Returns null if the format of the trace does not support seeking.
+	 */
+	public static TraceIndex loadOrBuild(String inputFile) throws IOException {
+		TraceIndex index = load(inputFile);
+		if (index == null) {
+			System.err.println("Building index of " + inputFile);
+			index = build(inputFile, DEFAULT_GRANULARITY);
+			if (index != null) {
+				index.write(getIndexFile(inputFile));
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Loads the index of the trace from its sidecar file. Returns null if it does
+	 * not exist or is outdated.
+	 */
+	public static TraceIndex load(String inputFile) throws IOException {
+		Path indexPath = Paths.get(getIndexFile(inputFile));
+		if (!Files.isRegularFile(indexPath)) {
+			return null;
+		}
+		Path tracePath = Paths.get(inputFile);
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Files.newInputStream(indexPath), 1 << 16))) {
+			if (in.readLong() != MAGIC) {
+				return null;
+			}
+			long traceSize = in.readLong();
+			long traceLastModified = in.readLong();
+			if (traceSize != Files.size(tracePath)
+					|| traceLastModified != Files.getLastModifiedTime(tracePath).toMillis()) {
+				return null;
+			}
+			long granularity = in.readLong();
+			int numEntries = in.readInt();
+			long[] timestamps = new long[numEntries];
+			long[] offsets = new long[numEntries];
+			long[] states = new long[numEntries];
+			for (int i = 0; i < numEntries; i++) {
+				timestamps[i] = in.readLong();
+				offsets[i] = in.readLong();
+				states[i] = in.readLong();
+			}
+			return new TraceIndex(traceSize, traceLastModified, granularity, numEntries, timestamps, offsets,
+					states);
+		}
+	}
+
+	/**
+	 * Builds the index of the trace in a single pass. Returns null if the format
+	 * of the trace does not support seeking.
+	 *
+	 * @param granularity
+	 *            Time between consecutive entries of the index (nanoseconds).
+	 */
+	public static TraceIndex build(String inputFile, long granularity) throws IOException {
+		Path tracePath = Paths.get(inputFile);
+		long traceSize = Files.size(tracePath);
+		long traceLastModified = Files.getLastModifiedTime(tracePath).toMillis();
+		TraceReader reader = TraceReaderFactory.open(inputFile, 1);
+		if (!(reader instanceof SeekableTraceReader)) {
+			reader.close();
+			return null;
+		}
+		SeekableTraceReader seekableReader = (SeekableTraceReader) reader;
+		TraceRecord record = new TraceRecord();
+		int numEntries = 0;
+		long[] timestamps = new long[1024];
+		long[] offsets = new long[1024];
+		long[] states = new long[1024];
+		long nextSlot = Long.MIN_VALUE;
+		try {
+			while (seekableReader.next(record)) {
+				long timestamp = record.getTimestamp();
+				if (timestamp >= nextSlot) {
+					if (numEntries == timestamps.length) {
+						timestamps = Arrays.copyOf(timestamps, 2 * numEntries);
+						offsets = Arrays.copyOf(offsets, 2 * numEntries);
+						states = Arrays.copyOf(states, 2 * numEntries);
+					}
+					timestamps[numEntries] = timestamp;
+					offsets[numEntries] = seekableReader.getRecordOffset();
+					states[numEntries] = seekableReader.getRecordState();
+					numEntries++;
+					nextSlot = (Math.floorDiv(timestamp, granularity) + 1) * granularity;
+				}
+			}
+		} finally {
+			seekableReader.close();
+		}
+		return new TraceIndex(traceSize, traceLastModified, granularity, numEntries, timestamps, offsets, states);
+	}
+
+	public void write(String indexFile) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(Paths.get(indexFile)), 1 << 16))) {
+			out.writeLong(MAGIC);
+			out.writeLong(traceSize);
+			out.writeLong(traceLastModified);
+			out.writeLong(granularity);
+			out.writeInt(numEntries);
+			for (int i = 0; i < numEntries; i++) {
+				out.writeLong(timestamps[i]);
+				out.writeLong(offsets[i]);
+				out.writeLong(states[i]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the position of the last entry whose timestamp is lower than or
+	 * equal to the given one (trace time, in nanoseconds), or -1 if there is
+	 * none.
+	 */
+	public int floorEntry(long timestamp) {
+		int low = 0;
+		int high = numEntries - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (timestamps[middle] <= timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return high;
+	}
+
+	/**
+	 * Returns the position of the entry from which the given interval of a
+	 * simulation can be read, or -1 if it must be read from the beginning.
+	 *
+	 * @param interval
+	 *            Number of the interval (the first one is 1).
+	 * @param period
+	 *            Duration of the intervals (nanoseconds).
+	 * @param speed
+	 *            Relative speed of the trace.
+	 */
+	public int floorEntry(long interval, long period, double speed) {
+		return floorEntry((long) ((interval - 1) * period * speed));
+	}
+
+	/**
+	 * Positions the reader at the given entry.
+	 */
+	public void seek(SeekableTraceReader reader, int entry) throws IOException {
+		reader.seek(offsets[entry], states[entry]);
+	}
+
+	public long getTimestamp(int entry) {
+		return timestamps[entry];
+	}
+
+	public long getOffset(int entry) {
+		return offsets[entry];
+	}
+
+	public int getNumEntries() {
+		return numEntries;
+	}
+
+	public long getGranularity() {
+		return granularity;
+	}
+}
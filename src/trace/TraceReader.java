@@ -0,0 +1,25 @@
+package trace;
+
+import java.io.IOException;
+
+/**
+ * Sequential reader of the packets of a trace.
+ * 
+ * @author pfondo
+ *
+ */
+public interface TraceReader {
+
+	/**
+	 * Reads the next packet of the trace into the given record. Comment lines
+	 * and malformed packets are skipped.
+	 * 
+	 * @param record
+	 *            Record to be filled in.
+	 * @return false if the end of the trace has been reached.
+	 * @throws IOException
+	 */
+	boolean next(TraceRecord record) throws IOException;
+
+	void close() throws IOException;
+}
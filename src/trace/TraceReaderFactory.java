@@ -0,0 +1,227 @@
+package trace;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Opens the appropriate reader for the input trace. The input may also be a
+ * comma-separated list of traces or a directory, whose traces are merged by
+ * timestamp.
+ * 
+ * @author pfondo
+ *
+ */
+public class TraceReaderFactory {
+
+	/**
+	 * Opens the input trace (or traces) with the default low-latency DSCP values.
+	 * 
+	 * @param inputFile
+	 *            Path of the trace, comma-separated list of traces or directory.
+	 * @param speed
+	 *            Relative speed of the trace. The timestamps of the packets are
+	 *            divided by this value.
+	 */
+	public static TraceReader open(String inputFile, double speed) throws IOException {
+		return open(inputFile, speed, PcapTraceReader.DEFAULT_LOW_LATENCY_DSCP);
+	}
+
+	/**
+	 * Opens the input trace (or traces).
+	 * 
+	 * @param inputFile
+	 *            Path of the trace, comma-separated list of traces or directory.
+	 * @param speed
+	 *            Relative speed of the trace. The timestamps of the packets are
+	 *            divided by this value.
+	 * @param lowLatencyDscp
+	 *            DSCP values of the low-latency packets (only used with pcap and
+	 *            pcapng captures).
+	 */
+	public static TraceReader open(String inputFile, double speed, int[] lowLatencyDscp) throws IOException {
+		return open(inputFile, speed, lowLatencyDscp, 0, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Opens a single trace. The format (text, binary, pcap or pcapng) is detected
+	 * from the first bytes of the file.
+	 */
+	private static TraceReader openFile(String inputFile, double speed, int[] lowLatencyDscp) throws IOException {
+		Path path = Paths.get(inputFile);
+		if (Files.isRegularFile(path)) {
+			byte[] header = readHeader(path, BinaryTraceFormat.MAGIC.length);
+			if (BinaryTraceFormat.hasMagic(header)) {
+				return new BinaryTraceReader(inputFile, speed);
+			}
+			if (PcapTraceReader.hasMagic(header)) {
+				return new PcapTraceReader(FileChannel.open(path, StandardOpenOption.READ), speed, lowLatencyDscp);
+			}
+			return new MappedTextTraceReader(inputFile, speed);
+		}
+		// Pipes and other special files cannot be mapped in memory, so their first
+		// bytes are pushed back after checking the format
+		PushbackInputStream inputStream = new PushbackInputStream(new FileInputStream(inputFile), 4);
+		byte[] header = new byte[4];
+		int read = 0;
+		while (read < header.length) {
+			int n = inputStream.read(header, read, header.length - read);
+			if (n < 0) {
+				break;
+			}
+			read += n;
+		}
+		inputStream.unread(header, 0, read);
+		if (read == header.length && PcapTraceReader.hasMagic(header)) {
+			return new PcapTraceReader(Channels.newChannel(inputStream), speed, lowLatencyDscp);
+		}
+		return new StreamTextTraceReader(inputStream, speed);
+	}
+
+	/**
+	 * Opens the packets of the input trace within a time window. If the format of
+	 * the trace supports it, the reader is positioned just before the window
+	 * using the index of the trace (which is built the first time). The
+	 * timestamps returned are relative to the start of the window.
+	 * 
+	 * @param startTime
+	 *            First time of the window (nanoseconds, speed already applied).
+	 * @param endTime
+	 *            Last time of the window (nanoseconds, speed already applied), or
+	 *            Long.MAX_VALUE to read until the end of the trace.
+	 */
+	public static TraceReader open(String inputFile, double speed, int[] lowLatencyDscp, long startTime,
+			long endTime) throws IOException {
+		List<String> inputFiles = getInputFiles(inputFile);
+		List<TraceReader> readers = new ArrayList<TraceReader>();
+		for (String file : inputFiles) {
+			readers.add(openFile(file, speed, lowLatencyDscp));
+		}
+		if (readers.size() > 1) {
+			// Captures use the same time reference: their earliest packet
+			long timeBase = Long.MAX_VALUE;
+			for (TraceReader reader : readers) {
+				if (reader instanceof PcapTraceReader) {
+					timeBase = Math.min(timeBase, ((PcapTraceReader) reader).getFirstTimestamp());
+				}
+			}
+			for (TraceReader reader : readers) {
+				if (reader instanceof PcapTraceReader) {
+					((PcapTraceReader) reader).setTimeBase(timeBase);
+				}
+			}
+		}
+		if (startTime > 0) {
+			for (int i = 0; i < readers.size(); i++) {
+				if (readers.get(i) instanceof SeekableTraceReader) {
+					TraceIndex index = TraceIndex.loadOrBuild(inputFiles.get(i));
+					// Margin for the rounding of the timestamps when the speed is applied
+					int entry = index == null ? -1 : index.floorEntry((long) (startTime * speed) - 1000);
+					if (entry >= 0) {
+						index.seek((SeekableTraceReader) readers.get(i), entry);
+					}
+				}
+			}
+		}
+		TraceReader reader = readers.size() == 1 ? readers.get(0) : new MergingTraceReader(readers);
+		if (startTime <= 0 && endTime == Long.MAX_VALUE) {
+			return reader;
+		}
+		return new WindowTraceReader(reader, Math.max(startTime, 0), endTime);
+	}
+
+	/**
+	 * Opens a single trace positioned just after a packet previously read from it
+	 * (e.g., to resume a simulation), by seeking to the offset of the packet
+	 * instead of reading the trace from the beginning. The timestamps returned
+	 * are relative to the start of the window, as in open().
+	 * 
+	 * @param record
+	 *            The packet, as returned by a reader of the same trace.
+	 * @return The reader, or null if the input is not a single trace whose format
+	 *         supports seeking.
+	 */
+	public static TraceReader openAfter(String inputFile, double speed, int[] lowLatencyDscp, TraceRecord record,
+			long startTime, long endTime) throws IOException {
+		List<String> inputFiles = getInputFiles(inputFile);
+		if (inputFiles.size() != 1 || record.getOffset() < 0) {
+			return null;
+		}
+		TraceReader reader = openFile(inputFiles.get(0), speed, lowLatencyDscp);
+		if (!(reader instanceof SeekableTraceReader)) {
+			reader.close();
+			return null;
+		}
+		((SeekableTraceReader) reader).seek(record.getOffset(), record.getOffsetState());
+		// Skip the packet itself, checking that it is the same one
+		TraceRecord readRecord = new TraceRecord();
+		if (!reader.next(readRecord) || readRecord.getOffset() != record.getOffset()
+				|| readRecord.getDstIp() != record.getDstIp() || readRecord.getBytes() != record.getBytes()) {
+			reader.close();
+			throw new IOException("The packet at offset " + record.getOffset() + " of " + inputFile
+					+ " does not match the one read before");
+		}
+		if (startTime <= 0 && endTime == Long.MAX_VALUE) {
+			return reader;
+		}
+		return new WindowTraceReader(reader, Math.max(startTime, 0), endTime);
+	}
+
+	/**
+	 * Returns the traces of the input: the traces of a comma-separated list, the
+	 * files of a directory (sorted by name, excluding hidden files and indexes) or
+	 * the input itself.
+	 */
+	public static List<String> getInputFiles(String inputFile) throws IOException {
+		List<String> inputFiles = new ArrayList<String>();
+		if (inputFile.contains(",")) {
+			for (String file : inputFile.split(",")) {
+				if (!file.trim().isEmpty()) {
+					inputFiles.add(file.trim());
+				}
+			}
+		} else if (Files.isDirectory(Paths.get(inputFile))) {
+			try (DirectoryStream<Path> directory = Files.newDirectoryStream(Paths.get(inputFile))) {
+				for (Path path : directory) {
+					String name = path.getFileName().toString();
+					if (!name.startsWith(".") && !name.endsWith(TraceIndex.FILE_SUFFIX)) {
+						inputFiles.add(path.toString());
+					}
+				}
+			}
+			Collections.sort(inputFiles);
+			if (inputFiles.isEmpty()) {
+				throw new IOException("No traces in directory " + inputFile);
+			}
+		} else {
+			inputFiles.add(inputFile);
+		}
+		return inputFiles;
+	}
+
+	private static byte[] readHeader(Path path, int length) throws IOException {
+		byte[] header = new byte[length];
+		int read = 0;
+		try (InputStream inputStream = Files.newInputStream(path)) {
+			while (read < length) {
+				int n = inputStream.read(header, read, length - read);
+				if (n < 0) {
+					break;
+				}
+				read += n;
+			}
+		}
+		return read == length ? header : new byte[0];
+	}
+}
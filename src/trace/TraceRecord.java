@@ -0,0 +1,138 @@
+package trace;
+
+import java.io.Serializable;
+
+/**
+ * Mutable holder of the fields of a single packet of the trace. A single
+ * instance is reused by the readers to avoid allocating an object per packet.
+ * 
+ * @author pfondo
+ *
+ */
+public class TraceRecord implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private long timestamp; // nanoseconds (speed already applied)
+	private int srcIp;
+	private int dstIp;
+	private int bytes;
+	private boolean lowLatency;
+	private int source; // Input trace of the packet when several are merged
+	private int trafficClass; // Class of service (0-7) given by the trace, 0 if none
+	// Position of the packet in its trace (see SeekableTraceReader), -1 if the
+	// reader cannot seek
+	private long offset = -1;
+	private long offsetState;
+
+	public void set(long timestamp, int srcIp, int dstIp, int bytes, boolean lowLatency) {
+		set(timestamp, srcIp, dstIp, bytes, lowLatency, 0);
+	}
+
+	public void set(long timestamp, int srcIp, int dstIp, int bytes, boolean lowLatency, int source) {
+		this.timestamp = timestamp;
+		this.srcIp = srcIp;
+		this.dstIp = dstIp;
+		this.bytes = bytes;
+		this.lowLatency = lowLatency;
+		this.source = source;
+		this.trafficClass = 0;
+		this.offset = -1;
+	}
+
+	public void copyFrom(TraceRecord other) {
+		set(other.timestamp, other.srcIp, other.dstIp, other.bytes, other.lowLatency, other.source);
+		this.trafficClass = other.trafficClass;
+		setOffset(other.offset, other.offsetState);
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	public int getSrcIp() {
+		return srcIp;
+	}
+
+	public void setSrcIp(int srcIp) {
+		this.srcIp = srcIp;
+	}
+
+	public int getDstIp() {
+		return dstIp;
+	}
+
+	public void setDstIp(int dstIp) {
+		this.dstIp = dstIp;
+	}
+
+	public int getBytes() {
+		return bytes;
+	}
+
+	public void setBytes(int bytes) {
+		this.bytes = bytes;
+	}
+
+	public boolean isLowLatency() {
+		return lowLatency;
+	}
+
+	public void setLowLatency(boolean lowLatency) {
+		this.lowLatency = lowLatency;
+	}
+
+	public int getSource() {
+		return source;
+	}
+
+	public void setSource(int source) {
+		this.source = source;
+	}
+
+	public int getTrafficClass() {
+		return trafficClass;
+	}
+
+	public void setTrafficClass(int trafficClass) {
+		this.trafficClass = trafficClass;
+	}
+
+	/**
+	 * Returns the offset of the packet in its trace (see
+	 * SeekableTraceReader.getRecordOffset()), or -1 if the reader cannot seek.
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Returns the state needed to decode the packet when seeking to its offset
+	 * (see SeekableTraceReader.getRecordState()).
+	 */
+	public long getOffsetState() {
+		return offsetState;
+	}
+
+	public void setOffset(long offset, long offsetState) {
+		this.offset = offset;
+		this.offsetState = offsetState;
+	}
+
+	/**
+	 * Converts an IPv4 address packed in an int to its dotted representation.
+	 * Only intended for debugging and output purposes.
+	 */
+	public static String ipToString(int ip) {
+		return ((ip >>> 24) & 0xFF) + "." + ((ip >>> 16) & 0xFF) + "." + ((ip >>> 8) & 0xFF) + "." + (ip & 0xFF);
+	}
+
+	@Override
+	public String toString() {
+		return timestamp + " " + ipToString(srcIp) + " " + ipToString(dstIp) + " " + bytes + (lowLatency ? " LL" : "");
+	}
+}
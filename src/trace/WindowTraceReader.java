@@ -0,0 +1,51 @@
+package trace;
+
+import java.io.IOException;
+
+/**
+ * Restricts a trace to the packets of a time window. The timestamps of the
+ * packets are shifted, so that the window starts at time 0.
+ *
+ * @author pfondo
+ *
+ */
+public class WindowTraceReader implements TraceReader {
+
+	private final TraceReader source;
+	private final long startTime;
+	private final long endTime;
+
+	/**
+	 * @param source
+	 *            Reader of the whole trace (or positioned before the window).
+	 * @param startTime
+	 *            First time of the window (nanoseconds, speed already applied).
+	 * @param endTime
+	 *            Last time of the window (nanoseconds, speed already applied).
+	 */
+	public WindowTraceReader(TraceReader source, long startTime, long endTime) {
+		this.source = source;
+		this.startTime = startTime;
+		this.endTime = endTime;
+	}
+
+	@Override
+	public boolean next(TraceRecord record) throws IOException {
+		while (source.next(record)) {
+			long time = record.getTimestamp();
+			if (time > endTime) {
+				return false;
+			}
+			if (time >= startTime) {
+				record.setTimestamp(time - startTime);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		source.close();
+	}
+}
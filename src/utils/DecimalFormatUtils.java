@@ -3,41 +3,45 @@ package utils;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 
+/**
+ * DecimalFormat is not thread-safe, so each thread (e.g., each simulation of a
+ * sweep) has its own instances.
+ */
 public class DecimalFormatUtils {
-	private static DecimalFormat df2;
+	private static ThreadLocal<DecimalFormat> df2 = newDecimalFormat("#.##");
 
-	private static DecimalFormat df4;
+	private static ThreadLocal<DecimalFormat> df4 = newDecimalFormat("#.####");
 
-	private static DecimalFormat df4pad0;
+	private static ThreadLocal<DecimalFormat> df4pad0 = newDecimalFormat("0.0000");
 
-	private static DecimalFormat df9;
+	private static ThreadLocal<DecimalFormat> df9 = newDecimalFormat("#.#########");
 
-	static {
-		DecimalFormatSymbols sym = DecimalFormatSymbols.getInstance();
-		sym.setDecimalSeparator('.');
-		df2 = new DecimalFormat("#.##");
-		df2.setDecimalFormatSymbols(sym);
-		df4 = new DecimalFormat("#.####");
-		df4.setDecimalFormatSymbols(sym);
-		df4pad0 = new DecimalFormat("0.0000");
-		df4pad0.setDecimalFormatSymbols(sym);
-		df9 = new DecimalFormat("#.#########");
-		df9.setDecimalFormatSymbols(sym);
+	private static ThreadLocal<DecimalFormat> newDecimalFormat(final String pattern) {
+		return new ThreadLocal<DecimalFormat>() {
+			@Override
+			protected DecimalFormat initialValue() {
+				DecimalFormatSymbols sym = DecimalFormatSymbols.getInstance();
+				sym.setDecimalSeparator('.');
+				DecimalFormat df = new DecimalFormat(pattern);
+				df.setDecimalFormatSymbols(sym);
+				return df;
+			}
+		};
 	}
 
 	public static DecimalFormat getDecimalFormat2() {
-		return df2;
+		return df2.get();
 	}
 
 	public static DecimalFormat getDecimalFormat4() {
-		return df4;
+		return df4.get();
 	}
 	
 	public static DecimalFormat getDecimalFormat4Pad0() {
-		return df4pad0;
+		return df4pad0.get();
 	}
 
 	public static DecimalFormat getDecimalFormat9() {
-		return df9;
+		return df9.get();
 	}
 }
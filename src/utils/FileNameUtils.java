@@ -4,12 +4,15 @@ import java.text.DecimalFormat;
 
 import algorithm.BaseAlgorithm;
 import algorithm.LowLatencyBaseAlgorithm;
+import auxiliar.ClassScheduler;
+import auxiliar.Topology;
 
 public class FileNameUtils {
 	public final static String FOLDER_SEPARATOR = "/";
 	public final static String BASE_PATH = "results/";
 	public final static String PACKETS_PATH = "packets/";
 	public final static String LOW_LATENCY_INDEX_FILE_SUFIX = "_low_latency_index.txt";
+	public final static String CHECKPOINT_FILE_SUFIX = ".checkpoint";
 
 	public static String generateOutputFileName(Class<? extends BaseAlgorithm> algorithm, String inputFile,
 			long samplingPeriod, long flowRuleTimeout, int startBitDstIp, int endBitDstIp, long queue, double speed,
@@ -17,9 +20,66 @@ public class FileNameUtils {
 		String toReturn = "";
 		DecimalFormat df = DecimalFormatUtils.getDecimalFormat4();
 		toReturn += "sim_alg=" + algorithm.getSimpleName() + "_llAlg=" + lowLatencyAlgorithm.getSimpleName()
-				+ "_inputFile=" + inputFile + "_speed=" + df.format(speed) + "_ports=" + numPorts + "_alpha="
+				+ "_inputFile=" + inputFile.replace(FOLDER_SEPARATOR, "_") + "_speed=" + df.format(speed) + "_ports=" + numPorts + "_alpha="
 				+ df.format(alphaEwma) + "_period=" + df.format(samplingPeriod / 1e9) + "_bits=" + startBitDstIp + "-"
 				+ endBitDstIp + "_queue=" + df.format(queue / 1e6) + "ms";
 		return toReturn;
 	}
+
+	/**
+	 * Returns the suffix that identifies the time window of the trace, or an empty
+	 * string if the whole trace is simulated.
+	 */
+	public static String generateWindowSuffix(long startTime, long endTime) {
+		if (startTime <= 0 && endTime == Long.MAX_VALUE) {
+			return "";
+		}
+		DecimalFormat df = DecimalFormatUtils.getDecimalFormat4();
+		return "_window=" + df.format(startTime / 1e9) + "-"
+				+ (endTime == Long.MAX_VALUE ? "end" : df.format(endTime / 1e9));
+	}
+
+	/**
+	 * Returns the suffix that identifies the traffic classes of the ports, or an
+	 * empty string if they are not used.
+	 */
+	public static String generateClassesSuffix(int numClasses, ClassScheduler.Policy policy, double[] weights) {
+		if (numClasses <= 0) {
+			return "";
+		}
+		String toReturn = "_classes=" + numClasses + "-" + policy;
+		if (weights != null && policy != ClassScheduler.Policy.SP) {
+			DecimalFormat df = DecimalFormatUtils.getDecimalFormat4();
+			for (double weight : weights) {
+				toReturn += "-" + df.format(weight);
+			}
+		}
+		return toReturn;
+	}
+
+	/**
+	 * Returns the suffix that identifies the memory budget of the heavy-hitter
+	 * mode, or an empty string if it is disabled.
+	 */
+	public static String generateHeavyHittersSuffix(int heavyHitters) {
+		if (heavyHitters <= 0) {
+			return "";
+		}
+		return "_heavyHitters=" + heavyHitters;
+	}
+
+	/**
+	 * Returns the suffix that identifies the topology and the bundle simulated (if
+	 * any), or an empty string if there is no topology.
+	 */
+	public static String generateTopologySuffix(String topologyFile, Topology.Bundle bundle) {
+		if (topologyFile == null) {
+			return "";
+		}
+		String toReturn = "_topology=" + topologyFile.replace(FOLDER_SEPARATOR, "_");
+		if (bundle != null) {
+			toReturn += "_bundle=" + bundle;
+		}
+		return toReturn;
+	}
 }